@@ -5,14 +5,21 @@ package com.amazonaws.otsmgr;
 import com.amazonaws.otsmgr.conf.MigrationConfig;
 import com.amazonaws.otsmgr.plugin.MigrationPluginInterface;
 import com.amazonaws.otsmgr.plugin.MigrationTargetEnum;
+import com.amazonaws.otsmgr.service.ClusterCoordinator;
 import com.amazonaws.otsmgr.service.MigrationService;
+import com.amazonaws.otsmgr.service.ReplayService;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 @SpringBootApplication
 public class OtsMgrApplication {
@@ -27,7 +34,8 @@ public class OtsMgrApplication {
     }
 
     @Bean
-    ApplicationRunner runner(MigrationService migrationService) {
+    ApplicationRunner runner(MigrationService migrationService, ReplayService replayService, ClusterCoordinator clusterCoordinator,
+                             ApplicationContext context) {
         return args -> {
             if (args.containsOption("restart")) {
                 config.setRestart(true);
@@ -35,6 +43,25 @@ public class OtsMgrApplication {
 
             MigrationTargetEnum target = MigrationTargetEnum.valueOfIgnoreCase(config.getMigrationTarget());
             MigrationPluginInterface migrationPlugin = migrationService.chooseMigrationTarget(target);
+            if (args.containsOption("replay-dlq")) {
+                // writes the records the target failed to write before
+                replayService.replayDeadLetters(migrationPlugin);
+                System.exit(SpringApplication.exit(context));
+            }
+            if (args.containsOption("replay")) {
+                // offline load test, the batches come from the file instead of the tunnel
+                Path file = Paths.get(args.getOptionValues("replay").get(0));
+                if (args.containsOption("replay-generate")) {
+                    replayService.generate(file, Integer.parseInt(args.getOptionValues("replay-generate").get(0)));
+                }
+                replayService.replay(file, migrationPlugin);
+                System.exit(SpringApplication.exit(context));
+            }
+            if (StringUtils.hasText(config.getClusterLeaseDir())) {
+                // the node migrates the tables it holds a lease on
+                clusterCoordinator.start(migrationPlugin);
+                return;
+            }
             migrationPlugin.migrate(config);
         };
     }
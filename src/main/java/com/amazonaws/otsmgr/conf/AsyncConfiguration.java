@@ -18,9 +18,9 @@ public class AsyncConfiguration {
     @Bean(name = "taskExecutor")
     public ThreadPoolTaskExecutor taskExecutor() {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(5);
-        executor.setMaxPoolSize(5);
-        executor.setQueueCapacity(100);
+        executor.setCorePoolSize(config.getTaskExecutorPoolSize());
+        executor.setMaxPoolSize(config.getTaskExecutorPoolSize());
+        executor.setQueueCapacity(config.getTaskExecutorQueueCapacity());
         executor.setKeepAliveSeconds(60);
         executor.setAllowCoreThreadTimeOut(true);
         executor.setAwaitTerminationSeconds(60);
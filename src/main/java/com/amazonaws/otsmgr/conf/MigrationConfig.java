@@ -23,14 +23,74 @@ public class MigrationConfig {
     private String ddbEndpoint;
     private String targetRegion;
     private String s3BuckeName;
+    private String s3Format = "csv";
+    private String s3ParquetCompression = "SNAPPY";
+    private int s3ParquetRowGroupSizeMB = 64;
+    private String s3Compression = "none";
+    private boolean s3RollingWrite;
+    private int s3PartSizeMB = 8;
+    private int s3ObjectSizeMB = 512;
+    private int s3ObjectMaxAgeSeconds = 900;
+    private int s3CleanupThreads = 8;
     private String migrationTarget;
     private String targetDynamodbType;
+    private boolean dynamodbAsync;
+    private int dynamodbMaxInFlight = 16;
+    private boolean dynamodbAdaptiveRate;
+    private int dynamodbTableConcurrency = 25;
+    private boolean dynamodbImport;
+    private String dynamodbImportLocalDir;
+    private boolean dynamodbHotKeyScheduling;
+    private int dynamodbHotKeyPercent = 2;
+    private int dynamodbHotKeyWritesPerSecond = 1000;
+    private int dynamodbHotKeyTopK = 10;
     private String migrationType;
+    private int processLanes = 1;
+    private int processLaneThreads = Runtime.getRuntime().availableProcessors();
+    private boolean coalesceRecords;
+    private int pipelineChunkSize = 500;
+    private int pipelineDepth = 4;
+    private int pipelineThreads = Runtime.getRuntime().availableProcessors();
+    private boolean versionedWrites;
+    private String versionAttribute = "_ots_version";
+    private String tombstoneAttribute = "_ots_deleted";
+    private int tombstoneTtlSeconds = 86400;
+    private int taskExecutorPoolSize = Runtime.getRuntime().availableProcessors();
+    private int taskExecutorQueueCapacity = 1000;
+    private int tunnelReadThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int tunnelProcessThreads = Runtime.getRuntime().availableProcessors() * 4;
+    private int tunnelQueueCapacity = 16;
+    private int tunnelMaxChannelParallel = -1;
+    private int tunnelHeartbeatIntervalSeconds = 30;
+    private int tunnelHeartbeatTimeoutSeconds = 300;
+    private int tunnelStatusIntervalSeconds = 60;
+    private boolean splitExport;
+    private int splitExportThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int splitExportSizeIn100MB = 1;
+    private int splitExportPageSize = 1000;
+    private int metricsPort;
+    private String metricsBindAddress = "127.0.0.1";
+    private String schemaCacheDir;
+    private int schemaCacheMaxAgeMinutes = 1440;
+    private int schemaDiscoveryThreads = 8;
+    private String replayRecordFile;
+    private int replayChannels = 4;
+    private int replayRecordsPerSecond;
+    private int replayBatchSize = 500;
+    private String dlqDir = "dlq";
+    private int dlqSegmentMB = 64;
+    private int dlqReplayBatchSize = 1000;
+    private String clusterLeaseDir;
+    private String clusterNodeId;
+    private int clusterLeaseSeconds = 30;
+    private int clusterHeartbeatSeconds = 10;
     private boolean restart;
 
     private Map<String, String[]> tablePKs;
     private Map<String, String[]> tableColumns;
     private Map<String, String[]> allTableColumns;
+    private Map<String, String[]> replaySchema = new HashMap<>();
+    private Map<String, String> mongoDB = new HashMap<>();
 
     @PostConstruct
     private void init() {
@@ -71,6 +131,42 @@ public class MigrationConfig {
         this.s3BuckeName = s3BuckeName;
     }
 
+    public void setS3Format(String s3Format) {
+        this.s3Format = s3Format;
+    }
+
+    public void setS3ParquetCompression(String s3ParquetCompression) {
+        this.s3ParquetCompression = s3ParquetCompression;
+    }
+
+    public void setS3ParquetRowGroupSizeMB(int s3ParquetRowGroupSizeMB) {
+        this.s3ParquetRowGroupSizeMB = s3ParquetRowGroupSizeMB;
+    }
+
+    public void setS3Compression(String s3Compression) {
+        this.s3Compression = s3Compression;
+    }
+
+    public void setS3RollingWrite(boolean s3RollingWrite) {
+        this.s3RollingWrite = s3RollingWrite;
+    }
+
+    public void setS3PartSizeMB(int s3PartSizeMB) {
+        this.s3PartSizeMB = s3PartSizeMB;
+    }
+
+    public void setS3ObjectSizeMB(int s3ObjectSizeMB) {
+        this.s3ObjectSizeMB = s3ObjectSizeMB;
+    }
+
+    public void setS3ObjectMaxAgeSeconds(int s3ObjectMaxAgeSeconds) {
+        this.s3ObjectMaxAgeSeconds = s3ObjectMaxAgeSeconds;
+    }
+
+    public void setS3CleanupThreads(int s3CleanupThreads) {
+        this.s3CleanupThreads = s3CleanupThreads;
+    }
+
     public void setMigrationTarget(String migrationTarget) {
         this.migrationTarget = migrationTarget;
     }
@@ -79,10 +175,206 @@ public class MigrationConfig {
         this.targetDynamodbType = targetDynamodbType;
     }
 
+    public void setDynamodbAsync(boolean dynamodbAsync) {
+        this.dynamodbAsync = dynamodbAsync;
+    }
+
+    public void setDynamodbMaxInFlight(int dynamodbMaxInFlight) {
+        this.dynamodbMaxInFlight = dynamodbMaxInFlight;
+    }
+
     public void setMigrationType(String migrationType) {
         this.migrationType = migrationType;
     }
 
+    public void setDynamodbTableConcurrency(int dynamodbTableConcurrency) {
+        this.dynamodbTableConcurrency = dynamodbTableConcurrency;
+    }
+
+    public void setDynamodbImport(boolean dynamodbImport) {
+        this.dynamodbImport = dynamodbImport;
+    }
+
+    public void setDynamodbImportLocalDir(String dynamodbImportLocalDir) {
+        this.dynamodbImportLocalDir = dynamodbImportLocalDir;
+    }
+
+    public void setDynamodbAdaptiveRate(boolean dynamodbAdaptiveRate) {
+        this.dynamodbAdaptiveRate = dynamodbAdaptiveRate;
+    }
+
+    public void setDynamodbHotKeyScheduling(boolean dynamodbHotKeyScheduling) {
+        this.dynamodbHotKeyScheduling = dynamodbHotKeyScheduling;
+    }
+
+    public void setDynamodbHotKeyPercent(int dynamodbHotKeyPercent) {
+        this.dynamodbHotKeyPercent = dynamodbHotKeyPercent;
+    }
+
+    public void setDynamodbHotKeyWritesPerSecond(int dynamodbHotKeyWritesPerSecond) {
+        this.dynamodbHotKeyWritesPerSecond = dynamodbHotKeyWritesPerSecond;
+    }
+
+    public void setDynamodbHotKeyTopK(int dynamodbHotKeyTopK) {
+        this.dynamodbHotKeyTopK = dynamodbHotKeyTopK;
+    }
+
+    public void setCoalesceRecords(boolean coalesceRecords) {
+        this.coalesceRecords = coalesceRecords;
+    }
+
+    public void setPipelineChunkSize(int pipelineChunkSize) {
+        this.pipelineChunkSize = pipelineChunkSize;
+    }
+
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public void setPipelineThreads(int pipelineThreads) {
+        this.pipelineThreads = pipelineThreads;
+    }
+
+    public void setVersionedWrites(boolean versionedWrites) {
+        this.versionedWrites = versionedWrites;
+    }
+
+    public void setVersionAttribute(String versionAttribute) {
+        this.versionAttribute = versionAttribute;
+    }
+
+    public void setTombstoneAttribute(String tombstoneAttribute) {
+        this.tombstoneAttribute = tombstoneAttribute;
+    }
+
+    public void setTombstoneTtlSeconds(int tombstoneTtlSeconds) {
+        this.tombstoneTtlSeconds = tombstoneTtlSeconds;
+    }
+
+    public void setProcessLanes(int processLanes) {
+        this.processLanes = processLanes;
+    }
+
+    public void setProcessLaneThreads(int processLaneThreads) {
+        this.processLaneThreads = processLaneThreads;
+    }
+
+    public void setTaskExecutorPoolSize(int taskExecutorPoolSize) {
+        this.taskExecutorPoolSize = taskExecutorPoolSize;
+    }
+
+    public void setTaskExecutorQueueCapacity(int taskExecutorQueueCapacity) {
+        this.taskExecutorQueueCapacity = taskExecutorQueueCapacity;
+    }
+
+    public void setTunnelReadThreads(int tunnelReadThreads) {
+        this.tunnelReadThreads = tunnelReadThreads;
+    }
+
+    public void setTunnelProcessThreads(int tunnelProcessThreads) {
+        this.tunnelProcessThreads = tunnelProcessThreads;
+    }
+
+    public void setTunnelQueueCapacity(int tunnelQueueCapacity) {
+        this.tunnelQueueCapacity = tunnelQueueCapacity;
+    }
+
+    public void setTunnelMaxChannelParallel(int tunnelMaxChannelParallel) {
+        this.tunnelMaxChannelParallel = tunnelMaxChannelParallel;
+    }
+
+    public void setTunnelHeartbeatIntervalSeconds(int tunnelHeartbeatIntervalSeconds) {
+        this.tunnelHeartbeatIntervalSeconds = tunnelHeartbeatIntervalSeconds;
+    }
+
+    public void setTunnelHeartbeatTimeoutSeconds(int tunnelHeartbeatTimeoutSeconds) {
+        this.tunnelHeartbeatTimeoutSeconds = tunnelHeartbeatTimeoutSeconds;
+    }
+
+    public void setTunnelStatusIntervalSeconds(int tunnelStatusIntervalSeconds) {
+        this.tunnelStatusIntervalSeconds = tunnelStatusIntervalSeconds;
+    }
+
+    public void setSplitExport(boolean splitExport) {
+        this.splitExport = splitExport;
+    }
+
+    public void setSplitExportThreads(int splitExportThreads) {
+        this.splitExportThreads = splitExportThreads;
+    }
+
+    public void setSplitExportSizeIn100MB(int splitExportSizeIn100MB) {
+        this.splitExportSizeIn100MB = splitExportSizeIn100MB;
+    }
+
+    public void setSplitExportPageSize(int splitExportPageSize) {
+        this.splitExportPageSize = splitExportPageSize;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public void setMetricsBindAddress(String metricsBindAddress) {
+        this.metricsBindAddress = metricsBindAddress;
+    }
+
+    public void setSchemaCacheDir(String schemaCacheDir) {
+        this.schemaCacheDir = schemaCacheDir;
+    }
+
+    public void setSchemaCacheMaxAgeMinutes(int schemaCacheMaxAgeMinutes) {
+        this.schemaCacheMaxAgeMinutes = schemaCacheMaxAgeMinutes;
+    }
+
+    public void setSchemaDiscoveryThreads(int schemaDiscoveryThreads) {
+        this.schemaDiscoveryThreads = schemaDiscoveryThreads;
+    }
+
+    public void setReplayRecordFile(String replayRecordFile) {
+        this.replayRecordFile = replayRecordFile;
+    }
+
+    public void setReplayChannels(int replayChannels) {
+        this.replayChannels = replayChannels;
+    }
+
+    public void setReplayRecordsPerSecond(int replayRecordsPerSecond) {
+        this.replayRecordsPerSecond = replayRecordsPerSecond;
+    }
+
+    public void setReplayBatchSize(int replayBatchSize) {
+        this.replayBatchSize = replayBatchSize;
+    }
+
+    public void setDlqDir(String dlqDir) {
+        this.dlqDir = dlqDir;
+    }
+
+    public void setDlqSegmentMB(int dlqSegmentMB) {
+        this.dlqSegmentMB = dlqSegmentMB;
+    }
+
+    public void setDlqReplayBatchSize(int dlqReplayBatchSize) {
+        this.dlqReplayBatchSize = dlqReplayBatchSize;
+    }
+
+    public void setClusterLeaseDir(String clusterLeaseDir) {
+        this.clusterLeaseDir = clusterLeaseDir;
+    }
+
+    public void setClusterNodeId(String clusterNodeId) {
+        this.clusterNodeId = clusterNodeId;
+    }
+
+    public void setClusterLeaseSeconds(int clusterLeaseSeconds) {
+        this.clusterLeaseSeconds = clusterLeaseSeconds;
+    }
+
+    public void setClusterHeartbeatSeconds(int clusterHeartbeatSeconds) {
+        this.clusterHeartbeatSeconds = clusterHeartbeatSeconds;
+    }
+
     public void setRestart(boolean restart) {
         this.restart = restart;
     }
@@ -91,10 +383,18 @@ public class MigrationConfig {
         this.tablePKs = tablePKs;
     }
 
+    public void setReplaySchema(Map<String, String[]> replaySchema) {
+        this.replaySchema = replaySchema;
+    }
+
     public void setTableColumns(Map<String, String[]> tableColumns) {
         this.tableColumns = tableColumns;
     }
 
+    public void setMongoDB(Map<String, String> mongoDB) {
+        this.mongoDB = mongoDB;
+    }
+
     public String getSourceEndPoint() {
         return sourceEndPoint;
     }
@@ -127,10 +427,50 @@ public class MigrationConfig {
         return s3BuckeName;
     }
 
+    public String getS3Format() {
+        return s3Format;
+    }
+
+    public boolean isS3Parquet() {
+        return "parquet".equalsIgnoreCase(s3Format);
+    }
+
+    public String getS3ParquetCompression() {
+        return s3ParquetCompression;
+    }
+
+    public int getS3ParquetRowGroupSizeMB() {
+        return s3ParquetRowGroupSizeMB;
+    }
+
+    public String getS3Compression() {
+        return s3Compression;
+    }
+
+    public boolean isS3RollingWrite() {
+        return s3RollingWrite;
+    }
+
+    public int getS3PartSizeMB() {
+        return s3PartSizeMB;
+    }
+
+    public int getS3ObjectSizeMB() {
+        return s3ObjectSizeMB;
+    }
+
+    public int getS3ObjectMaxAgeSeconds() {
+        return s3ObjectMaxAgeSeconds;
+    }
+
     public Map<String, String[]> getTablePKs() {
         return tablePKs;
     }
 
+    public Map<String, String[]> getReplaySchema() {
+        return replaySchema;
+    }
+
     public Map<String, String[]> getTableColumns() {
         return tableColumns;
     }
@@ -139,6 +479,14 @@ public class MigrationConfig {
         return allTableColumns;
     }
 
+    public Map<String, String> getMongoDB() {
+        return mongoDB;
+    }
+
+    public int getS3CleanupThreads() {
+        return s3CleanupThreads;
+    }
+
     public String getMigrationTarget() {
         return migrationTarget;
     }
@@ -147,10 +495,206 @@ public class MigrationConfig {
         return targetDynamodbType;
     }
 
+    public boolean isDynamodbAsync() {
+        return dynamodbAsync;
+    }
+
+    public int getDynamodbMaxInFlight() {
+        return dynamodbMaxInFlight;
+    }
+
     public String getMigrationType() {
         return migrationType;
     }
 
+    public int getDynamodbTableConcurrency() {
+        return dynamodbTableConcurrency;
+    }
+
+    public boolean isDynamodbImport() {
+        return dynamodbImport;
+    }
+
+    public String getDynamodbImportLocalDir() {
+        return dynamodbImportLocalDir;
+    }
+
+    public boolean isDynamodbAdaptiveRate() {
+        return dynamodbAdaptiveRate;
+    }
+
+    public boolean isDynamodbHotKeyScheduling() {
+        return dynamodbHotKeyScheduling;
+    }
+
+    public int getDynamodbHotKeyPercent() {
+        return dynamodbHotKeyPercent;
+    }
+
+    public int getDynamodbHotKeyWritesPerSecond() {
+        return dynamodbHotKeyWritesPerSecond;
+    }
+
+    public int getDynamodbHotKeyTopK() {
+        return dynamodbHotKeyTopK;
+    }
+
+    public boolean isCoalesceRecords() {
+        return coalesceRecords;
+    }
+
+    public int getPipelineChunkSize() {
+        return pipelineChunkSize;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    public int getPipelineThreads() {
+        return pipelineThreads;
+    }
+
+    public boolean isVersionedWrites() {
+        return versionedWrites;
+    }
+
+    public String getVersionAttribute() {
+        return versionAttribute;
+    }
+
+    public String getTombstoneAttribute() {
+        return tombstoneAttribute;
+    }
+
+    public int getTombstoneTtlSeconds() {
+        return tombstoneTtlSeconds;
+    }
+
+    public int getProcessLanes() {
+        return processLanes;
+    }
+
+    public int getProcessLaneThreads() {
+        return processLaneThreads;
+    }
+
+    public int getTaskExecutorPoolSize() {
+        return taskExecutorPoolSize;
+    }
+
+    public int getTaskExecutorQueueCapacity() {
+        return taskExecutorQueueCapacity;
+    }
+
+    public int getTunnelReadThreads() {
+        return tunnelReadThreads;
+    }
+
+    public int getTunnelProcessThreads() {
+        return tunnelProcessThreads;
+    }
+
+    public int getTunnelQueueCapacity() {
+        return tunnelQueueCapacity;
+    }
+
+    public int getTunnelMaxChannelParallel() {
+        return tunnelMaxChannelParallel;
+    }
+
+    public int getTunnelHeartbeatIntervalSeconds() {
+        return tunnelHeartbeatIntervalSeconds;
+    }
+
+    public int getTunnelHeartbeatTimeoutSeconds() {
+        return tunnelHeartbeatTimeoutSeconds;
+    }
+
+    public int getTunnelStatusIntervalSeconds() {
+        return tunnelStatusIntervalSeconds;
+    }
+
+    public boolean isSplitExport() {
+        return splitExport;
+    }
+
+    public int getSplitExportThreads() {
+        return splitExportThreads;
+    }
+
+    public int getSplitExportSizeIn100MB() {
+        return splitExportSizeIn100MB;
+    }
+
+    public int getSplitExportPageSize() {
+        return splitExportPageSize;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public String getMetricsBindAddress() {
+        return metricsBindAddress;
+    }
+
+    public String getSchemaCacheDir() {
+        return schemaCacheDir;
+    }
+
+    public int getSchemaCacheMaxAgeMinutes() {
+        return schemaCacheMaxAgeMinutes;
+    }
+
+    public int getSchemaDiscoveryThreads() {
+        return schemaDiscoveryThreads;
+    }
+
+    public String getReplayRecordFile() {
+        return replayRecordFile;
+    }
+
+    public int getReplayChannels() {
+        return replayChannels;
+    }
+
+    public int getReplayRecordsPerSecond() {
+        return replayRecordsPerSecond;
+    }
+
+    public int getReplayBatchSize() {
+        return replayBatchSize;
+    }
+
+    public String getDlqDir() {
+        return dlqDir;
+    }
+
+    public int getDlqSegmentMB() {
+        return dlqSegmentMB;
+    }
+
+    public int getDlqReplayBatchSize() {
+        return dlqReplayBatchSize;
+    }
+
+    public String getClusterLeaseDir() {
+        return clusterLeaseDir;
+    }
+
+    public String getClusterNodeId() {
+        return clusterNodeId;
+    }
+
+    public int getClusterLeaseSeconds() {
+        return clusterLeaseSeconds;
+    }
+
+    public int getClusterHeartbeatSeconds() {
+        return clusterHeartbeatSeconds;
+    }
+
     public boolean isRestart() {
         return restart;
     }
@@ -0,0 +1,69 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.plugin;
+
+import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
+import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import com.amazonaws.otsmgr.utils.MetricsUtil;
+import com.amazonaws.otsmgr.utils.OTSUtil;
+import io.micrometer.core.instrument.Counter;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * In-process sink that drops the records, to measure the tunnel or a replay without a target.
+ */
+@Component
+public class Migration2Discard extends MigrationPluginParent {
+    private static final Logger log = LoggerFactory.getLogger(Migration2Discard.class);
+
+    @Resource
+    private OTSUtil otsUtil;
+
+    @Resource
+    private ThreadPoolTaskExecutor threadPoolTaskExecutor;
+
+    @Override
+    public void migrate(MigrationConfig config, List<String> tableNames, boolean restart) {
+        log.info("Start reading TableStore without a target.");
+        for (String tableName : tableNames) {
+            threadPoolTaskExecutor.execute(otsUtil.getRunner(createProcessor(tableName, config), tableName));
+        }
+    }
+
+    @Override
+    public IChannelProcessor createProcessor(String tableName, MigrationConfig config) {
+        return metered(new DiscardProcessor(tableName), tableName, MigrationTargetEnum.Discard);
+    }
+
+    @Override
+    public boolean supports(MigrationTargetEnum migrationTarget) {
+        return migrationTarget == MigrationTargetEnum.Discard;
+    }
+
+    class DiscardProcessor implements IChannelProcessor {
+        private final String tableName;
+        private final Counter written;
+
+        DiscardProcessor(String tableName) {
+            this.tableName = tableName;
+            this.written = metricsUtil.counter(MetricsUtil.RECORDS_WRITTEN, tableName, MigrationTargetEnum.Discard.name());
+        }
+
+        @Override
+        public void process(ProcessRecordsInput input) {
+            written.increment(input.getRecords().size());
+        }
+
+        @Override
+        public void shutdown() {
+            log.info("process shutdown du to finished for table: " + tableName);
+        }
+    }
+}
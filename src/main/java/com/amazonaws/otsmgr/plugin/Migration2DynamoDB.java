@@ -3,25 +3,58 @@
 package com.amazonaws.otsmgr.plugin;
 
 import com.alicloud.openservices.tablestore.model.*;
+import com.alicloud.openservices.tablestore.model.tunnel.TunnelType;
 import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
 import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
-import com.amazonaws.otsmgr.beans.MigrationColumn;
-import com.amazonaws.otsmgr.beans.MigrationKey;
 import com.amazonaws.otsmgr.conf.MigrationConfig;
 import com.amazonaws.otsmgr.beans.MigrationTable;
+import com.amazonaws.otsmgr.utils.ConversionPipeline;
+import com.amazonaws.otsmgr.utils.DeadLetterJournal;
+import com.amazonaws.otsmgr.utils.DynamoDBBatchWriter;
+import com.amazonaws.otsmgr.utils.DynamoDBJsonEncoder;
 import com.amazonaws.otsmgr.utils.DynamoDBUtil;
+import com.amazonaws.otsmgr.utils.MetricsUtil;
 import com.amazonaws.otsmgr.utils.OTSUtil;
+import com.amazonaws.otsmgr.utils.PartitionScheduler;
+import com.amazonaws.otsmgr.utils.PooledBufferOutputStream;
+import com.amazonaws.otsmgr.utils.RecordConverter;
+import com.amazonaws.otsmgr.utils.S3RollingWriter;
+import com.amazonaws.otsmgr.utils.S3Util;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValueUpdate;
+import software.amazon.awssdk.services.dynamodb.model.TableStatus;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Component
@@ -37,31 +70,95 @@ public class Migration2DynamoDB extends MigrationPluginParent {
     @Resource
     private ThreadPoolTaskExecutor threadPoolTaskExecutor;
 
+    @Resource
+    private MigrationConfig config;
+
+    @Resource
+    private DeadLetterJournal deadLetterJournal;
+
+    @Resource
+    private S3Util s3Util;
+
+    @Resource
+    private ConversionPipeline conversionPipeline;
+
+    // by table, shared by the channels of the table
+    private final Map<String, PartitionScheduler> schedulers = new ConcurrentHashMap<>();
+
+    private static final String IMPORT_PREFIX = "-dynamodb-import";
+
     private DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH-mm");
 
     @Override
-    public void migrate(MigrationConfig config) {
+    public void migrate(MigrationConfig config, List<String> tableNames, boolean restart) {
         log.info("Started migrating TableStore to DynamoDB.");
-        List<MigrationTable> sourceTables = sourceTables();
+        List<MigrationTable> sourceTables = sourceTables(tableNames);
         List<MigrationTable> _sourceTables = new ArrayList<>();
-        if(!CollectionUtils.isEmpty(config.getTableNames())) {
+        if(!CollectionUtils.isEmpty(tableNames)) {
             _sourceTables = sourceTables.stream().filter(t ->
-                CollectionUtils.contains(config.getTableNames().iterator(), t.getTableMeta().getTableName())
+                CollectionUtils.contains(tableNames.iterator(), t.getTableMeta().getTableName())
             ).collect(Collectors.toList());
         }
-        clean(config, _sourceTables);
-        migrateSchema(config, _sourceTables);
-        migrateData(config, _sourceTables);
+        // Every table is cleaned, created and started on its own, so its tunnel starts as soon as the table is
+        // ACTIVE. At most dynamodbTableConcurrency tables are in the schema stage at once.
+        Semaphore permits = new Semaphore(Math.max(1, config.getDynamodbTableConcurrency()));
+        List<CompletableFuture<Void>> tables = new ArrayList<>();
+        for (MigrationTable migrationTable : _sourceTables) {
+            permits.acquireUninterruptibly();
+            CompletableFuture<Boolean> ready;
+            try {
+                ready = clean(restart, migrationTable).thenCompose(v -> migrateSchema(config, migrationTable));
+            } catch (RuntimeException e) {
+                ready = CompletableFuture.failedFuture(e);
+            }
+            tables.add(ready.whenComplete((r, t) -> permits.release())
+                    .handle((active, t) -> {
+                        if (t != null || !active) {
+                            log.error("Skipped migrating TableStore data to DynamoDB, table " + migrationTable.getTableMeta().getTableName()
+                                    + " is not ready" + (t != null ? ": " + t.getMessage() : ""));
+                            return null;
+                        }
+                        try {
+                            migrateData(config, migrationTable);
+                        } catch (RuntimeException e) {
+                            log.error("Error start migrating TableStore data to DynamoDB, " + migrationTable.getTableMeta().getTableName() + ": " + e.getMessage());
+                        }
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(tables.toArray(new CompletableFuture[0])).join();
         log.info("Finished migrating TableStore to DynamoDB.");
     }
 
-    public void clean(MigrationConfig config, List<MigrationTable> sourceTables) {
-        if(config.isRestart()) {
-            for (MigrationTable migrationTable : sourceTables) {
-                otsUtil.deleteTunel(migrationTable.getTableMeta().getTableName());
-                dynamoDBUtil.deleteTable(migrationTable.getTableMeta().getTableName());
-            }
+    // base data goes through ImportTable, the table is created by the import unless the files stay local
+    private boolean importing(MigrationConfig config) {
+        return config.isDynamodbImport()
+                && !TunnelType.Stream.name().equals(config.getMigrationType())
+                && TargetDynamoDBType.SchemaAndData.name().equalsIgnoreCase(config.getTargetDynamodbType());
+    }
+
+    // ImportTable only creates new tables, an ACTIVE table holds the data exported by an earlier run
+    private boolean imported(MigrationConfig config, String tableName) {
+        if (StringUtils.hasText(config.getDynamodbImportLocalDir())) {
+            return false;
+        }
+        TableStatus status = dynamoDBUtil.tableStatus(tableName);
+        if (status == null) {
+            return false;
+        }
+        if (status != TableStatus.ACTIVE) {
+            throw new IllegalStateException("DynamoDB table " + tableName + " is " + status
+                    + ", wait for the import of the earlier run or restart the table");
         }
+        return true;
+    }
+
+    private CompletableFuture<Void> clean(boolean restart, MigrationTable migrationTable) {
+        if(restart) {
+            otsUtil.deleteTunel(migrationTable.getTableMeta().getTableName());
+            return dynamoDBUtil.deleteTableAsync(migrationTable.getTableMeta().getTableName());
+        }
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
@@ -69,94 +166,107 @@ public class Migration2DynamoDB extends MigrationPluginParent {
         return migrationTarget == MigrationTargetEnum.DynamoDB;
     }
 
-    private void migrateSchema(MigrationConfig config, List<MigrationTable> sourceTables) {
+    // completes with whether the table is ready for data, it is when the schema isn't migrated
+    private CompletableFuture<Boolean> migrateSchema(MigrationConfig config, MigrationTable migrationTable) {
+        if (importing(config) && !StringUtils.hasText(config.getDynamodbImportLocalDir())) {
+            return CompletableFuture.completedFuture(true);
+        }
         if(TargetDynamoDBType.migrateSchema(config.getTargetDynamodbType())) {
-            for (MigrationTable migrationTable : sourceTables) {
-                log.info("Started migrating TableStore schema to DynamoDB, " + migrationTable.getTableMeta().getTableName());
-                dynamoDBUtil.createTable(migrationTable);
-                log.info("Finished migrating TableStore schema to DynamoDB, " + migrationTable.getTableMeta().getTableName());
-            }
+            String tableName = migrationTable.getTableMeta().getTableName();
+            log.info("Started migrating TableStore schema to DynamoDB, " + tableName);
+            return dynamoDBUtil.createTableAsync(migrationTable).thenApply(active -> {
+                log.info("Finished migrating TableStore schema to DynamoDB, " + tableName);
+                return active;
+            });
         }
+        return CompletableFuture.completedFuture(true);
     }
 
-    private void migrateData(MigrationConfig config, List<MigrationTable> sourceTables) {
+    private void migrateData(MigrationConfig config, MigrationTable migrationTable) {
         if(TargetDynamoDBType.migrateData(config.getTargetDynamodbType())) {
-            for (MigrationTable migrationTable : sourceTables) {
-                String tableName = migrationTable.getTableMeta().getTableName();
-                log.info("Started migrating TableStore data to DynamoDB, " + tableName);
-                Runnable runnable = otsUtil.getRunner(new DynamoDBProcessor(tableName), tableName);
-                threadPoolTaskExecutor.execute(runnable);
-                log.info("Finished migrating TableStore data to DynamoDB, " + tableName);
+            String tableName = migrationTable.getTableMeta().getTableName();
+            log.info("Started migrating TableStore data to DynamoDB, " + tableName);
+            dynamoDBUtil.registerTable(migrationTable);
+            Runnable runnable;
+            if (importing(config) && imported(config, tableName)) {
+                log.info("DynamoDB table {} was imported by an earlier run, resuming its stream", tableName);
+                runnable = otsUtil.getStreamRunner(createProcessor(tableName, config), tableName);
+            } else if (importing(config)) {
+                if (!StringUtils.hasText(config.getDynamodbImportLocalDir())) {
+                    // files of an earlier attempt would be imported as well
+                    s3Util.deleteTable(tableName + IMPORT_PREFIX);
+                }
+                ImportProcessor importProcessor = new ImportProcessor(tableName, config);
+                runnable = otsUtil.getRunner(createProcessor(tableName, config), tableName,
+                        metered(importProcessor, tableName, MigrationTargetEnum.DynamoDB),
+                        () -> importProcessor.load(migrationTable));
+            } else {
+                runnable = otsUtil.getRunner(createProcessor(tableName, config), tableName);
             }
+            threadPoolTaskExecutor.execute(runnable);
+            log.info("Finished migrating TableStore data to DynamoDB, " + tableName);
         }
     }
 
-    private void operateInDynanoDB(String tableName, StreamRecord r) {
+    @Override
+    public IChannelProcessor createProcessor(String tableName, MigrationConfig config) {
+        return metered(new DynamoDBProcessor(tableName), tableName, MigrationTargetEnum.DynamoDB);
+    }
+
+    // Converts the record into its write, applied to the writer of the batch later on the tunnel thread.
+    private Consumer<DynamoDBBatchWriter> toDynamoDBWrite(StreamRecord r) {
+        Map<String, AttributeValue> key = RecordConverter.toDynamoDBKey(r);
+        BigDecimal version = version(r);
         switch (r.getRecordType()) {
             case PUT:
+                Map<String, AttributeValue> item = RecordConverter.toDynamoDBItem(r);
+                if (version != null) {
+                    return writer -> writer.putVersioned(key, item, version, r);
+                }
+                WriteRequest put = dynamoDBUtil.buildPutRequest(item);
+                return writer -> writer.write(key, put, r);
+
             case UPDATE:
-                putInDynamoDB(tableName, r);
-                break;
+                // UPDATE has to merge attributes into the existing item, so it can't go through BatchWriteItem.
+                Map<String, AttributeValueUpdate> updates = RecordConverter.toDynamoDBUpdates(r);
+                if (version != null) {
+                    return writer -> writer.updateVersioned(key, updates, version, r);
+                }
+                return writer -> writer.update(key, updates, r);
 
             case DELETE:
-                deleteInDynamoDB(tableName, r);
-                break;
-        }
-    }
-
-    private void deleteInDynamoDB(String tableName, StreamRecord r) {
-        List<MigrationKey> keys = new ArrayList<>();
-        for(PrimaryKeyColumn k : r.getPrimaryKey().getPrimaryKeyColumns()) {
-            MigrationKey c = new MigrationKey();
-            c.setName(k.getName());
-            c.setType(k.getValue().getType());
-            c.setValue(k.getValue().toString());
-            keys.add(c);
-        }
-
-        dynamoDBUtil.deleteTableItem(tableName, keys);
-    }
-
-    private void putInDynamoDB(String tableName, StreamRecord r) {
-        List<MigrationKey> keys = Arrays.stream(r.getPrimaryKey().getPrimaryKeyColumns()).limit(2).map(k -> {
-            MigrationKey c = new MigrationKey();
-            c.setName(k.getName());
-            c.setType(k.getValue().getType());
-            c.setValue(k.getValue().toString());
-            return c;
-        }).collect(Collectors.toList());
-
-        List<MigrationColumn> columns = Arrays.stream(r.getPrimaryKey().getPrimaryKeyColumns()).skip(2).map( k -> {
-            MigrationColumn c = new MigrationColumn();
-            PrimaryKeyType _type = k.getValue().getType();
-            c.setName(k.getName());
-            c.setType(ColumnType.valueOf(_type.name()));
-            c.setValue(k.getValue().toString());
-            return c;
-        }).collect(Collectors.toList());
-
-        columns.addAll(r.getColumns().stream().map( k -> {
-            MigrationColumn c = new MigrationColumn();
-            c.setName(k.getColumn().getName());
-            c.setType(k.getColumn().getValue().getType());
-            c.setValue(k.getColumn().getValue().toString());
-            return c;
-        }).collect(Collectors.toList()));
-
-        if(r.getRecordType() == StreamRecord.RecordType.PUT) {
-            dynamoDBUtil.insertTableItem(tableName, keys, columns);
-        }
-
-        else if(r.getRecordType() == StreamRecord.RecordType.UPDATE) {
-            dynamoDBUtil.updateTableItem(tableName, keys, columns);
+                if (version != null) {
+                    return writer -> writer.deleteVersioned(key, version, r);
+                }
+                WriteRequest delete = dynamoDBUtil.buildDeleteRequest(key);
+                return writer -> writer.write(key, delete, r);
         }
+        return writer -> { };
     }
 
     class DynamoDBProcessor implements IChannelProcessor {
         private String tableName = null;
+        private final Counter written;
+        private final Counter failedRecords;
+        private final Counter coalesced;
+        private final Timer conversion;
+        private final Timer sinkLatency;
+        private final AtomicInteger inFlight;
+        private final PartitionScheduler scheduler;
 
         public DynamoDBProcessor(String tableName) {
             this.tableName = tableName;
+            String target = MigrationTargetEnum.DynamoDB.name();
+            this.written = metricsUtil.counter(MetricsUtil.RECORDS_WRITTEN, tableName, target);
+            this.failedRecords = metricsUtil.counter(MetricsUtil.RECORDS_FAILED, tableName, target);
+            this.coalesced = metricsUtil.counter(MetricsUtil.RECORDS_COALESCED, tableName, target);
+            this.conversion = metricsUtil.timer(MetricsUtil.BATCH_CONVERSION, tableName, target);
+            this.sinkLatency = metricsUtil.timer(MetricsUtil.SINK_LATENCY, tableName, target);
+            this.inFlight = metricsUtil.gauge(MetricsUtil.REQUESTS_IN_FLIGHT, tableName, target);
+            this.scheduler = !config.isDynamodbHotKeyScheduling() ? null : schedulers.computeIfAbsent(tableName,
+                    t -> new PartitionScheduler(t, config.getDynamodbHotKeyTopK(), config.getDynamodbHotKeyPercent(),
+                            config.getDynamodbHotKeyWritesPerSecond(), config.getTunnelStatusIntervalSeconds(),
+                            metricsUtil.counter(MetricsUtil.WRITES_PACED, t, target)));
         }
 
         @Override
@@ -166,14 +276,45 @@ public class Migration2DynamoDB extends MigrationPluginParent {
             //NextToken用于Tunnel Client的翻页。
             log.info(String.format("Process %d records, NextToken: %s", input.getRecords().size(), input.getNextToken()));
 
-            for(StreamRecord r : input.getRecords()) {
-                try {
-                    operateInDynanoDB(tableName, r);
+            // PUT and DELETE records are collected by key and sent with BatchWriteItem.
+            // All requests have completed when process returns, so the tunnel checkpoint stays correct.
+            DynamoDBBatchWriter writer = new DynamoDBBatchWriter(dynamoDBUtil, tableName, dynamoDBUtil.keyNames(tableName),
+                    config.getDynamodbMaxInFlight(), sinkLatency, inFlight, r -> deadLetterJournal.append(tableName, r));
+            writer.setScheduler(scheduler);
+            // chunks are converted on the pipeline threads, the writer is only used on this thread
+            AtomicLong converted = new AtomicLong();
+            AtomicInteger invalid = new AtomicInteger();
+            List<StreamRecord> records = coalesce(input.getRecords(), coalesced);
+            conversionPipeline.run(records, chunk -> {
+                long start = System.nanoTime();
+                // writes with the partition key of their item
+                List<Map.Entry<String, Consumer<DynamoDBBatchWriter>>> writes = new ArrayList<>(chunk.size());
+                for (StreamRecord r : chunk) {
+                    try {
+                        writes.add(Map.entry(scheduler != null ? PartitionScheduler.partitionKey(r) : "", toDynamoDBWrite(r)));
+                    }
+                    catch (Exception e) {
+                        invalid.incrementAndGet();
+                        deadLetterJournal.append(tableName, r);
+                        log.error("Error convert record of table " + tableName + " for DynamoDB: " + e.getMessage());
+                    }
                 }
-                catch (Exception e) {
-                    log.error("send to DynamoDB failed with record: " + r.toString(), e);
+                converted.addAndGet(System.nanoTime() - start);
+                return writes;
+            }, writes -> {
+                if (scheduler != null) {
+                    scheduler.run(writes, Map.Entry::getKey, w -> w.getValue().accept(writer));
+                } else {
+                    writes.forEach(w -> w.getValue().accept(writer));
                 }
+            });
+            int failed = writer.finish();
+            if (failed > 0) {
+                log.error("send to DynamoDB failed with {} items of table {}, journaled", failed, tableName);
             }
+            conversion.record(converted.get(), TimeUnit.NANOSECONDS);
+            written.increment(records.size() - invalid.get() - failed);
+            failedRecords.increment(invalid.get() + failed);
         }
 
         @Override
@@ -182,6 +323,131 @@ public class Migration2DynamoDB extends MigrationPluginParent {
         }
     }
 
+    /**
+     * Encodes the exported rows of a table as gzip DynamoDB JSON, one gzip member per batch, into rolling S3 objects
+     * for ImportTable, or into one local file when dynamodbImportLocalDir is set.
+     */
+    class ImportProcessor implements IChannelProcessor {
+        private final String tableName;
+        private final MigrationConfig config;
+        private final String prefix;
+        private final S3RollingWriter writer;
+        private final FileChannel file;
+        private final Counter written;
+        private final Counter failedRecords;
+        private final Timer conversion;
+        private final Timer sinkLatency;
+
+        ImportProcessor(String tableName, MigrationConfig config) {
+            this.tableName = tableName;
+            this.config = config;
+            this.prefix = tableName + IMPORT_PREFIX;
+            String target = MigrationTargetEnum.DynamoDB.name();
+            this.written = metricsUtil.counter(MetricsUtil.RECORDS_WRITTEN, tableName, target);
+            this.failedRecords = metricsUtil.counter(MetricsUtil.RECORDS_FAILED, tableName, target);
+            this.conversion = metricsUtil.timer(MetricsUtil.BATCH_CONVERSION, tableName, target);
+            this.sinkLatency = metricsUtil.timer(MetricsUtil.SINK_LATENCY, tableName, target);
+            if (StringUtils.hasText(config.getDynamodbImportLocalDir())) {
+                Path path = Paths.get(config.getDynamodbImportLocalDir(), tableName + "-" + System.currentTimeMillis() + DynamoDBJsonEncoder.EXTENSION);
+                try {
+                    Files.createDirectories(path.getParent());
+                    this.file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error open DynamoDB import file " + path, e);
+                }
+                this.writer = null;
+                log.info("Writing DynamoDB import file " + path);
+            } else {
+                this.file = null;
+                this.writer = new S3RollingWriter(s3Util, prefix, new byte[0], DynamoDBJsonEncoder.EXTENSION,
+                        config.getS3PartSizeMB() * 1024 * 1024L,
+                        config.getS3ObjectSizeMB() * 1024 * 1024L,
+                        config.getS3ObjectMaxAgeSeconds() * 1000L);
+            }
+        }
+
+        @Override
+        public void process(ProcessRecordsInput input) {
+            long start = System.nanoTime();
+            PooledBufferOutputStream stream = new PooledBufferOutputStream();
+            int invalid = 0;
+            try (DynamoDBJsonEncoder encoder = new DynamoDBJsonEncoder(stream)) {
+                for (StreamRecord r : input.getRecords()) {
+                    try {
+                        Map<String, AttributeValue> item = RecordConverter.toDynamoDBItem(r);
+                        BigDecimal version = version(r);
+                        if (version != null) {
+                            item = new HashMap<>(item);
+                            item.put(config.getVersionAttribute(), AttributeValue.fromN(version.toPlainString()));
+                        }
+                        encoder.write(item);
+                    } catch (RuntimeException e) {
+                        invalid++;
+                        deadLetterJournal.append(tableName, r);
+                        log.error("Error convert record of table " + tableName + " for DynamoDB import: " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                stream.release();
+                throw new UncheckedIOException(e);
+            }
+            conversion.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            start = System.nanoTime();
+            try {
+                if (writer != null) {
+                    writer.write(stream);
+                } else {
+                    append(stream);
+                }
+            } finally {
+                sinkLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+            written.increment(input.getRecords().size() - invalid);
+            failedRecords.increment(invalid);
+        }
+
+        private void append(PooledBufferOutputStream stream) {
+            try {
+                synchronized (file) {
+                    for (ByteBuffer buffer : stream.toByteBuffers()) {
+                        while (buffer.hasRemaining()) {
+                            file.write(buffer);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error write DynamoDB import file of table " + tableName, e);
+            } finally {
+                stream.release();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            if (writer != null) {
+                writer.close();
+                return;
+            }
+            try {
+                file.close();
+            } catch (IOException e) {
+                log.error("Error close DynamoDB import file of table " + tableName + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Imports the written objects into a new table and waits for it, local files were written for testing
+         * and the table was already created empty.
+         */
+        boolean load(MigrationTable migrationTable) {
+            if (writer == null) {
+                return true;
+            }
+            return dynamoDBUtil.importTableAsync(migrationTable, s3Util.getBucketName(), s3Util.objectKey(prefix, "")).join();
+        }
+    }
+
     enum TargetDynamoDBType {
         Schema,
         Data,
@@ -10,22 +10,36 @@ import org.springframework.core.io.support.PropertiesLoaderUtils;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
 import com.alicloud.openservices.tablestore.model.StreamRecord;
 import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
 import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
-import com.amazonaws.otsmgr.beans.MigrationColumn;
-import com.amazonaws.otsmgr.beans.MigrationKey;
 import com.amazonaws.otsmgr.beans.MigrationTable;
 import com.amazonaws.otsmgr.conf.MigrationConfig;
+import com.amazonaws.otsmgr.utils.ConversionPipeline;
+import com.amazonaws.otsmgr.utils.DeadLetterJournal;
+import com.amazonaws.otsmgr.utils.MetricsUtil;
 import com.amazonaws.otsmgr.utils.MongoDBUtil;
 import com.amazonaws.otsmgr.utils.OTSUtil;
+import com.amazonaws.otsmgr.utils.RecordConverter;
+import com.amazonaws.otsmgr.utils.ValueConverter;
+import com.mongodb.client.model.WriteModel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.Resource;
+import org.bson.Document;
+import java.math.BigDecimal;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 
 @Component
 public class Migration2MongoDB extends MigrationPluginParent{
@@ -38,29 +52,29 @@ public class Migration2MongoDB extends MigrationPluginParent{
     private MongoDBUtil mongodbUtil;
     @Resource
     private ThreadPoolTaskExecutor threadPoolTaskExecutor;
+    @Resource
+    private DeadLetterJournal deadLetterJournal;
+    @Resource
+    private ConversionPipeline conversionPipeline;
 
 
     @Override
-    public void migrate(MigrationConfig config) {
+    public void migrate(MigrationConfig config, List<String> tableNames, boolean restart) {
         log.info("Start migrating TableStore to MongoDB.");
-        List<MigrationTable> sourceTables = sourceTables();
+        List<MigrationTable> sourceTables = sourceTables(tableNames);
         List<MigrationTable> _sourceTables = new ArrayList<>();
-        if(!CollectionUtils.isEmpty(config.getTableNames())) {
+        if(!CollectionUtils.isEmpty(tableNames)) {
             _sourceTables = sourceTables.stream().filter(t ->
-                CollectionUtils.contains(config.getTableNames().iterator(), t.getTableMeta().getTableName())
+                CollectionUtils.contains(tableNames.iterator(), t.getTableMeta().getTableName())
             ).collect(Collectors.toList());
         }
-        clean(config, _sourceTables);
+        clean(restart, _sourceTables);
         //migrateSchema(config, _sourceTables);
-        try {
-            migrateData(config, _sourceTables);
-        } catch (IOException e) {
-            log.error("Can't load properties file", e);
-        }
+        migrateData(config, _sourceTables);
     }
 
-    private void clean(MigrationConfig config, List<MigrationTable> sourceTables) {
-        if(config.isRestart()) {
+    private void clean(boolean restart, List<MigrationTable> sourceTables) {
+        if(restart) {
             for (MigrationTable migrationTable : sourceTables) {
                 otsUtil.deleteTunel(migrationTable.getTableMeta().getTableName());
                 mongodbUtil.cleanTable(migrationTable.getTableMeta().getTableName());
@@ -68,19 +82,32 @@ public class Migration2MongoDB extends MigrationPluginParent{
         }
     }
 
-    private void migrateData(MigrationConfig config, List<MigrationTable> sourceTables) throws IOException {
-        org.springframework.core.io.Resource resource =  new ClassPathResource("config/application.properties");
-        Properties properties = PropertiesLoaderUtils.loadProperties(resource);
+    private void migrateData(MigrationConfig config, List<MigrationTable> sourceTables) {
         for (MigrationTable migrationTable : sourceTables) {
             String tableName = migrationTable.getTableMeta().getTableName();
-            String primaryKey = properties.getProperty("ots.migration.config.tablePK."+tableName); 
             log.info("Started migrating TableStore data to MongoDB, " + tableName);
-            Runnable runnable = otsUtil.getRunner(new MongoDBProcessor(tableName,primaryKey), tableName);
+            Runnable runnable = otsUtil.getRunner(createProcessor(tableName, config), tableName);
             threadPoolTaskExecutor.execute(runnable);
             log.info("Finished migrating TableStore data to MongoDB, " + tableName);
         }
     }
 
+    @Override
+    public IChannelProcessor createProcessor(String tableName, MigrationConfig config) {
+        return metered(new MongoDBProcessor(tableName, primaryKey(tableName)), tableName, MigrationTargetEnum.MongoDB);
+    }
+
+    private String primaryKey(String tableName) {
+        try {
+            org.springframework.core.io.Resource resource =  new ClassPathResource("config/application.properties");
+            Properties properties = PropertiesLoaderUtils.loadProperties(resource);
+            return properties.getProperty("ots.migration.config.tablePK."+tableName);
+        } catch (IOException e) {
+            log.error("Can't load properties file", e);
+            return null;
+        }
+    }
+
 
     @Override
     public boolean supports(MigrationTargetEnum delimiter) {
@@ -103,95 +130,91 @@ public class Migration2MongoDB extends MigrationPluginParent{
         }
 
     }
+
+    private WriteModel<Document> buildWriteModel(String primaryKey, StreamRecord r) {
+        BigDecimal version = version(r);
+        switch (r.getRecordType()) {
+            case PUT:
+                return mongodbUtil.buildReplaceModel(buildId(primaryKey, r), RecordConverter.toBsonFields(r), version);
+            case UPDATE:
+                return mongodbUtil.buildUpdateModel(buildId(primaryKey, r), RecordConverter.toBsonFields(r), RecordConverter.toBsonUnset(r), version);
+            default:
+                return mongodbUtil.buildDeleteModel(buildId(primaryKey, r), version);
+        }
+    }
+
     /**
      * @param tableName
      * @param primaryKey
      * @param r
      */
     private void putInMongoDB(String tableName,String primaryKey, StreamRecord r){
-        List<MigrationColumn> columns = Arrays.stream(r.getPrimaryKey().getPrimaryKeyColumns()).map(k -> {
-            MigrationColumn c = new MigrationColumn();
-            c.setName(k.getName());
-            //c.setType(k.getValue().getType());
-            c.setValue(k.getValue().toString());
-            return c;
-        }).collect(Collectors.toList());
-
-        //获取主键值
-        MigrationKey key = new MigrationKey();
-        columns.forEach(k->{
-            if(k.getName().equals(primaryKey)){
-                key.setName(k.getName());
-                key.setValue(k.getValue());
-            }
-        });
-        columns.addAll(r.getColumns().stream().map(k ->{
-            MigrationColumn c = new MigrationColumn();
-            c.setName(k.getColumn().getName());
-            c.setType(k.getColumn().getValue().getType());
-            c.setValue(k.getColumn().getValue().toString());
-            return c;
-        }).collect(Collectors.toList()));
-
-        mongodbUtil.insertTableItem(tableName, key, columns);
+        mongodbUtil.insertTableItem(tableName, buildId(primaryKey, r), RecordConverter.toBsonFields(r), version(r));
 
     }
 
     private void updateTableItem(String tableName,String primaryKey, StreamRecord r){
-        List<MigrationColumn> columns = Arrays.stream(r.getPrimaryKey().getPrimaryKeyColumns()).map(k -> {
-            MigrationColumn c = new MigrationColumn();
-            c.setName(k.getName());
-            //c.setType(k.getValue().getType());
-            c.setValue(k.getValue().toString());
-            return c;
-        }).collect(Collectors.toList());
-        //获取主键值
-        MigrationKey key = new MigrationKey();
-        columns.forEach(k->{
-            if(k.getName().equals(primaryKey)){
-                key.setName(k.getName());
-                key.setValue(k.getValue());
-            }
-        });
-        columns.addAll(r.getColumns().stream().map(k ->{
-            MigrationColumn c = new MigrationColumn();
-            c.setName(k.getColumn().getName());
-            c.setType(k.getColumn().getValue().getType());
-            c.setValue(k.getColumn().getValue().toString());
-            return c;
-        }).collect(Collectors.toList()));
-        mongodbUtil.updateTableItem(tableName, key, columns); 
+        mongodbUtil.updateTableItem(tableName, buildId(primaryKey, r), RecordConverter.toBsonFields(r), RecordConverter.toBsonUnset(r), version(r));
     }
 
     private void deleteInMongoDB(String tableName,String primaryKey, StreamRecord r){
-        List<MigrationColumn> columns = Arrays.stream(r.getPrimaryKey().getPrimaryKeyColumns()).map(k -> {
-            MigrationColumn c = new MigrationColumn();
-            c.setName(k.getName());
-            //c.setType(k.getValue().getType());
-            c.setValue(k.getValue().toString());
-            return c;
-        }).collect(Collectors.toList());
-        //获取主键值
-        MigrationKey key = new MigrationKey();
-        columns.forEach(k->{
-            if(k.getName().equals(primaryKey)){
-                key.setName(k.getName());
-                key.setValue(k.getValue());
-            }
-        });
+        mongodbUtil.deleteTableItem(tableName, buildId(primaryKey, r), version(r));
+
+
+    }
 
-        mongodbUtil.deleteTableItem(tableName, key);
+    //获取主键值
+    private Object buildId(String primaryKey, StreamRecord r) {
+        if (primaryKey == null) {
+            return null;
+        }
+        PrimaryKeyColumn keyColumn = r.getPrimaryKey().getPrimaryKeyColumn(primaryKey);
+        if (keyColumn != null) {
+            return ValueConverter.toBson(keyColumn.getValue());
+        }
+        // the id may also be an attribute column, deletes only carry the primary key
+        if (r.getRecordType() != StreamRecord.RecordType.DELETE) {
+            for (RecordColumn c : r.getColumns()) {
+                if (c.getColumnType() == RecordColumn.ColumnType.PUT && c.getColumn().getName().equals(primaryKey)) {
+                    return ValueConverter.toBson(c.getColumn().getValue());
+                }
+            }
+        }
+        return null;
+    }
 
+    // write models of a chunk and the records they came from
+    private static class Bulk {
+        private final List<WriteModel<Document>> models;
+        private final List<StreamRecord> sources;
+        private boolean ordered;
 
+        Bulk(int size) {
+            this.models = new ArrayList<>(size);
+            this.sources = new ArrayList<>(size);
+        }
     }
 
     class MongoDBProcessor implements IChannelProcessor {
         private String tableName = null;
         private String primaryKey = null;
+        private final Counter written;
+        private final Counter failedRecords;
+        private final Counter coalesced;
+        private final Timer conversion;
+        private final Timer sinkLatency;
+        private final AtomicInteger inFlight;
 
         public MongoDBProcessor(String tableName,String primaryKey) {
             this.tableName = tableName;
             this.primaryKey = primaryKey;
+            String target = MigrationTargetEnum.MongoDB.name();
+            this.written = metricsUtil.counter(MetricsUtil.RECORDS_WRITTEN, tableName, target);
+            this.failedRecords = metricsUtil.counter(MetricsUtil.RECORDS_FAILED, tableName, target);
+            this.coalesced = metricsUtil.counter(MetricsUtil.RECORDS_COALESCED, tableName, target);
+            this.conversion = metricsUtil.timer(MetricsUtil.BATCH_CONVERSION, tableName, target);
+            this.sinkLatency = metricsUtil.timer(MetricsUtil.SINK_LATENCY, tableName, target);
+            this.inFlight = metricsUtil.gauge(MetricsUtil.REQUESTS_IN_FLIGHT, tableName, target);
         }
         @Override
         public void process(ProcessRecordsInput input) {
@@ -200,16 +223,87 @@ public class Migration2MongoDB extends MigrationPluginParent{
             //NextToken用于Tunnel Client的翻页。
             log.info(String.format("Process %d records, NextToken: %s", input.getRecords().size(), input.getNextToken()));
             
-            for (StreamRecord r : input.getRecords()) {
+            List<StreamRecord> records = coalesce(input.getRecords(), coalesced);
+            if (mongodbUtil.isBulkWrite()) {
+                bulkWrite(records);
+                return;
+            }
+
+            // records are converted and written one by one, the sink latency includes their conversion
+            for (StreamRecord r : records) {
+                inFlight.incrementAndGet();
+                long start = System.nanoTime();
                 try{
                     operateInMongoDB(tableName,primaryKey, r);
+                    written.increment();
                 }catch(Exception e){
-                    log.error("send to MongoDB failed with record: " + r.toString(), e);
+                    failedRecords.increment();
+                    deadLetterJournal.append(tableName, r);
+                    log.error("send to MongoDB failed with a record of table " + tableName + ", journaled: " + e.getMessage());
+                } finally {
+                    sinkLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    inFlight.decrementAndGet();
                 }
                 
             }
         }
 
+        // One bulkWrite round trip per pipeline chunk, the chunks are written in batch order.
+        private void bulkWrite(List<StreamRecord> records) {
+            AtomicLong converted = new AtomicLong();
+            conversionPipeline.run(records, chunk -> {
+                long start = System.nanoTime();
+                Bulk bulk = toBulk(chunk);
+                converted.addAndGet(System.nanoTime() - start);
+                return bulk;
+            }, this::write);
+            conversion.record(converted.get(), TimeUnit.NANOSECONDS);
+        }
+
+        // The bulk is unordered unless a key shows up more than once.
+        private Bulk toBulk(List<StreamRecord> records) {
+            Bulk bulk = new Bulk(records.size());
+            Set<Object> keys = new HashSet<>();
+            for (StreamRecord r : records) {
+                try {
+                    WriteModel<Document> model = buildWriteModel(primaryKey, r);
+                    if (model == null) {
+                        continue;
+                    }
+                    if (!keys.add(buildId(primaryKey, r))) {
+                        bulk.ordered = true;
+                    }
+                    bulk.models.add(model);
+                    bulk.sources.add(r);
+                } catch (Exception e) {
+                    failedRecords.increment();
+                    deadLetterJournal.append(tableName, r);
+                    log.error("Error convert record of table " + tableName + " for MongoDB: " + e.getMessage());
+                }
+            }
+            return bulk;
+        }
+
+        private void write(Bulk bulk) {
+            inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            List<Integer> failed;
+            try {
+                failed = mongodbUtil.bulkWriteTableItems(tableName, bulk.models, bulk.ordered);
+            } finally {
+                sinkLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                inFlight.decrementAndGet();
+            }
+            for (int i : failed) {
+                deadLetterJournal.append(tableName, bulk.sources.get(i));
+            }
+            if (!failed.isEmpty()) {
+                log.error("send to MongoDB failed with {} records of table {}, journaled", failed.size(), tableName);
+            }
+            written.increment(bulk.models.size() - failed.size());
+            failedRecords.increment(failed.size());
+        }
+
         @Override
         public void shutdown() {
             log.info("process shutdown du to finished for table: " + tableName);
@@ -2,15 +2,24 @@
 // SPDX-License-Identifier: MIT-0
 package com.amazonaws.otsmgr.plugin;
 
+import com.alicloud.openservices.tablestore.model.StreamRecord;
 import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
 import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
-import com.amazonaws.otsmgr.beans.MigrationColumn;
+import com.amazonaws.otsmgr.beans.MigrationTable;
 import com.amazonaws.otsmgr.conf.MigrationConfig;
+import com.amazonaws.otsmgr.utils.ColumnProjection;
+import com.amazonaws.otsmgr.utils.CsvRecordEncoder;
+import com.amazonaws.otsmgr.utils.MetricsUtil;
 import com.amazonaws.otsmgr.utils.OTSUtil;
+import com.amazonaws.otsmgr.utils.PooledBufferOutputStream;
+import com.amazonaws.otsmgr.utils.RecordConverter;
+import com.amazonaws.otsmgr.utils.S3ParquetWriter;
+import com.amazonaws.otsmgr.utils.S3RollingWriter;
 import com.amazonaws.otsmgr.utils.S3Util;
-import com.opencsv.CSVWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
-import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -19,11 +28,12 @@ import org.springframework.util.CollectionUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public class Migration2S3 extends MigrationPluginParent {
@@ -38,17 +48,21 @@ public class Migration2S3 extends MigrationPluginParent {
     @Resource
     ThreadPoolTaskExecutor threadPoolTaskExecutor;
 
+    private final Map<String, S3RollingWriter> writers = new ConcurrentHashMap<>();
+
+    private final Map<String, S3ParquetWriter> parquetWriters = new ConcurrentHashMap<>();
+
     @Override
-    public void migrate(MigrationConfig config) {
+    public void migrate(MigrationConfig config, List<String> tableNames, boolean restart) {
         log.info("Start migrating TableStore to S3.");
-        clean(config);
-        migrateData(config);
+        clean(restart, tableNames);
+        migrateData(config, tableNames);
         log.info("Finish migrating TableStore to S3.");
     }
 
-    public void clean(MigrationConfig config) {
-        if(config.isRestart()) {
-            for (String migrationTable : config.getTableNames()) {
+    public void clean(boolean restart, List<String> tableNames) {
+        if(restart) {
+            for (String migrationTable : tableNames) {
                 otsUtil.deleteTunel(migrationTable);
                 s3Util.deleteTable(migrationTable);
             }
@@ -60,23 +74,71 @@ public class Migration2S3 extends MigrationPluginParent {
         return migrationTarget == MigrationTargetEnum.S3;
     }
 
-    private void migrateData(MigrationConfig config) {
-        for (String tableName : config.getTableNames()) {
+    @PreDestroy
+    public void close() {
+        writers.values().forEach(S3RollingWriter::close);
+        parquetWriters.values().forEach(S3ParquetWriter::close);
+    }
+
+    private void migrateData(MigrationConfig config, List<String> tableNames) {
+        for (String tableName : tableNames) {
             log.info("Started migrating TableStore data to S3, " + tableName);
-            Runnable runnable = otsUtil.getRunner(new S3Processor(tableName, config), tableName);
+            Runnable runnable = otsUtil.getRunner(createProcessor(tableName, config), tableName);
             threadPoolTaskExecutor.execute(runnable);
             log.info("Finished migrating TableStore data to S3, " + tableName);
         }
     }
 
+    /**
+     * Parquet writers are opened with the source table schema on the first processor of the table.
+     */
+    @Override
+    public IChannelProcessor createProcessor(String tableName, MigrationConfig config) {
+        if (config.isS3Parquet()) {
+            parquetWriters.computeIfAbsent(tableName, t -> {
+                // column types come from the source table schema
+                List<MigrationTable> tables = sourceTables(List.of(t));
+                if (tables.isEmpty()) {
+                    throw new IllegalStateException("No schema of table " + t + " for the Parquet output");
+                }
+                return new S3ParquetWriter(s3Util, tables.get(0).getTableMeta(),
+                        config.getTableColumns().get(t), config.getS3ParquetCompression(),
+                        config.getS3ParquetRowGroupSizeMB() * 1024 * 1024L);
+            });
+        } else if (config.isS3RollingWrite()) {
+            writers.computeIfAbsent(tableName, t -> {
+                s3Util.completeUnfinishedUploads(t);
+                return new S3RollingWriter(s3Util, t, buildHeader(config, t),
+                        CsvRecordEncoder.extension(config.getS3Compression()),
+                        config.getS3PartSizeMB() * 1024 * 1024L,
+                        config.getS3ObjectSizeMB() * 1024 * 1024L,
+                        config.getS3ObjectMaxAgeSeconds() * 1000L);
+            });
+        }
+        return metered(new S3Processor(tableName, config), tableName, MigrationTargetEnum.S3);
+    }
+
     //用户自定义数据消费Callback，即实现IChannelProcessor接口（process和shutdown）。
     class S3Processor implements IChannelProcessor {
         private String tableName = null;
         private MigrationConfig config = null;
+        private final ColumnProjection projection;
+        private final Counter written;
+        private final Counter failedRecords;
+        private final Timer conversion;
+        private final Timer sinkLatency;
+        private final AtomicInteger inFlight;
 
         public S3Processor(String tableName, MigrationConfig config) {
             this.tableName = tableName;
             this.config = config;
+            this.projection = new ColumnProjection(config.getTableColumns().get(tableName));
+            String target = MigrationTargetEnum.S3.name();
+            this.written = metricsUtil.counter(MetricsUtil.RECORDS_WRITTEN, tableName, target);
+            this.failedRecords = metricsUtil.counter(MetricsUtil.RECORDS_FAILED, tableName, target);
+            this.conversion = metricsUtil.timer(MetricsUtil.BATCH_CONVERSION, tableName, target);
+            this.sinkLatency = metricsUtil.timer(MetricsUtil.SINK_LATENCY, tableName, target);
+            this.inFlight = metricsUtil.gauge(MetricsUtil.REQUESTS_IN_FLIGHT, tableName, target);
         }
 
         @Override
@@ -86,56 +148,98 @@ public class Migration2S3 extends MigrationPluginParent {
             //NextToken用于Tunnel Client的翻页。
             log.info(String.format("Process %d records, NextToken: %s", input.getRecords().size(), input.getNextToken()));
 
+            S3ParquetWriter parquetWriter = parquetWriters.get(tableName);
+            if (parquetWriter != null && !CollectionUtils.isEmpty(input.getRecords())) {
+                // records are converted while they are written, the sink latency includes the conversion
+                inFlight.incrementAndGet();
+                long start = System.nanoTime();
+                try {
+                    parquetWriter.write(input.getRecords());
+                    written.increment(input.getRecords().size());
+                } catch (RuntimeException e) {
+                    // not acknowledged, the tunnel delivers the batch again
+                    failedRecords.increment(input.getRecords().size());
+                    log.error("Error upload to S3: " + e.getMessage());
+                    throw e;
+                } finally {
+                    sinkLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    inFlight.decrementAndGet();
+                }
+                return;
+            }
+
             if (!CollectionUtils.isEmpty(input.getRecords())) {
                 log.info("Start to deal with ProcessRecordsInput.");
-                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                OutputStreamWriter streamWriter = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
-                try (CSVWriter writer = buildCSVWriter(streamWriter)) {
-                    List<String[]> lines = input.getRecords().stream()
-                            .map(r -> {
-                                String[] pk_values = Arrays.stream(r.getPrimaryKey().getPrimaryKeyColumns()).map(col -> {
-                                    String _col = col.getValue().toString();
-                                    return _col;
-                                }).toArray(String[]::new);
-
-                                List<MigrationColumn> mcols = r.getColumns().stream().map(col -> {
-                                    MigrationColumn mcol = new MigrationColumn();
-                                    mcol.setName(col.getColumn().getName().toString());
-                                    mcol.setValue(col.getColumn().getValue().toString());
-                                    return mcol;
-                                }).collect(Collectors.toList());
-
-                                String[] col_values = Arrays.stream(config.getTableColumns().get(tableName)).map(col -> {
-                                    MigrationColumn _mcol = new MigrationColumn();
-                                    _mcol.setName(col);
-                                    int i = mcols.indexOf(_mcol);
-                                    return i < 0 ? "" : mcols.get(i).getValue();
-                                }).toArray(String[]::new);
-
-                                return (String[]) ArrayUtils.addAll(pk_values, col_values);
-                            })
-                            .collect(Collectors.toList());
+                S3RollingWriter rollingWriter = writers.get(tableName);
+                PooledBufferOutputStream stream = new PooledBufferOutputStream();
+                long start = System.nanoTime();
+                try {
+                    // records are encoded one by one straight into the pooled buffers
+                    try (CsvRecordEncoder encoder = new CsvRecordEncoder(stream, config.getS3Compression())) {
+                        if (rollingWriter == null) {
+                            // every object starts with the header line
+                            encoder.writeRecord(config.getAllTableColumns().get(tableName));
+                        }
+                        String[] row = projection.newRow();
+                        for (StreamRecord r : input.getRecords()) {
+                            RecordConverter.writeCsv(r, projection, row, encoder);
+                        }
+                    }
                     log.info("Finished to deal with ProcessRecordsInput.");
-                    log.info("Start to write to ByteArrayOutputStream.");
-                    lines.add(0, config.getAllTableColumns().get(tableName));
-                    writer.writeAll(lines);
-                    writer.flush();
-                    log.info("Finished to write to ByteArrayOutputStream.");
-
-                    s3Util.uploadItem(tableName, input.getTraceId(), stream);
+                    conversion.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+                    boolean uploaded = true;
+                    inFlight.incrementAndGet();
+                    start = System.nanoTime();
+                    try {
+                        if (rollingWriter == null) {
+                            try {
+                                uploaded = s3Util.uploadItem(tableName, input.getTraceId() + CsvRecordEncoder.extension(config.getS3Compression()), stream);
+                            } finally {
+                                stream.release();
+                            }
+                        } else {
+                            rollingWriter.write(stream);
+                        }
+                    } finally {
+                        sinkLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        inFlight.decrementAndGet();
+                    }
+                    (uploaded ? written : failedRecords).increment(input.getRecords().size());
                 } catch (IOException e) {
+                    stream.release();
+                    failedRecords.increment(input.getRecords().size());
                     log.error("Error upload to S3: " + e.getMessage());
+                } catch (CompletionException e) {
+                    // not acknowledged, the tunnel delivers the batch again
+                    failedRecords.increment(input.getRecords().size());
+                    log.error("Error upload to S3: " + e.getMessage());
+                    throw e;
                 }
             }
         }
 
         @Override
         public void shutdown() {
+            S3RollingWriter rollingWriter = writers.get(tableName);
+            if (rollingWriter != null) {
+                rollingWriter.close();
+            }
+            S3ParquetWriter parquetWriter = parquetWriters.get(tableName);
+            if (parquetWriter != null) {
+                parquetWriter.close();
+            }
             log.info("process shutdown du to finished for table: " + tableName);
         }
+    }
 
-        private CSVWriter buildCSVWriter(OutputStreamWriter streamWriter) {
-            return new CSVWriter(streamWriter, ',', Character.MIN_VALUE, '"', System.lineSeparator());
+    private byte[] buildHeader(MigrationConfig config, String tableName) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (CsvRecordEncoder encoder = new CsvRecordEncoder(stream, config.getS3Compression())) {
+            encoder.writeRecord(config.getAllTableColumns().get(tableName));
+        } catch (IOException e) {
+            log.error("Error build CSV header: " + e.getMessage());
         }
+        return stream.toByteArray();
     }
 }
\ No newline at end of file
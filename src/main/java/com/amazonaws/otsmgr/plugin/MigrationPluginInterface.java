@@ -2,11 +2,30 @@
 // SPDX-License-Identifier: MIT-0
 package com.amazonaws.otsmgr.plugin;
 
+import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
 import com.amazonaws.otsmgr.conf.MigrationConfig;
 import org.springframework.plugin.core.Plugin;
 
+import java.util.List;
+
 public interface MigrationPluginInterface extends Plugin<MigrationTargetEnum> {
 //    void cleanTargetTables(MigrationConfig migrationConfigs);
 
-    void migrate(MigrationConfig migrationConfig);
+    default void migrate(MigrationConfig migrationConfig) {
+        migrate(migrationConfig, migrationConfig.getTableNames(), migrationConfig.isRestart());
+    }
+
+    /**
+     * Migrates the given tables only, cluster nodes call it with the tables they hold a lease on.
+     *
+     * @param restart whether the tunnels and the target data of the tables are deleted first, in place of the
+     *                restart setting
+     */
+    void migrate(MigrationConfig migrationConfig, List<String> tableNames, boolean restart);
+
+    /**
+     * Metered processor writing the batches of the table to the target, for the tunnel worker or a replay.
+     * The target table has to exist already.
+     */
+    IChannelProcessor createProcessor(String tableName, MigrationConfig migrationConfig);
 }
\ No newline at end of file
@@ -2,14 +2,26 @@
 // SPDX-License-Identifier: MIT-0
 package com.amazonaws.otsmgr.plugin;
 
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
+import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
 import com.amazonaws.otsmgr.beans.MigrationTable;
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import com.amazonaws.otsmgr.utils.MetricsUtil;
 import com.amazonaws.otsmgr.utils.OTSUtil;
+import com.amazonaws.otsmgr.utils.RecordCoalescer;
+import com.amazonaws.otsmgr.utils.RecordConverter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import java.math.BigDecimal;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 public abstract class MigrationPluginParent implements MigrationPluginInterface {
@@ -18,10 +30,84 @@ public abstract class MigrationPluginParent implements MigrationPluginInterface
     @Autowired
     private OTSUtil otsUtil;
 
-    public List<MigrationTable> sourceTables() {
+    @Autowired
+    protected MetricsUtil metricsUtil;
+
+    @Autowired
+    private MigrationConfig migrationConfig;
+
+    public List<MigrationTable> sourceTables(List<String> tableNames) {
         log.info("Get from source TableStore.");
-        List<MigrationTable> migrationTables = otsUtil.getAllTableSchema();
+        List<MigrationTable> migrationTables = otsUtil.getTableSchemas(tableNames);
         log.info("Finished Get from source TableStore.");
         return migrationTables;
     }
+
+    /**
+     * Folds the changes of every key in the batch into one record when coalesceRecords is enabled,
+     * the records saved are counted.
+     */
+    protected List<StreamRecord> coalesce(List<StreamRecord> records, Counter coalesced) {
+        if (!migrationConfig.isCoalesceRecords()) {
+            return records;
+        }
+        List<StreamRecord> result = RecordCoalescer.coalesce(records);
+        coalesced.increment(records.size() - result.size());
+        return result;
+    }
+
+    /**
+     * @return the version guarding the writes of the record, null when versionedWrites is off or the record has none
+     */
+    protected BigDecimal version(StreamRecord r) {
+        return migrationConfig.isVersionedWrites() ? RecordConverter.toVersion(r) : null;
+    }
+
+    /**
+     * Wraps the processor of a table to count the records read, time the batches and track the batches in process.
+     * Records written and failed are counted by the processor itself.
+     */
+    protected IChannelProcessor metered(IChannelProcessor processor, String tableName, MigrationTargetEnum target) {
+        return new MeteredProcessor(processor, tableName, target.name());
+    }
+
+    class MeteredProcessor implements IChannelProcessor {
+        private final IChannelProcessor processor;
+        private final Counter read;
+        private final Counter failedBatches;
+        private final Timer latency;
+        private final AtomicInteger inFlight;
+
+        MeteredProcessor(IChannelProcessor processor, String tableName, String target) {
+            this.processor = processor;
+            this.read = metricsUtil.counter(MetricsUtil.RECORDS_READ, tableName, target);
+            this.failedBatches = metricsUtil.counter(MetricsUtil.BATCHES_FAILED, tableName, target);
+            this.latency = metricsUtil.timer(MetricsUtil.BATCH_PROCESS, tableName, target);
+            this.inFlight = metricsUtil.gauge(MetricsUtil.BATCHES_IN_FLIGHT, tableName, target);
+        }
+
+        @Override
+        public void process(ProcessRecordsInput input) {
+            if (input.getRecords() != null) {
+                read.increment(input.getRecords().size());
+            }
+            inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                processor.process(input);
+            } catch (RuntimeException e) {
+                // the tunnel delivers the batch again, its records are read twice
+                failedBatches.increment();
+                throw e;
+            } finally {
+                latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            processor.shutdown();
+        }
+    }
 }
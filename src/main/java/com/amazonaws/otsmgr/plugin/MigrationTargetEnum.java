@@ -5,7 +5,8 @@ package com.amazonaws.otsmgr.plugin;
 public enum MigrationTargetEnum {
     DynamoDB,
     S3,
-    MongoDB;
+    MongoDB,
+    Discard;
 
 
     public static MigrationTargetEnum valueOfIgnoreCase(String name) {
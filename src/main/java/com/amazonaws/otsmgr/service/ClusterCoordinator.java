@@ -0,0 +1,248 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.service;
+
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import com.amazonaws.otsmgr.plugin.MigrationPluginInterface;
+import com.amazonaws.otsmgr.utils.LeaseStore;
+import com.amazonaws.otsmgr.utils.MetricsUtil;
+import com.amazonaws.otsmgr.utils.OTSUtil;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cluster mode, spreads tableNames over the nodes sharing clusterLeaseDir. On every heartbeat the node renews the
+ * leases of its tables, stops the tables another node took over, gives up the tables above its share of the live
+ * nodes and claims free or expired tables up to its share. Claimed tables are migrated on a separate thread, so slow
+ * table setups never delay the renewals. A table only starts, and its export and tunnel only begin, while the node
+ * still holds its lease, and stopping it cancels its start or export. Tables are leased whole: the channels of a
+ * table are spread by its Tablestore tunnel, which its successive owners share with their checkpoints.
+ */
+@Service
+public class ClusterCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(ClusterCoordinator.class);
+
+    // heartbeats between two cluster throughput reports
+    private static final int REPORT_HEARTBEATS = 6;
+
+    @Resource
+    private MigrationConfig config;
+
+    @Resource
+    private OTSUtil otsUtil;
+
+    @Resource
+    private MetricsUtil metricsUtil;
+
+    private final Set<String> held = ConcurrentHashMap.newKeySet();
+
+    private LeaseStore store;
+    private String nodeId;
+    private MigrationPluginInterface plugin;
+    private boolean restart;
+    private ScheduledExecutorService heartbeat;
+    private ExecutorService starter;
+    private long lastWritten;
+    private long lastHeartbeat;
+    private int heartbeats;
+
+    /**
+     * Joins the cluster and keeps the node running its share of the tables until the application stops.
+     */
+    public void start(MigrationPluginInterface plugin) throws IOException {
+        this.plugin = plugin;
+        this.restart = config.isRestart();
+        this.nodeId = StringUtils.hasText(config.getClusterNodeId()) ? config.getClusterNodeId()
+                : InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        this.store = new LeaseStore(Paths.get(config.getClusterLeaseDir()));
+        otsUtil.setStartCheck(this::owns);
+        // spring.main.keep-alive keeps the node up while it holds no table
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "otsmgr-cluster-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        starter = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "otsmgr-cluster-start");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Node {} joined the cluster in {} for {} tables", nodeId, config.getClusterLeaseDir(), config.getTableNames().size());
+        heartbeat.scheduleWithFixedDelay(this::heartbeat, 0, config.getClusterHeartbeatSeconds(), TimeUnit.SECONDS);
+    }
+
+    private void heartbeat() {
+        try {
+            long now = System.currentTimeMillis();
+            Map<String, Boolean> claimed = store.locked(() -> rebalance(now, TimeUnit.SECONDS.toMillis(config.getClusterLeaseSeconds())));
+            if (!claimed.isEmpty()) {
+                starter.execute(() -> migrate(claimed));
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Error cluster heartbeat of node " + nodeId + ": " + e.getMessage());
+        }
+    }
+
+    // Runs under the store lock, returns the tables to start with whether this is their first claim.
+    private Map<String, Boolean> rebalance(long now, long leaseMillis) throws IOException {
+        long written = (long) metricsUtil.total(MetricsUtil.RECORDS_WRITTEN);
+        double rate = lastHeartbeat > 0 ? (written - lastWritten) * 1000.0 / Math.max(1, now - lastHeartbeat) : 0;
+        lastWritten = written;
+        lastHeartbeat = now;
+        store.putNode(new LeaseStore.Node(nodeId, now, held.size(), written, rate));
+
+        Map<String, LeaseStore.Node> live = new TreeMap<>();
+        for (LeaseStore.Node node : store.nodes().values()) {
+            if (node.getHeartbeat() > now - leaseMillis) {
+                live.put(node.getId(), node);
+            }
+        }
+        List<String> tables = config.getTableNames();
+        int share = (tables.size() + live.size() - 1) / Math.max(1, live.size());
+        Map<String, LeaseStore.Lease> leases = store.leases();
+
+        // tables another node took over while this node missed its renewals
+        for (String tableName : new ArrayList<>(held)) {
+            LeaseStore.Lease lease = leases.get(tableName);
+            if ((lease == null || !nodeId.equals(lease.getOwner())) && otsUtil.stop(tableName)) {
+                held.remove(tableName);
+                log.warn("Node {} lost the lease of table {}, stopped it", nodeId, tableName);
+            }
+        }
+
+        Map<String, Boolean> start = new TreeMap<>();
+        List<String> mine = new ArrayList<>();
+        for (String tableName : tables) {
+            LeaseStore.Lease lease = leases.get(tableName);
+            if (lease != null && nodeId.equals(lease.getOwner())) {
+                store.putLease(tableName, new LeaseStore.Lease(nodeId, now + leaseMillis, lease.getClaims()));
+                mine.add(tableName);
+                // leases this node held before a restart under the same node id
+                if (held.add(tableName)) {
+                    start.put(tableName, false);
+                }
+            }
+        }
+        // the last tables above the share go back, the other nodes claim them on their next heartbeat
+        for (int i = mine.size() - 1; i >= 0 && mine.size() > share; i--) {
+            String tableName = mine.get(i);
+            if (!start.containsKey(tableName) && otsUtil.stop(tableName)) {
+                store.releaseLease(tableName, leases.get(tableName));
+                held.remove(tableName);
+                mine.remove(i);
+                log.info("Node {} gave up table {}, its share is {} tables", nodeId, tableName, share);
+            }
+        }
+        for (String tableName : tables) {
+            if (mine.size() >= share) {
+                break;
+            }
+            LeaseStore.Lease lease = leases.get(tableName);
+            if (lease == null || lease.getOwner().isEmpty() || (!nodeId.equals(lease.getOwner()) && lease.getExpires() < now)) {
+                int claims = lease == null ? 1 : lease.getClaims() + 1;
+                store.putLease(tableName, new LeaseStore.Lease(nodeId, now + leaseMillis, claims));
+                mine.add(tableName);
+                held.add(tableName);
+                start.put(tableName, claims == 1);
+                log.info("Node {} claimed table {}{}", nodeId, tableName,
+                        lease != null && !lease.getOwner().isEmpty() ? " from " + lease.getOwner() : "");
+            }
+        }
+
+        if (heartbeats++ % REPORT_HEARTBEATS == 0 || !start.isEmpty()) {
+            report(live);
+        }
+        return start;
+    }
+
+    private void report(Map<String, LeaseStore.Node> live) {
+        double total = live.values().stream().mapToDouble(LeaseStore.Node::getRate).sum();
+        List<String> nodes = new ArrayList<>();
+        for (LeaseStore.Node node : live.values()) {
+            nodes.add(String.format("%s: %d tables %.1f records/s (%.0f%%)", node.getId(), node.getTables(), node.getRate(),
+                    total > 0 ? node.getRate() * 100 / total : 0));
+        }
+        log.info("Cluster of {} nodes, {} records/s: {}", live.size(), String.format("%.1f", total), nodes);
+    }
+
+    // restart only cleans the tables claimed for the first time, the others resume from their tunnel checkpoint
+    private void migrate(Map<String, Boolean> claimed) {
+        List<String> fresh = new ArrayList<>();
+        List<String> resumed = new ArrayList<>();
+        claimed.forEach((tableName, first) -> {
+            // the lease may have gone while the earlier tables were set up
+            if (owns(tableName)) {
+                (first ? fresh : resumed).add(tableName);
+            }
+        });
+        try {
+            if (!fresh.isEmpty()) {
+                plugin.migrate(config, fresh, restart);
+            }
+            if (!resumed.isEmpty()) {
+                plugin.migrate(config, resumed, false);
+            }
+        } catch (RuntimeException e) {
+            log.error("Error start migrating tables " + claimed.keySet() + " on node " + nodeId + ": " + e.getMessage());
+        }
+    }
+
+    // whether the node holds an unexpired lease of the table
+    private boolean owns(String tableName) {
+        if (!held.contains(tableName)) {
+            return false;
+        }
+        try {
+            LeaseStore.Lease lease = store.locked(() -> store.lease(tableName));
+            return lease != null && nodeId.equals(lease.getOwner()) && lease.getExpires() > System.currentTimeMillis();
+        } catch (IOException e) {
+            log.error("Error read the lease of table " + tableName + " on node " + nodeId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Hands the leases of the node back, so the other nodes take its tables on their next heartbeat.
+     */
+    @PreDestroy
+    public void leave() {
+        if (heartbeat == null) {
+            return;
+        }
+        heartbeat.shutdownNow();
+        starter.shutdownNow();
+        try {
+            store.locked(() -> {
+                Map<String, LeaseStore.Lease> leases = store.leases();
+                for (String tableName : held) {
+                    LeaseStore.Lease lease = leases.get(tableName);
+                    if (lease != null && nodeId.equals(lease.getOwner())) {
+                        store.releaseLease(tableName, lease);
+                    }
+                }
+                return null;
+            });
+            log.info("Node {} left the cluster, released {} tables", nodeId, held.size());
+        } catch (IOException e) {
+            log.error("Error release the leases of node " + nodeId + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,387 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.service;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnType;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.RecordSequenceInfo;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
+import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import com.amazonaws.otsmgr.plugin.MigrationPluginInterface;
+import com.amazonaws.otsmgr.utils.DeadLetterJournal;
+import com.amazonaws.otsmgr.utils.LaneChannelProcessor;
+import com.amazonaws.otsmgr.utils.OTSUtil;
+import com.amazonaws.otsmgr.utils.ReplayFile;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Offline replay of tunnel batches from a {@link ReplayFile} into the processors of a migration target, to load test
+ * the sinks without a TableStore tunnel. The batches are dealt round robin to replayChannels simulated channels that
+ * process them concurrently, so unlike a tunnel the changes of a key may cross channels and reorder.
+ * The dead letter journal is replayed the same way, keeping the records of a key on one channel.
+ * The throughput and the batch latency quantiles are logged at the end.
+ */
+@Service
+public class ReplayService {
+    private static final Logger log = LoggerFactory.getLogger(ReplayService.class);
+
+    // batches read ahead per channel
+    private static final int CHANNEL_QUEUE_CAPACITY = 4;
+    private static final double DELETE_SHARE = 0.05;
+    private static final double UPDATE_SHARE = 0.15;
+    private static final ReplayFile.Batch END = new ReplayFile.Batch(null, null);
+
+    @Resource
+    private MigrationConfig config;
+
+    @Resource
+    private OTSUtil otsUtil;
+
+    /**
+     * Appends synthetic batches for the tables with a replaySchema, the tables take turns.
+     * Keys are drawn from a key space of half the records, so updates and deletes hit rows written before.
+     */
+    public void generate(Path file, int batches) throws IOException {
+        Map<String, List<Field>> schemas = new LinkedHashMap<>();
+        for (String tableName : config.getTableNames()) {
+            String[] schema = config.getReplaySchema().get(tableName);
+            if (schema == null) {
+                log.warn("No replaySchema for table " + tableName + ", no batches are generated");
+                continue;
+            }
+            List<Field> fields = new ArrayList<>();
+            for (String spec : schema) {
+                fields.add(Field.parse(spec));
+            }
+            schemas.put(tableName, fields);
+        }
+        if (schemas.isEmpty()) {
+            return;
+        }
+
+        List<String> tables = new ArrayList<>(schemas.keySet());
+        int keySpace = Math.max(1, batches * config.getReplayBatchSize() / 2);
+        Random random = new Random();
+        int rowIndex = 0;
+        try (ReplayFile out = ReplayFile.append(file)) {
+            for (int i = 0; i < batches; i++) {
+                String tableName = tables.get(i % tables.size());
+                List<StreamRecord> records = new ArrayList<>(config.getReplayBatchSize());
+                for (int n = 0; n < config.getReplayBatchSize(); n++) {
+                    StreamRecord r = generateRecord(schemas.get(tableName), random.nextInt(keySpace), random);
+                    r.setSequenceInfo(new RecordSequenceInfo(0, System.currentTimeMillis() * 1000, rowIndex++));
+                    records.add(r);
+                }
+                out.write(tableName, new ProcessRecordsInput(records, null, "replay-" + i));
+            }
+        }
+        log.info("Generated {} batches of {} records into {}", batches, config.getReplayBatchSize(), file);
+    }
+
+    /**
+     * Feeds every batch of the file to the processor of its table and waits until all of them are processed.
+     * Failed batches are logged and counted, they are not retried.
+     */
+    public void replay(Path file, MigrationPluginInterface plugin) throws IOException, InterruptedException {
+        Channels channels = new Channels(plugin);
+        long[] read = new long[1];
+        try {
+            ReplayFile.read(file, batch -> channels.put((int) (read[0]++ % channels.size()), batch));
+        } finally {
+            channels.finish();
+        }
+        channels.report("batches", read[0]);
+    }
+
+    /**
+     * Writes the records of the dead letter journal again in batches of dlqReplayBatchSize. The records of a key
+     * go to the same channel in journal order. The replayed segments are deleted when no batch failed, records
+     * that fail again are journaled to new segments by the processors. Segments holding entries that could not be
+     * read, unfinished or still being written, are kept.
+     */
+    public void replayDeadLetters(MigrationPluginInterface plugin) throws IOException, InterruptedException {
+        List<Path> segments = DeadLetterJournal.segments(config.getDlqDir());
+        if (segments.isEmpty()) {
+            log.info("No dead letters in " + config.getDlqDir());
+            return;
+        }
+        Channels channels = new Channels(plugin);
+        int batchSize = Math.max(1, config.getDlqReplayBatchSize());
+        // pending records per table and channel
+        Map<String, List<List<StreamRecord>>> pending = new HashMap<>();
+        long[] batches = new long[1];
+        List<Path> incomplete = new ArrayList<>();
+        try {
+            for (Path segment : segments) {
+                boolean complete = DeadLetterJournal.read(segment, (tableName, r) -> {
+                    int channel = LaneChannelProcessor.partition(r, channels.size());
+                    List<StreamRecord> records = pending.computeIfAbsent(tableName, t -> newBatches(channels.size())).get(channel);
+                    records.add(r);
+                    if (records.size() >= batchSize) {
+                        channels.put(channel, deadLetterBatch(tableName, records, batches[0]++));
+                        records.clear();
+                    }
+                });
+                if (!complete) {
+                    incomplete.add(segment);
+                }
+            }
+            for (Map.Entry<String, List<List<StreamRecord>>> table : pending.entrySet()) {
+                for (int channel = 0; channel < channels.size(); channel++) {
+                    List<StreamRecord> records = table.getValue().get(channel);
+                    if (!records.isEmpty()) {
+                        channels.put(channel, deadLetterBatch(table.getKey(), records, batches[0]++));
+                    }
+                }
+            }
+        } finally {
+            channels.finish();
+        }
+        channels.report("dead letter batches from " + segments.size() + " segments,", batches[0]);
+
+        if (channels.failed.get() > 0) {
+            log.warn("Kept the dead letter segments in " + config.getDlqDir() + " since batches failed");
+            return;
+        }
+        for (Path segment : segments) {
+            if (incomplete.contains(segment)) {
+                log.warn("Kept dead letter segment " + segment + " since it holds unfinished entries");
+            } else {
+                Files.delete(segment);
+            }
+        }
+    }
+
+    private static List<List<StreamRecord>> newBatches(int channels) {
+        List<List<StreamRecord>> batches = new ArrayList<>(channels);
+        for (int i = 0; i < channels; i++) {
+            batches.add(new ArrayList<>());
+        }
+        return batches;
+    }
+
+    private static ReplayFile.Batch deadLetterBatch(String tableName, List<StreamRecord> records, long index) {
+        return new ReplayFile.Batch(tableName, new ProcessRecordsInput(new ArrayList<>(records), null, "dlq-" + index));
+    }
+
+    // Every batch takes its share of the replayRecordsPerSecond budget, the channels wait for their turn.
+    private void pace(AtomicLong schedule, int records) {
+        int rate = config.getReplayRecordsPerSecond();
+        if (rate <= 0) {
+            return;
+        }
+        long cost = records * 1_000_000_000L / rate;
+        long now = System.nanoTime();
+        // no credit is kept for time the channels spent behind the schedule
+        long due = schedule.getAndUpdate(next -> Math.max(next, now) + cost);
+        if (due > now) {
+            LockSupport.parkNanos(due - now);
+        }
+    }
+
+    private StreamRecord generateRecord(List<Field> fields, int key, Random random) {
+        double roll = random.nextDouble();
+        StreamRecord.RecordType type = roll < DELETE_SHARE ? StreamRecord.RecordType.DELETE
+                : roll < DELETE_SHARE + UPDATE_SHARE ? StreamRecord.RecordType.UPDATE
+                : StreamRecord.RecordType.PUT;
+        List<PrimaryKeyColumn> pk = new ArrayList<>();
+        List<RecordColumn> columns = new ArrayList<>();
+        for (Field field : fields) {
+            if (field.pk) {
+                pk.add(new PrimaryKeyColumn(field.name, field.keyValue(key)));
+            } else if (type == StreamRecord.RecordType.PUT) {
+                columns.add(new RecordColumn(new Column(field.name, field.value(random)), RecordColumn.ColumnType.PUT));
+            } else if (type == StreamRecord.RecordType.UPDATE) {
+                // updates touch half of the columns and delete a few
+                double touch = random.nextDouble();
+                if (touch < 0.4) {
+                    columns.add(new RecordColumn(new Column(field.name, field.value(random)), RecordColumn.ColumnType.PUT));
+                } else if (touch < 0.5) {
+                    columns.add(new RecordColumn(new Column(field.name, ReplayFile.NO_VALUE), RecordColumn.ColumnType.DELETE_ALL_VERSION));
+                }
+            }
+        }
+        StreamRecord r = new StreamRecord();
+        r.setRecordType(type);
+        r.setPrimaryKey(new PrimaryKey(pk));
+        r.setColumns(columns);
+        return r;
+    }
+
+    /**
+     * Simulated tunnel channels, every channel is a thread that processes its queue of batches in order.
+     */
+    private class Channels {
+        private final MigrationPluginInterface plugin;
+        private final Map<String, IChannelProcessor> processors = new ConcurrentHashMap<>();
+        private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        private final Timer latency = Timer.builder("otsmgr.replay.batch")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(registry);
+        private final AtomicLong records = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong schedule = new AtomicLong(System.nanoTime());
+        private final List<BlockingQueue<ReplayFile.Batch>> queues = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+        private final long started = System.nanoTime();
+
+        Channels(MigrationPluginInterface plugin) {
+            this.plugin = plugin;
+            int channels = Math.max(1, config.getReplayChannels());
+            for (int i = 0; i < channels; i++) {
+                BlockingQueue<ReplayFile.Batch> queue = new ArrayBlockingQueue<>(CHANNEL_QUEUE_CAPACITY);
+                queues.add(queue);
+                Thread thread = new Thread(() -> run(queue), "otsmgr-replay-" + i);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+
+        int size() {
+            return queues.size();
+        }
+
+        void put(int channel, ReplayFile.Batch batch) {
+            try {
+                queues.get(channel).put(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Replay interrupted", e);
+            }
+        }
+
+        private void run(BlockingQueue<ReplayFile.Batch> queue) {
+            try {
+                for (ReplayFile.Batch batch = queue.take(); batch != END; batch = queue.take()) {
+                    IChannelProcessor processor = processors.computeIfAbsent(batch.getTableName(),
+                            t -> otsUtil.withLanes(plugin.createProcessor(t, config), t));
+                    int size = batch.getInput().getRecords().size();
+                    pace(schedule, size);
+                    long start = System.nanoTime();
+                    try {
+                        processor.process(batch.getInput());
+                        records.addAndGet(size);
+                    } catch (RuntimeException e) {
+                        failed.incrementAndGet();
+                        log.error("Error replay batch " + batch.getInput().getTraceId() + ": " + e.getMessage());
+                    } finally {
+                        latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // waits until the channels have processed every batch put so far
+        void finish() throws InterruptedException {
+            for (BlockingQueue<ReplayFile.Batch> queue : queues) {
+                queue.put(END);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            processors.values().forEach(IChannelProcessor::shutdown);
+        }
+
+        void report(String what, long batches) {
+            double seconds = Math.max(1e-9, (System.nanoTime() - started) / 1e9);
+            HistogramSnapshot snapshot = latency.takeSnapshot();
+            StringBuilder quantiles = new StringBuilder();
+            for (ValueAtPercentile p : snapshot.percentileValues()) {
+                quantiles.append(String.format(" p%.0f=%.1fms", p.percentile() * 100, p.value(TimeUnit.MILLISECONDS)));
+            }
+            log.info(String.format("Replayed %d %s %d records in %.1fs over %d channels: %.0f records/s, %d failed batches, latency%s max=%.1fms",
+                    batches, what, records.get(), seconds, size(), records.get() / seconds, failed.get(),
+                    quantiles, snapshot.max(TimeUnit.MILLISECONDS)));
+        }
+    }
+
+    /**
+     * Column of a replaySchema, written as name:TYPE or name:TYPE:PK.
+     */
+    private static class Field {
+        private final String name;
+        private final ColumnType type;
+        private final boolean pk;
+
+        private Field(String name, ColumnType type, boolean pk) {
+            this.name = name;
+            this.type = type;
+            this.pk = pk;
+        }
+
+        static Field parse(String spec) {
+            String[] parts = spec.trim().split(":");
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("Invalid replaySchema column: " + spec);
+            }
+            boolean pk = parts.length > 2 && "PK".equalsIgnoreCase(parts[2]);
+            ColumnType type = ColumnType.valueOf(parts[1].toUpperCase());
+            if (pk && (type == ColumnType.DOUBLE || type == ColumnType.BOOLEAN)) {
+                throw new IllegalArgumentException("Invalid primary key type in replaySchema: " + spec);
+            }
+            return new Field(parts[0], type, pk);
+        }
+
+        // the same key always gives the same primary key values
+        PrimaryKeyValue keyValue(int key) {
+            switch (type) {
+                case INTEGER:
+                    return PrimaryKeyValue.fromLong(key);
+                case BINARY:
+                    return PrimaryKeyValue.fromBinary(ByteBuffer.allocate(4).putInt(key).array());
+                default:
+                    return PrimaryKeyValue.fromString(name + "-" + key);
+            }
+        }
+
+        ColumnValue value(Random random) {
+            switch (type) {
+                case INTEGER:
+                    return ColumnValue.fromLong(random.nextLong());
+                case DOUBLE:
+                    return ColumnValue.fromDouble(random.nextDouble() * 1e6);
+                case BOOLEAN:
+                    return ColumnValue.fromBoolean(random.nextBoolean());
+                case BINARY:
+                    byte[] bytes = new byte[32];
+                    random.nextBytes(bytes);
+                    return ColumnValue.fromBinary(bytes);
+                default:
+                    return ColumnValue.fromString(Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Projection of the configured attribute columns of a table onto a row, compiled once per table.
+ * Source columns are resolved to their slots through a hash map and written directly into a reusable row array.
+ * Names match case-insensitively and the first source column of a name wins, as the former column list lookup did.
+ * Thread safe, but a row array must not be shared between threads.
+ */
+public class ColumnProjection {
+
+    private static final int[] NO_SLOTS = new int[0];
+    // column names outside the configuration are cached too, up to this many
+    private static final int MAX_CACHED_NAMES = 10000;
+
+    private final String[] columns;
+    private final Map<String, int[]> slots = new ConcurrentHashMap<>();
+
+    public ColumnProjection(String[] columns) {
+        this.columns = columns == null ? new String[0] : columns;
+        for (String column : this.columns) {
+            slots.computeIfAbsent(column, this::resolve);
+        }
+    }
+
+    public int width() {
+        return columns.length;
+    }
+
+    public String[] newRow() {
+        return new String[columns.length];
+    }
+
+    /**
+     * Writes the values of the record's columns into the row, configured columns missing from the record are null.
+     */
+    public void project(StreamRecord r, String[] row) {
+        Arrays.fill(row, null);
+        for (RecordColumn col : r.getColumns()) {
+            int[] target = slots(col.getColumn().getName());
+            if (target.length == 0) {
+                continue;
+            }
+            ColumnValue value = col.getColumn().getValue();
+            if (value == null) {
+                // column deletes carry no value
+                continue;
+            }
+            String text = null;
+            for (int slot : target) {
+                if (row[slot] == null) {
+                    if (text == null) {
+                        text = value.toString();
+                    }
+                    row[slot] = text;
+                }
+            }
+        }
+    }
+
+    /**
+     * Slots of the source column, a column can be configured more than once.
+     */
+    public int[] slots(String name) {
+        int[] target = slots.get(name);
+        if (target == null) {
+            target = resolve(name);
+            if (slots.size() < MAX_CACHED_NAMES) {
+                slots.putIfAbsent(name, target);
+            }
+        }
+        return target;
+    }
+
+    private int[] resolve(String name) {
+        int count = 0;
+        for (String column : columns) {
+            if (column.equalsIgnoreCase(name)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return NO_SLOTS;
+        }
+        int[] target = new int[count];
+        for (int i = 0, j = 0; i < columns.length; i++) {
+            if (columns[i].equalsIgnoreCase(name)) {
+                target[j++] = i;
+            }
+        }
+        return target;
+    }
+}
@@ -0,0 +1,95 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Convert and write stages of a tunnel batch. The batch is cut into chunks of pipelineChunkSize records, the chunks
+ * are converted to sink objects on pipelineThreads threads shared by all tables while the calling tunnel thread
+ * writes the converted chunks in batch order, so conversion overlaps the writes of the previous chunks.
+ * At most pipelineDepth chunks are converted ahead of the writer, and the caller only returns once the last chunk
+ * is written, so the tunnel is held back by a slow sink and checkpoints only written batches.
+ */
+@Component
+public class ConversionPipeline {
+
+    @Resource
+    private MigrationConfig config;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    private void init() {
+        if (config.getPipelineChunkSize() > 0) {
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(Math.max(1, config.getPipelineThreads()), r -> {
+                Thread thread = new Thread(r, "otsmgr-convert-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Converts the records and writes every converted chunk in order, batches up to one chunk are converted and
+     * written on the calling thread. Conversion errors are thrown after the writes of the chunks before them.
+     */
+    public <T> void run(List<StreamRecord> records, Function<List<StreamRecord>, T> convert, Consumer<T> write) {
+        int chunkSize = config.getPipelineChunkSize();
+        if (executor == null || records.size() <= chunkSize) {
+            write.accept(convert.apply(records));
+            return;
+        }
+        int depth = Math.max(1, config.getPipelineDepth());
+        Deque<Future<T>> converting = new ArrayDeque<>(depth);
+        int next = 0;
+        try {
+            while (next < records.size() || !converting.isEmpty()) {
+                while (converting.size() < depth && next < records.size()) {
+                    List<StreamRecord> chunk = records.subList(next, Math.min(next + chunkSize, records.size()));
+                    converting.add(executor.submit(() -> convert.apply(chunk)));
+                    next += chunk.size();
+                }
+                write.accept(await(converting.poll()));
+            }
+        } finally {
+            converting.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private static <T> T await(Future<T> converted) {
+        try {
+            return converted.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted converting records", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new CompletionException(e.getCause());
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
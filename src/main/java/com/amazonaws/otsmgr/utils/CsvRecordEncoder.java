@@ -0,0 +1,131 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes CSV records field by field as UTF-8 straight into an output stream, optionally through gzip or zstd.
+ * The output is the same as the opencsv CSVWriter the tool used before: fields are not quoted and the separator,
+ * the quote, the escape character and line feeds are prefixed with the escape character '"'.
+ * <p>
+ * Closing the encoder finishes the gzip member or zstd frame. Both formats allow concatenation, so batches encoded
+ * one after another into the same object read back as one stream.
+ */
+public class CsvRecordEncoder implements Closeable {
+
+    public static final String COMPRESSION_NONE = "none";
+    public static final String COMPRESSION_GZIP = "gzip";
+    public static final String COMPRESSION_ZSTD = "zstd";
+
+    private static final byte SEPARATOR = ',';
+    private static final char QUOTE = Character.MIN_VALUE;
+    private static final byte ESCAPE = '"';
+    private static final byte[] LINE_END = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final OutputStream out;
+    private final byte[] scratch = new byte[8192];
+    private int position;
+    private boolean firstField = true;
+
+    public CsvRecordEncoder(OutputStream out, String compression) throws IOException {
+        if (COMPRESSION_GZIP.equalsIgnoreCase(compression)) {
+            this.out = new GZIPOutputStream(out, 64 * 1024);
+        } else if (COMPRESSION_ZSTD.equalsIgnoreCase(compression)) {
+            this.out = new ZstdOutputStream(out);
+        } else {
+            this.out = out;
+        }
+    }
+
+    /**
+     * File extension of the objects written with the compression.
+     */
+    public static String extension(String compression) {
+        if (COMPRESSION_GZIP.equalsIgnoreCase(compression)) {
+            return ".csv.gz";
+        } else if (COMPRESSION_ZSTD.equalsIgnoreCase(compression)) {
+            return ".csv.zst";
+        }
+        return ".csv";
+    }
+
+    public void writeRecord(String[] values) throws IOException {
+        for (String value : values) {
+            writeField(value);
+        }
+        endRecord();
+    }
+
+    /**
+     * Appends a field to the current record, null is written as an empty field.
+     */
+    public void writeField(String value) throws IOException {
+        if (!firstField) {
+            put(SEPARATOR);
+        }
+        firstField = false;
+        if (value == null) {
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == SEPARATOR || c == QUOTE || c == ESCAPE || c == '\n') {
+                    put(ESCAPE);
+                }
+                put((byte) c);
+            } else if (c < 0x800) {
+                put((byte) (0xC0 | (c >> 6)));
+                put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                put((byte) (0xF0 | (cp >> 18)));
+                put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                put((byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate, replaced like String.getBytes does
+                put((byte) '?');
+            } else {
+                put((byte) (0xE0 | (c >> 12)));
+                put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public void endRecord() throws IOException {
+        for (byte b : LINE_END) {
+            put(b);
+        }
+        firstField = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushScratch();
+        out.close();
+    }
+
+    private void put(byte b) throws IOException {
+        if (position == scratch.length) {
+            flushScratch();
+        }
+        scratch[position++] = b;
+    }
+
+    private void flushScratch() throws IOException {
+        if (position > 0) {
+            out.write(scratch, 0, position);
+            position = 0;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.bson.BSONException;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of the records a target failed to write, replayed later with --replay-dlq.
+ * Records are BSON documents in the {@link ReplayFile} record layout plus their table, appended to memory-mapped
+ * segments of dlqSegmentMB in dlqDir. Writers reserve their range with a CAS and copy into the mapping,
+ * so appending never waits for the disk; only rolling to a new segment takes a lock.
+ * Every entry starts with a header holding its length, written before the document, and a commit mark, written
+ * after it, so readers skip the entries a writer did not finish and go on with the next one.
+ */
+@Component
+public class DeadLetterJournal {
+    private static final Logger log = LoggerFactory.getLogger(DeadLetterJournal.class);
+
+    private static final String SUFFIX = ".dlq";
+    private static final DocumentCodec CODEC = new DocumentCodec();
+    // length and commit mark
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    private static final int ALIGNMENT = 8;
+    private static final int COMMITTED = 0x31514C44;
+
+    private final AtomicInteger sequence = new AtomicInteger();
+    private volatile Segment current;
+    // the segment before the current one, its last writers may still be copying
+    private Segment previous;
+
+    @Resource
+    private MigrationConfig config;
+
+    public void append(String tableName, StreamRecord r) {
+        byte[] entry;
+        try {
+            entry = encode(tableName, r);
+        } catch (RuntimeException e) {
+            log.error("Error journal record of table " + tableName + ": " + e.getMessage());
+            return;
+        }
+        if (entrySize(entry.length) > segmentSize()) {
+            log.error("Error journal record of table " + tableName + ": " + entry.length + " bytes exceed the dlq segment");
+            return;
+        }
+        while (true) {
+            Segment segment = current;
+            if (segment != null) {
+                int offset = segment.reserve(entrySize(entry.length));
+                if (offset >= 0) {
+                    segment.write(offset, entry);
+                    return;
+                }
+            }
+            try {
+                roll(segment);
+            } catch (IOException e) {
+                log.error("Error create dlq segment in " + config.getDlqDir() + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private synchronized void roll(Segment full) throws IOException {
+        if (current != full) {
+            return;
+        }
+        Path dir = Paths.get(config.getDlqDir());
+        Files.createDirectories(dir);
+        String name = String.format("%d-%05d%s", System.currentTimeMillis(), sequence.getAndIncrement(), SUFFIX);
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(dir.resolve(name),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            current = new Segment(channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize()));
+        }
+        // two rolls ago, its writers are done
+        if (previous != null) {
+            previous.buffer.force();
+        }
+        previous = full;
+        log.info("Journaling failed records to " + dir.resolve(name));
+    }
+
+    private int segmentSize() {
+        return config.getDlqSegmentMB() * 1024 * 1024;
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (previous != null) {
+            previous.buffer.force();
+        }
+        if (current != null) {
+            current.buffer.force();
+        }
+    }
+
+    /**
+     * Segments of the journal directory, oldest first.
+     */
+    public static List<Path> segments(String dlqDir) throws IOException {
+        Path dir = Paths.get(dlqDir);
+        if (!Files.isDirectory(dir)) {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+    /**
+     * Hands the table and the record of every committed entry of the segment to the consumer, in append order.
+     * Entries a writer did not finish are skipped.
+     *
+     * @return whether every entry was read, false when the segment holds unfinished or unreadable entries
+     */
+    public static boolean read(Path segment, BiConsumer<String, StreamRecord> consumer) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        boolean complete = true;
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            int mark = buffer.getInt(position + Integer.BYTES);
+            if (length == 0 && mark == 0) {
+                // the end of the entries, or an entry reserved before its length was written
+                int next = nextCommitted(buffer, position);
+                if (next < 0) {
+                    break;
+                }
+                complete = false;
+                position = next;
+                continue;
+            }
+            int end = position + HEADER_BYTES + length;
+            if (length < 0 || end > buffer.limit()) {
+                complete = false;
+                break;
+            }
+            if (mark != COMMITTED) {
+                complete = false;
+            } else {
+                try {
+                    Document entry = CODEC.decode(new BsonBinaryReader(buffer.slice(position + HEADER_BYTES, length)),
+                            DecoderContext.builder().build());
+                    consumer.accept(entry.getString("table"), ReplayFile.fromDocument(entry));
+                } catch (BSONException e) {
+                    complete = false;
+                    log.error("Error read dlq entry at " + position + " of " + segment + ": " + e.getMessage());
+                }
+            }
+            position += entrySize(length);
+        }
+        return complete;
+    }
+
+    // the next committed entry after an empty header, -1 when none follows
+    private static int nextCommitted(MappedByteBuffer buffer, int position) {
+        for (int p = position + ALIGNMENT; p + HEADER_BYTES <= buffer.limit(); p += ALIGNMENT) {
+            if (buffer.getInt(p + Integer.BYTES) == COMMITTED) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    // header and document, aligned so a reader can find the next header after an unfinished one
+    private static int entrySize(int length) {
+        return (HEADER_BYTES + length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    private static byte[] encode(String tableName, StreamRecord r) {
+        Document entry = ReplayFile.toDocument(r).append("table", tableName);
+        BasicOutputBuffer out = new BasicOutputBuffer();
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(out)) {
+            CODEC.encode(writer, entry, EncoderContext.builder().build());
+        }
+        return out.toByteArray();
+    }
+
+    private static class Segment {
+        private final MappedByteBuffer buffer;
+        private final AtomicInteger position = new AtomicInteger();
+
+        Segment(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        // offset of the reserved range, -1 when the segment is full
+        int reserve(int length) {
+            while (true) {
+                int offset = position.get();
+                if (offset + length > buffer.capacity()) {
+                    return -1;
+                }
+                if (position.compareAndSet(offset, offset + length)) {
+                    return offset;
+                }
+            }
+        }
+
+        void write(int offset, byte[] entry) {
+            buffer.putInt(offset, entry.length);
+            buffer.put(offset + HEADER_BYTES, entry, 0, entry.length);
+            buffer.putInt(offset + Integer.BYTES, COMMITTED);
+        }
+    }
+}
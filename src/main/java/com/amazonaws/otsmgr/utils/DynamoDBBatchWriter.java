@@ -0,0 +1,302 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValueUpdate;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Collects the writes of one tunnel batch for a table. PUT and DELETE requests are grouped into
+ * BatchWriteItem calls, UPDATE requests are sent one by one.
+ * At most maxInFlight requests are sent at a time, and two changes of the same key are never in flight together,
+ * except for versioned puts after versioned changes, which the version guard keeps from overwriting a newer change.
+ * With a {@link PartitionScheduler}, the requests holding writes of hot partition keys are sent once the slots of
+ * those keys come up. While they wait they hold neither the calling thread nor one of the maxInFlight slots, so the
+ * cold writes behind them go out right away.
+ * The latency of every request is recorded from the time it is sent, and the sent requests are counted in the
+ * in-flight gauge.
+ * The source records of the writes that fail are handed to the dead letter consumer.
+ * Not thread safe, use one writer per ProcessRecordsInput.
+ */
+public class DynamoDBBatchWriter {
+
+    private final DynamoDBUtil dynamoDBUtil;
+    private final String tableName;
+    private final Set<String> keyNames;
+    // the free slots of maxInFlight and the paced requests waiting for one, both guarded by waitingPermits
+    private final ArrayDeque<CompletableFuture<Void>> waitingPermits = new ArrayDeque<>();
+    private int permits;
+    private final Timer latency;
+    private final AtomicInteger inFlightGauge;
+    private final Consumer<StreamRecord> deadLetter;
+
+    private final Map<Map<String, AttributeValue>, WriteRequest> pending = new LinkedHashMap<>();
+    private final Map<Map<String, AttributeValue>, StreamRecord> pendingSources = new HashMap<>();
+    private final Set<Map<String, AttributeValue>> inFlightKeys = new HashSet<>();
+    // keys of in-flight writes without a version guard
+    private final Set<Map<String, AttributeValue>> unversionedKeys = new HashSet<>();
+    private final List<CompletableFuture<?>> inFlight = new ArrayList<>();
+    private final AtomicInteger failed = new AtomicInteger();
+    private PartitionScheduler scheduler;
+
+    /**
+     * @param keyNames attribute names of the table key, unprocessed requests are matched to their records by them
+     */
+    public DynamoDBBatchWriter(DynamoDBUtil dynamoDBUtil, String tableName, Set<String> keyNames, int maxInFlight,
+                               Timer latency, AtomicInteger inFlightGauge, Consumer<StreamRecord> deadLetter) {
+        this.dynamoDBUtil = dynamoDBUtil;
+        this.tableName = tableName;
+        this.keyNames = keyNames;
+        this.permits = Math.max(1, maxInFlight);
+        this.latency = latency;
+        this.inFlightGauge = inFlightGauge;
+        this.deadLetter = deadLetter;
+    }
+
+    /**
+     * Paces the writes of the hot partition keys of the scheduler.
+     */
+    public void setScheduler(PartitionScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adds a put or delete request. A later write of the same key in the batch replaces the earlier one,
+     * BatchWriteItem rejects duplicated keys.
+     */
+    public void write(Map<String, AttributeValue> key, WriteRequest request, StreamRecord source) {
+        if (inFlightKeys.contains(key)) {
+            awaitInFlight();
+        }
+        pending.put(key, request);
+        pendingSources.put(key, source);
+        if (pending.size() >= DynamoDBUtil.BATCH_WRITE_MAX_ITEMS) {
+            flushPending();
+        }
+    }
+
+    /**
+     * Sends an update of the item, after the pending and in-flight writes of the same key.
+     */
+    public void update(Map<String, AttributeValue> key, Map<String, AttributeValueUpdate> updates, StreamRecord source) {
+        awaitKey(key);
+        unversionedKeys.add(key);
+        sendVersioned(key, () -> dynamoDBUtil.updateTableItemAsync(tableName, key, updates), source);
+    }
+
+    /**
+     * Sends a put guarded by the source version on its own. It doesn't wait for earlier versioned changes of the key,
+     * whichever lands last the newer version is kept, but it does wait for the writes without a version.
+     */
+    public void putVersioned(Map<String, AttributeValue> key, Map<String, AttributeValue> item, BigDecimal version, StreamRecord source) {
+        if (pending.containsKey(key) || unversionedKeys.contains(key)) {
+            awaitKey(key);
+        }
+        sendVersioned(key, () -> dynamoDBUtil.putItemVersionedAsync(tableName, item, version), source);
+    }
+
+    /**
+     * Sends an update guarded by the source version, after the writes of the same key. An older update landing
+     * after a newer change would be skipped with the columns only it sets.
+     */
+    public void updateVersioned(Map<String, AttributeValue> key, Map<String, AttributeValueUpdate> updates, BigDecimal version, StreamRecord source) {
+        awaitKey(key);
+        sendVersioned(key, () -> dynamoDBUtil.updateItemVersionedAsync(tableName, key, updates, version), source);
+    }
+
+    /**
+     * Sends a delete guarded by the source version, after the writes of the same key. The item is replaced with a
+     * tombstone keeping the version, an older put landing after the delete would bring the item back.
+     */
+    public void deleteVersioned(Map<String, AttributeValue> key, BigDecimal version, StreamRecord source) {
+        awaitKey(key);
+        sendVersioned(key, () -> dynamoDBUtil.deleteItemVersionedAsync(tableName, key, version), source);
+    }
+
+    private void sendVersioned(Map<String, AttributeValue> key, Supplier<CompletableFuture<Boolean>> request, StreamRecord source) {
+        inFlightKeys.add(key);
+        long delay = delayNanos(Collections.singletonList(source));
+        submit(delay, () -> request.get().thenAccept(written -> {
+            if (!written) {
+                failed.incrementAndGet();
+                deadLetter.accept(source);
+            }
+        }));
+    }
+
+    private void awaitKey(Map<String, AttributeValue> key) {
+        if (pending.containsKey(key)) {
+            flushPending();
+        }
+        if (inFlightKeys.contains(key)) {
+            awaitInFlight();
+        }
+    }
+
+    /**
+     * Sends the remaining writes and waits until every request of the batch has completed.
+     *
+     * @return the number of requests that could not be written
+     */
+    public int finish() {
+        flushPending();
+        awaitInFlight();
+        return failed.get();
+    }
+
+    private void flushPending() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<WriteRequest> batch = new ArrayList<>(pending.values());
+        Map<Map<String, AttributeValue>, StreamRecord> sources = new HashMap<>(pendingSources);
+        inFlightKeys.addAll(pending.keySet());
+        unversionedKeys.addAll(pending.keySet());
+        pending.clear();
+        pendingSources.clear();
+        long delay = delayNanos(sources.values());
+        submit(delay, () -> dynamoDBUtil.batchWriteTableItemsAsync(tableName, batch).thenAccept(unprocessed -> {
+            failed.addAndGet(unprocessed.size());
+            for (WriteRequest request : unprocessed) {
+                StreamRecord source = sources.get(keyOf(request, keyNames));
+                if (source != null) {
+                    deadLetter.accept(source);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Sends the request once a slot of maxInFlight is free. A request without delay waits for it on the calling
+     * thread, a paced one takes its slot only after the delay, without waiting on any thread.
+     */
+    private void submit(long delayNanos, Supplier<CompletableFuture<?>> request) {
+        if (delayNanos <= 0) {
+            acquire();
+            inFlight.add(send(request));
+        } else {
+            inFlight.add(paced(delayNanos).thenCompose(v -> acquireAsync()).thenCompose(v -> send(request)));
+        }
+    }
+
+    // holds a slot, released once the request completes
+    private CompletableFuture<?> send(Supplier<CompletableFuture<?>> request) {
+        inFlightGauge.incrementAndGet();
+        long start = System.nanoTime();
+        CompletableFuture<?> future;
+        try {
+            future = request.get();
+        } catch (RuntimeException e) {
+            inFlightGauge.decrementAndGet();
+            release();
+            throw e;
+        }
+        return future.whenComplete((r, t) -> {
+            latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            inFlightGauge.decrementAndGet();
+            release();
+        });
+    }
+
+    private void acquire() {
+        boolean interrupted = false;
+        synchronized (waitingPermits) {
+            while (permits == 0) {
+                try {
+                    waitingPermits.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            permits--;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Void> acquireAsync() {
+        synchronized (waitingPermits) {
+            if (permits > 0) {
+                permits--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> permit = new CompletableFuture<>();
+            waitingPermits.add(permit);
+            return permit;
+        }
+    }
+
+    // hands the slot to the paced request waiting longest, they are due already
+    private void release() {
+        CompletableFuture<Void> next;
+        synchronized (waitingPermits) {
+            next = waitingPermits.poll();
+            if (next == null) {
+                permits++;
+                waitingPermits.notifyAll();
+                return;
+            }
+        }
+        next.complete(null);
+    }
+
+    // a slot for every write of a hot key, the request waits for the last one
+    private long delayNanos(Collection<StreamRecord> sources) {
+        if (scheduler == null) {
+            return 0;
+        }
+        long delay = 0;
+        for (StreamRecord source : sources) {
+            if (source != null) {
+                delay = Math.max(delay, scheduler.delayNanos(PartitionScheduler.partitionKey(source)));
+            }
+        }
+        return delay;
+    }
+
+    private static CompletableFuture<Void> paced(long delayNanos) {
+        if (delayNanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(delayNanos, TimeUnit.NANOSECONDS));
+    }
+
+    // the key attributes of a put item or a delete key
+    private static Map<String, AttributeValue> keyOf(WriteRequest request, Set<String> keyNames) {
+        Map<String, AttributeValue> attributes = request.putRequest() != null
+                ? request.putRequest().item() : request.deleteRequest().key();
+        Map<String, AttributeValue> key = new HashMap<>();
+        for (String name : keyNames) {
+            key.put(name, attributes.get(name));
+        }
+        return key;
+    }
+
+    private void awaitInFlight() {
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture[0])).join();
+        inFlight.clear();
+        inFlightKeys.clear();
+        unversionedKeys.clear();
+    }
+}
@@ -0,0 +1,172 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encodes items in the DynamoDB JSON format of ImportTable, one {"Item":{...}} object per line, through gzip.
+ * Closing the encoder finishes the gzip member, members of several batches concatenate into one valid object.
+ */
+public class DynamoDBJsonEncoder implements AutoCloseable {
+
+    public static final String EXTENSION = ".json.gz";
+
+    private final Writer out;
+
+    public DynamoDBJsonEncoder(OutputStream out) throws IOException {
+        this.out = new OutputStreamWriter(new GZIPOutputStream(out, 64 * 1024), StandardCharsets.UTF_8);
+    }
+
+    public void write(Map<String, AttributeValue> item) throws IOException {
+        out.write("{\"Item\":");
+        writeMap(item);
+        out.write("}\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeMap(Map<String, AttributeValue> map) throws IOException {
+        out.write('{');
+        boolean first = true;
+        for (Map.Entry<String, AttributeValue> entry : map.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            writeString(entry.getKey());
+            out.write(':');
+            writeValue(entry.getValue());
+        }
+        out.write('}');
+    }
+
+    private void writeValue(AttributeValue value) throws IOException {
+        switch (value.type()) {
+            case S:
+                writeTyped("S");
+                writeString(value.s());
+                break;
+            case N:
+                writeTyped("N");
+                writeString(value.n());
+                break;
+            case B:
+                writeTyped("B");
+                writeString(base64(value.b()));
+                break;
+            case BOOL:
+                writeTyped("BOOL");
+                out.write(value.bool() ? "true" : "false");
+                break;
+            case NUL:
+                writeTyped("NULL");
+                out.write("true");
+                break;
+            case SS:
+                writeTyped("SS");
+                writeStrings(value.ss());
+                break;
+            case NS:
+                writeTyped("NS");
+                writeStrings(value.ns());
+                break;
+            case BS:
+                writeTyped("BS");
+                out.write('[');
+                for (int i = 0; i < value.bs().size(); i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    writeString(base64(value.bs().get(i)));
+                }
+                out.write(']');
+                break;
+            case L:
+                writeTyped("L");
+                out.write('[');
+                for (int i = 0; i < value.l().size(); i++) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    writeValue(value.l().get(i));
+                }
+                out.write(']');
+                break;
+            case M:
+                writeTyped("M");
+                writeMap(value.m());
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported DynamoDB attribute type " + value.type());
+        }
+        out.write('}');
+    }
+
+    // opens the type object, writeValue closes it
+    private void writeTyped(String type) throws IOException {
+        out.write("{\"");
+        out.write(type);
+        out.write("\":");
+    }
+
+    private void writeStrings(List<String> values) throws IOException {
+        out.write('[');
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeString(values.get(i));
+        }
+        out.write(']');
+    }
+
+    private void writeString(String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    private static String base64(SdkBytes bytes) {
+        return Base64.getEncoder().encodeToString(bytes.asByteArrayUnsafe());
+    }
+}
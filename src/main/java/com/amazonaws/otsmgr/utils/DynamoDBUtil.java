@@ -5,8 +5,6 @@ package com.amazonaws.otsmgr.utils;
 import com.alicloud.openservices.tablestore.model.IndexMeta;
 import com.alicloud.openservices.tablestore.model.IndexType;
 import com.alicloud.openservices.tablestore.model.PrimaryKeyType;
-import com.amazonaws.otsmgr.beans.MigrationColumn;
-import com.amazonaws.otsmgr.beans.MigrationKey;
 import com.amazonaws.otsmgr.beans.MigrationTable;
 import com.amazonaws.otsmgr.conf.MigrationConfig;
 import jakarta.annotation.PostConstruct;
@@ -14,31 +12,357 @@ import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import software.amazon.awssdk.core.waiters.WaiterResponse;
+import org.springframework.util.StringUtils;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClientBuilder;
 import software.amazon.awssdk.services.dynamodb.model.*;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.waiters.DynamoDbWaiter;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
 
+import java.math.BigDecimal;
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Component
 public class DynamoDBUtil {
 
     private final Logger log = LoggerFactory.getLogger(DynamoDBUtil.class);
 
+    // BatchWriteItem accepts at most 25 put or delete requests per call.
+    public static final int BATCH_WRITE_MAX_ITEMS = 25;
+    private static final int BATCH_WRITE_MAX_RETRIES = 8;
+    private static final int TABLE_OPERATION_MAX_RETRIES = 10;
+    private static final long TABLE_OPERATION_BACKOFF_MILLIS = 1000L;
+    private static final long IMPORT_POLL_SECONDS = 30L;
+    // items without a version were written unguarded, they are always overwritten
+    private static final String VERSION_CONDITION = "attribute_not_exists(#v) OR #v < :v";
+    private static final long BATCH_WRITE_BASE_BACKOFF_MILLIS = 50L;
+    private static final long BATCH_WRITE_MAX_BACKOFF_MILLIS = 5000L;
+    // on-demand tables are created with this maximum of request units per second
+    private static final long ON_DEMAND_MAX_REQUEST_UNITS = 50L;
+
     private DynamoDbClient ddb = null;
 
+    private DynamoDbAsyncClient ddbAsync = null;
+
+    private DynamoDbAsyncClient ddbControl = null;
+
+    private final Map<String, WriteRateController> rateControllers = new ConcurrentHashMap<>();
+
+    private final Map<String, Set<String>> keyNames = new ConcurrentHashMap<>();
+
     @Resource
     private MigrationConfig config;
 
     @PostConstruct
     public void init() {
         String region = config.getTargetRegion();
-        ddb = DynamoDbClient.builder().region(Region.of(region)).build();
+        DynamoDbClientBuilder builder = DynamoDbClient.builder().region(Region.of(region));
+        if (StringUtils.hasText(config.getDdbEndpoint())) {
+            builder.endpointOverride(URI.create(config.getDdbEndpoint()));
+        }
+        ddb = builder.build();
+        if (config.isDynamodbAsync()) {
+            // The client is shared by all channels, leave room for several windows of in-flight requests.
+            DynamoDbAsyncClientBuilder asyncBuilder = DynamoDbAsyncClient.builder()
+                    .region(Region.of(region))
+                    .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                            .maxConcurrency(Math.max(50, config.getDynamodbMaxInFlight() * 4)));
+            if (StringUtils.hasText(config.getDdbEndpoint())) {
+                asyncBuilder.endpointOverride(URI.create(config.getDdbEndpoint()));
+            }
+            ddbAsync = asyncBuilder.build();
+        }
+    }
+
+    public boolean isAsync() {
+        return ddbAsync != null;
+    }
+
+    /**
+     * Keeps the key schema of the table, and paces the writes to the table at its capacity when the adaptive rate
+     * is enabled. The capacity is read from the DynamoDB table: its provisioned write capacity, or the maximum
+     * write request units of an on-demand table. Tables without a maximum are only paced once they are throttled.
+     * With versioned writes, the tombstones of the table expire by TTL.
+     */
+    public void registerTable(MigrationTable migrationTable) {
+        String tableName = migrationTable.getTableMeta().getTableName();
+        keyNames.put(tableName, RecordConverter.toDynamoDBKeyNames(migrationTable));
+        enableTombstoneTtl(tableName).join();
+        if (!config.isDynamodbAdaptiveRate()) {
+            return;
+        }
+        TableDescription table;
+        try {
+            table = controlClient().describeTable(describe(tableName)).join().table();
+        } catch (RuntimeException e) {
+            log.warn("Error describe DynamoDB table " + tableName + ", its writes are not paced: " + unwrap(e).getMessage());
+            return;
+        }
+        double maxRate = writeCapacity(table);
+        rateControllers.put(tableName, new WriteRateController(tableName, maxRate));
+        if (Double.isInfinite(maxRate)) {
+            log.info("Pacing writes to DynamoDB table {} once it is throttled", tableName);
+        } else {
+            log.info("Pacing writes to DynamoDB table {} at up to {} WCU/s", tableName, (long) maxRate);
+        }
+    }
+
+    // write units per second the table accepts, infinite for an on-demand table without maximum
+    private static double writeCapacity(TableDescription table) {
+        ProvisionedThroughputDescription provisioned = table.provisionedThroughput();
+        if (provisioned != null && provisioned.writeCapacityUnits() != null && provisioned.writeCapacityUnits() > 0) {
+            return provisioned.writeCapacityUnits();
+        }
+        OnDemandThroughput onDemand = table.onDemandThroughput();
+        if (onDemand != null && onDemand.maxWriteRequestUnits() != null && onDemand.maxWriteRequestUnits() > 0) {
+            return onDemand.maxWriteRequestUnits();
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Creates the table and completes with true once it is ACTIVE, a table that already exists is waited for too.
+     * With versioned writes, TTL is then turned on for the tombstones.
+     * Requests over the DynamoDB limit of concurrent table operations are retried with backoff.
+     * Errors are logged, the returned future always completes normally.
+     */
+    public CompletableFuture<Boolean> createTableAsync(MigrationTable migrationTable) {
+        String tableName = migrationTable.getTableMeta().getTableName();
+        CreateTableRequest request;
+        try {
+            request = buildCreateTableRequest(migrationTable);
+        } catch (RuntimeException e) {
+            log.error("Error build DynamoDB table " + tableName + ": " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+        return tableOperation(tableName, () -> controlClient().createTable(request), 0)
+                .handle((response, t) -> {
+                    Throwable cause = t == null ? null : unwrap(t);
+                    if (cause == null || cause instanceof ResourceInUseException) {
+                        if (cause != null) {
+                            log.info("DynamoDB table {} already exists", tableName);
+                        }
+                        return true;
+                    }
+                    log.error("Error create DynamoDB table " + tableName + ": " + cause.getMessage());
+                    return false;
+                })
+                .thenCompose(created -> !created ? CompletableFuture.completedFuture(false)
+                        : controlClient().waiter().waitUntilTableExists(describe(tableName)).handle((response, t) -> {
+                            if (t != null || response.matched().exception().isPresent()) {
+                                log.error("Error wait for DynamoDB table " + tableName + " to become active: "
+                                        + (t != null ? unwrap(t).getMessage() : response.matched().exception().get().getMessage()));
+                                return false;
+                            }
+                            log.info("DynamoDB table {} is active", tableName);
+                            return true;
+                        }))
+                .thenCompose(active -> !active ? CompletableFuture.completedFuture(false)
+                        : enableTombstoneTtl(tableName).thenApply(v -> true));
+    }
+
+    /**
+     * Creates the table with ImportTable from the gzip DynamoDB JSON objects under the key prefix and completes with
+     * whether the import finished. The table gets the key schema, billing and global secondary indexes createTable
+     * derives, ImportTable takes no local secondary indexes. Errors are logged, the future always completes normally.
+     */
+    public CompletableFuture<Boolean> importTableAsync(MigrationTable migrationTable, String bucket, String keyPrefix) {
+        String tableName = migrationTable.getTableMeta().getTableName();
+        ImportTableRequest request;
+        try {
+            CreateTableRequest table = buildCreateTableRequest(migrationTable);
+            if (table.hasLocalSecondaryIndexes()) {
+                log.warn("ImportTable creates no local secondary indexes, table {} is imported without {}", tableName,
+                        table.localSecondaryIndexes().stream().map(LocalSecondaryIndex::indexName).toList());
+            }
+            request = ImportTableRequest.builder()
+                    .s3BucketSource(S3BucketSource.builder().s3Bucket(bucket).s3KeyPrefix(keyPrefix).build())
+                    .inputFormat(InputFormat.DYNAMODB_JSON)
+                    .inputCompressionType(InputCompressionType.GZIP)
+                    .tableCreationParameters(TableCreationParameters.builder()
+                            .tableName(tableName)
+                            .attributeDefinitions(table.attributeDefinitions())
+                            .keySchema(table.keySchema())
+                            .billingMode(table.billingMode())
+                            .provisionedThroughput(table.provisionedThroughput())
+                            .onDemandThroughput(table.onDemandThroughput())
+                            .globalSecondaryIndexes(table.hasGlobalSecondaryIndexes() ? table.globalSecondaryIndexes() : null)
+                            .build())
+                    .build();
+        } catch (RuntimeException e) {
+            log.error("Error build DynamoDB import of table " + tableName + ": " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+        return tableOperation(tableName, () -> controlClient().importTable(request), 0)
+                .thenCompose(response -> {
+                    log.info("Started DynamoDB import of table {} from s3://{}/{}", tableName, bucket, keyPrefix);
+                    return awaitImport(tableName, response.importTableDescription().importArn());
+                })
+                .exceptionally(t -> {
+                    log.error("Error import DynamoDB table " + tableName + ": " + unwrap(t).getMessage());
+                    return false;
+                });
+    }
+
+    private CompletableFuture<Boolean> awaitImport(String tableName, String importArn) {
+        return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(IMPORT_POLL_SECONDS, TimeUnit.SECONDS))
+                .thenCompose(v -> controlClient().describeImport(DescribeImportRequest.builder().importArn(importArn).build()))
+                .thenCompose(response -> {
+                    ImportTableDescription description = response.importTableDescription();
+                    if (description.importStatus() == ImportStatus.IN_PROGRESS) {
+                        log.info("Importing DynamoDB table {}: {} items, {} bytes processed", tableName,
+                                description.processedItemCount(), description.processedSizeBytes());
+                        return awaitImport(tableName, importArn);
+                    }
+                    if (description.importStatus() != ImportStatus.COMPLETED) {
+                        log.error("Error import DynamoDB table " + tableName + ": " + description.importStatusAsString()
+                                + " " + description.failureCode() + " " + description.failureMessage());
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    if (description.errorCount() != null && description.errorCount() > 0) {
+                        log.warn("DynamoDB import of table {} skipped {} invalid items, see {}", tableName,
+                                description.errorCount(), description.cloudWatchLogGroupArn());
+                    }
+                    log.info("Imported DynamoDB table {}: {} items", tableName, description.importedItemCount());
+                    return enableTombstoneTtl(tableName).thenApply(v -> true);
+                });
     }
 
-    public String createTable(MigrationTable migrationTable) {
+    /**
+     * Turns on TTL on tombstoneAttribute when writes are versioned, so the tombstones of deleted items expire.
+     * A table that doesn't exist yet is skipped, an imported table gets it once the import is done.
+     * Errors are logged, the returned future always completes normally.
+     */
+    private CompletableFuture<Void> enableTombstoneTtl(String tableName) {
+        if (!config.isVersionedWrites()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String attribute = config.getTombstoneAttribute();
+        return controlClient().describeTimeToLive(DescribeTimeToLiveRequest.builder().tableName(tableName).build())
+                .thenCompose(response -> {
+                    TimeToLiveDescription ttl = response.timeToLiveDescription();
+                    if (ttl.timeToLiveStatus() == TimeToLiveStatus.ENABLED || ttl.timeToLiveStatus() == TimeToLiveStatus.ENABLING) {
+                        if (!attribute.equals(ttl.attributeName())) {
+                            log.warn("DynamoDB table {} has TTL on {}, its tombstones in {} don't expire",
+                                    tableName, ttl.attributeName(), attribute);
+                        }
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return controlClient().updateTimeToLive(UpdateTimeToLiveRequest.builder()
+                            .tableName(tableName)
+                            .timeToLiveSpecification(TimeToLiveSpecification.builder().enabled(true).attributeName(attribute).build())
+                            .build()).thenAccept(r -> log.info("Enabled TTL on {} of DynamoDB table {}", attribute, tableName));
+                })
+                .exceptionally(t -> {
+                    Throwable cause = unwrap(t);
+                    if (!(cause instanceof ResourceNotFoundException)) {
+                        log.error("Error enable TTL of DynamoDB table " + tableName + ", its tombstones don't expire: " + cause.getMessage());
+                    }
+                    return null;
+                });
+    }
+
+    /**
+     * Deletes the table and completes once it is gone, a table that doesn't exist is skipped.
+     * Errors are logged, the returned future always completes normally.
+     */
+    public CompletableFuture<Void> deleteTableAsync(String tableName) {
+        DeleteTableRequest request = DeleteTableRequest.builder()
+                .tableName(tableName)
+                .build();
+        return tableOperation(tableName, () -> controlClient().deleteTable(request), 0)
+                .handle((response, t) -> {
+                    Throwable cause = t == null ? null : unwrap(t);
+                    if (cause instanceof ResourceNotFoundException) {
+                        return false;
+                    }
+                    if (cause != null) {
+                        log.warn("Failed to delete table : " + cause.getMessage());
+                        return false;
+                    }
+                    return true;
+                })
+                .thenCompose(deleted -> !deleted ? CompletableFuture.completedFuture(null)
+                        : controlClient().waiter().waitUntilTableNotExists(describe(tableName)).handle((response, t) -> {
+                            if (t != null) {
+                                log.warn("Failed to wait for deletion of table " + tableName + ": " + unwrap(t).getMessage());
+                            } else {
+                                log.info("Table deletion complete: " + tableName);
+                            }
+                            return null;
+                        }));
+    }
+
+    // LimitExceededException means too many table operations run at once in the account
+    private <T> CompletableFuture<T> tableOperation(String tableName, Supplier<CompletableFuture<T>> operation, int attempt) {
+        return operation.get().handle((response, t) -> {
+            if (t == null || !(unwrap(t) instanceof LimitExceededException) || attempt >= TABLE_OPERATION_MAX_RETRIES) {
+                return t == null ? CompletableFuture.completedFuture(response) : CompletableFuture.<T>failedFuture(unwrap(t));
+            }
+            log.warn("DynamoDB table operations over the limit, retry table {} attempt {}", tableName, attempt + 1);
+            return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(
+                            TABLE_OPERATION_BACKOFF_MILLIS << Math.min(attempt, 4), TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> tableOperation(tableName, operation, attempt + 1));
+        }).thenCompose(f -> f);
+    }
+
+    /**
+     * @return the key attribute names of the table, from its source schema, or from the target table when it was
+     * not registered, as in replays
+     */
+    public Set<String> keyNames(String tableName) {
+        return keyNames.computeIfAbsent(tableName, t -> {
+            Set<String> names = new HashSet<>();
+            for (KeySchemaElement element : controlClient().describeTable(describe(t)).join().table().keySchema()) {
+                names.add(element.attributeName());
+            }
+            return names;
+        });
+    }
+
+    /**
+     * @return the status of the table, null when it doesn't exist
+     */
+    public TableStatus tableStatus(String tableName) {
+        try {
+            return controlClient().describeTable(describe(tableName)).join().table().tableStatus();
+        } catch (CompletionException e) {
+            if (unwrap(e) instanceof ResourceNotFoundException) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private static DescribeTableRequest describe(String tableName) {
+        return DescribeTableRequest.builder().tableName(tableName).build();
+    }
+
+    // Table operations always use the async client and its waiters, writes only when dynamodbAsync is enabled.
+    private synchronized DynamoDbAsyncClient controlClient() {
+        if (ddbAsync != null) {
+            return ddbAsync;
+        }
+        if (ddbControl == null) {
+            DynamoDbAsyncClientBuilder builder = DynamoDbAsyncClient.builder().region(Region.of(config.getTargetRegion()));
+            if (StringUtils.hasText(config.getDdbEndpoint())) {
+                builder.endpointOverride(URI.create(config.getDdbEndpoint()));
+            }
+            ddbControl = builder.build();
+        }
+        return ddbControl;
+    }
+
+    private CreateTableRequest buildCreateTableRequest(MigrationTable migrationTable) {
         List<AttributeDefinition> attrs = new ArrayList<>();
         Map<String, KeySchemaElement> keysMap = new LinkedHashMap();
         // for PK
@@ -155,7 +479,7 @@ public class DynamoDBUtil {
                     else {
                         GlobalSecondaryIndex gindex = GlobalSecondaryIndex.builder()
                                 .indexName(indexMeta.getIndexName()).onDemandThroughput(OnDemandThroughput.builder()
-                                        .maxReadRequestUnits(50L).maxWriteRequestUnits(50L).build()).keySchema(index_keys).projection(projection).build();
+                                        .maxReadRequestUnits(ON_DEMAND_MAX_REQUEST_UNITS).maxWriteRequestUnits(ON_DEMAND_MAX_REQUEST_UNITS).build()).keySchema(index_keys).projection(projection).build();
                         globalSecondaryIndex.add(gindex);
                     }
                 }
@@ -186,156 +510,369 @@ public class DynamoDBUtil {
                     .localSecondaryIndexes(localSecondaryIndexes.size()>0?localSecondaryIndexes:null)
                     .globalSecondaryIndexes(globalSecondaryIndex.size()>0?globalSecondaryIndex:null)
                 .billingMode("PAY_PER_REQUEST")
-                .onDemandThroughput(OnDemandThroughput.builder().maxReadRequestUnits(50L).maxWriteRequestUnits(50L).build())
+                .onDemandThroughput(OnDemandThroughput.builder().maxReadRequestUnits(ON_DEMAND_MAX_REQUEST_UNITS).maxWriteRequestUnits(ON_DEMAND_MAX_REQUEST_UNITS).build())
                 .tableName(migrationTable.getTableMeta().getTableName())
                 .build();
         }
 
-        String newTable;
-        try {
-            CreateTableResponse response = ddb.createTable(request);
+        return request;
+    }
 
-            // Wait until the Amazon DynamoDB table is created.
-            DescribeTableRequest tableRequest = DescribeTableRequest.builder()
-                    .tableName(migrationTable.getTableMeta().getTableName())
-                    .build();
-            DynamoDbWaiter dbWaiter = ddb.waiter();
-            WaiterResponse<DescribeTableResponse> waiterResponse = dbWaiter.waitUntilTableExists(tableRequest);
-            waiterResponse.matched().response().ifPresent(s -> log.info("Response received: {}", s));
-            newTable = response.tableDescription().tableName();
-            return newTable;
+    /**
+     * Updates the item, with the async client when async mode is enabled.
+     * Errors are logged, the returned future always completes normally, with whether the item was updated.
+     */
+    public CompletableFuture<Boolean> updateTableItemAsync(String tableName, Map<String, AttributeValue> key,
+                                                           Map<String, AttributeValueUpdate> updates) {
+        UpdateItemRequest request = buildUpdateRequest(tableName, key, updates);
+        return writeItemAsync(tableName, "update", () -> ddb.updateItem(request).consumedCapacity(),
+                () -> ddbAsync.updateItem(request).thenApply(UpdateItemResponse::consumedCapacity));
+    }
 
-        } catch (DynamoDbException e) {
-            log.error(e.getMessage());
-        }
-        return "";
+    /**
+     * Puts the item with its source version, unless the stored item has the same or a newer version.
+     * A stale put counts as written. Errors are logged, the returned future always completes normally.
+     */
+    public CompletableFuture<Boolean> putItemVersionedAsync(String tableName, Map<String, AttributeValue> item, BigDecimal version) {
+        Map<String, AttributeValue> versioned = new HashMap<>(item);
+        versioned.put(config.getVersionAttribute(), AttributeValue.fromN(version.toPlainString()));
+        PutItemRequest request = PutItemRequest.builder()
+                .tableName(tableName)
+                .item(versioned)
+                .conditionExpression(VERSION_CONDITION)
+                .expressionAttributeNames(Map.of("#v", config.getVersionAttribute()))
+                .expressionAttributeValues(Map.of(":v", AttributeValue.fromN(version.toPlainString())))
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        return writeItemAsync(tableName, "put", () -> ddb.putItem(request).consumedCapacity(),
+                () -> ddbAsync.putItem(request).thenApply(PutItemResponse::consumedCapacity));
     }
 
-    public void deleteTable(String tableName) {
-        DeleteTableRequest request = DeleteTableRequest.builder()
+    /**
+     * Applies the updates and the source version, unless the stored item has the same or a newer version.
+     * The updates are sent as an UpdateExpression, AttributeUpdates can't be combined with a condition.
+     */
+    public CompletableFuture<Boolean> updateItemVersionedAsync(String tableName, Map<String, AttributeValue> key,
+                                                               Map<String, AttributeValueUpdate> updates, BigDecimal version) {
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+        List<String> set = new ArrayList<>();
+        List<String> remove = new ArrayList<>();
+        int i = 0;
+        for (Map.Entry<String, AttributeValueUpdate> update : updates.entrySet()) {
+            String name = "#a" + i;
+            names.put(name, update.getKey());
+            if (update.getValue().action() == AttributeAction.DELETE) {
+                remove.add(name);
+            } else {
+                values.put(":a" + i, update.getValue().value());
+                set.add(name + " = :a" + i);
+            }
+            i++;
+        }
+        names.put("#v", config.getVersionAttribute());
+        values.put(":v", AttributeValue.fromN(version.toPlainString()));
+        set.add("#v = :v");
+        // an update after a versioned delete creates the row again
+        names.put("#d", config.getTombstoneAttribute());
+        remove.add("#d");
+        UpdateItemRequest request = UpdateItemRequest.builder()
                 .tableName(tableName)
+                .key(key)
+                .updateExpression("SET " + String.join(", ", set) + " REMOVE " + String.join(", ", remove))
+                .conditionExpression(VERSION_CONDITION)
+                .expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
                 .build();
-        try {
-            ddb.deleteTable(request);
+        return writeItemAsync(tableName, "update", () -> ddb.updateItem(request).consumedCapacity(),
+                () -> ddbAsync.updateItem(request).thenApply(UpdateItemResponse::consumedCapacity));
+    }
 
-            // Wait until the Amazon DynamoDB table is created.
-            DescribeTableRequest tableRequest = DescribeTableRequest.builder()
-                    .tableName(tableName)
-                    .build();
-            DynamoDbWaiter dbWaiter = ddb.waiter();
-            WaiterResponse<DescribeTableResponse> waiterResponse = dbWaiter.waitUntilTableNotExists(tableRequest);
-            waiterResponse.matched().response().ifPresent(s -> log.info("Response received: {}", s));
-        } catch (DynamoDbException e) {
-            log.warn("Failed to delete table : " + e.getMessage());
+    /**
+     * Replaces the item with a tombstone of the key, the source version and tombstoneAttribute holding the epoch
+     * second it expires, unless the stored item has the same or a newer version. Removing the item would drop its
+     * version, and an older put landing after the delete would bring the item back.
+     */
+    public CompletableFuture<Boolean> deleteItemVersionedAsync(String tableName, Map<String, AttributeValue> key, BigDecimal version) {
+        Map<String, AttributeValue> tombstone = new HashMap<>(key);
+        tombstone.put(config.getTombstoneAttribute(), AttributeValue.fromN(Long.toString(
+                System.currentTimeMillis() / 1000 + config.getTombstoneTtlSeconds())));
+        return putItemVersionedAsync(tableName, tombstone, version);
+    }
+
+    // Single item write, throttling is retried. A failed version condition means a newer change is stored.
+    private boolean writeItem(String tableName, String operation, Supplier<ConsumedCapacity> call) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                pace(tableName, 1);
+                consumed(tableName, 1, call.get());
+                return true;
+            } catch (ConditionalCheckFailedException e) {
+                log.debug("Skipped stale {} to DynamoDB table {}", operation, tableName);
+                return true;
+            } catch (ResourceNotFoundException e) {
+                log.error("Error {} to DynamoDB: The Amazon DynamoDB table \"{}\" can't be found.", operation, tableName);
+                return false;
+            } catch (DynamoDbException e) {
+                if (!isThrottling(e)) {
+                    log.error("Error " + operation + " to DynamoDB: " + e.getMessage());
+                    return false;
+                }
+                throttled(tableName);
+            }
+            if (attempt >= BATCH_WRITE_MAX_RETRIES || !backoff(attempt)) {
+                log.error("Gave up {} to DynamoDB table {} after throttling", operation, tableName);
+                return false;
+            }
         }
-        log.info("Table deletion complete: " + tableName);
     }
 
-    public void deleteTableItem(String tableName, List<MigrationKey> keys) {
-        // Only need the primary key and sort key to delete.
-        int index = keys.size()<2 ? keys.size() : 2;
-        Map<String, AttributeValue> keyToDelete = buildKeyItems(keys.subList(0, index));
+    private CompletableFuture<Boolean> writeItemAsync(String tableName, String operation, Supplier<ConsumedCapacity> call,
+                                                      Supplier<CompletableFuture<ConsumedCapacity>> asyncCall) {
+        if (!isAsync()) {
+            return CompletableFuture.completedFuture(writeItem(tableName, operation, call));
+        }
+        return writeItemAsync(tableName, operation, asyncCall, 0);
+    }
+
+    private CompletableFuture<Boolean> writeItemAsync(String tableName, String operation,
+                                                      Supplier<CompletableFuture<ConsumedCapacity>> call, int attempt) {
+        return paceAsync(tableName, 1).thenCompose(v -> call.get()).handle((capacity, t) -> {
+            if (t == null) {
+                consumed(tableName, 1, capacity);
+                return WriteOutcome.WRITTEN;
+            }
+            Throwable cause = unwrap(t);
+            if (cause instanceof ConditionalCheckFailedException) {
+                log.debug("Skipped stale {} to DynamoDB table {}", operation, tableName);
+                return WriteOutcome.WRITTEN;
+            }
+            if (cause instanceof DynamoDbException && isThrottling((DynamoDbException) cause)) {
+                throttled(tableName);
+                return WriteOutcome.RETRY;
+            }
+            log.error("Error " + operation + " to DynamoDB: " + cause.getMessage());
+            return WriteOutcome.FAILED;
+        }).thenCompose(outcome -> {
+            if (outcome != WriteOutcome.RETRY) {
+                return CompletableFuture.completedFuture(outcome == WriteOutcome.WRITTEN);
+            }
+            if (attempt >= BATCH_WRITE_MAX_RETRIES) {
+                log.error("Gave up {} to DynamoDB table {} after throttling", operation, tableName);
+                return CompletableFuture.completedFuture(false);
+            }
+            return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(backoffMillis(attempt), TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> writeItemAsync(tableName, operation, call, attempt + 1));
+        });
+    }
+
+    private enum WriteOutcome { WRITTEN, RETRY, FAILED }
 
-        DeleteItemRequest deleteReq = DeleteItemRequest.builder()
+    private UpdateItemRequest buildUpdateRequest(String tableName, Map<String, AttributeValue> key,
+                                                 Map<String, AttributeValueUpdate> updates) {
+        return UpdateItemRequest.builder()
                 .tableName(tableName)
-                .key(keyToDelete)
+                .key(key)
+                .attributeUpdates(updates)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
                 .build();
+    }
 
-        try {
-            ddb.deleteItem(deleteReq);
-        } catch (DynamoDbException e) {
-            log.error("Error delete DynamoDB item: " + e.getMessage());
+    /**
+     * Writes the given put and delete requests with BatchWriteItem, 25 items per call.
+     * Items DynamoDB reports as unprocessed are retried with jittered exponential backoff.
+     * A single batch must not contain two requests for the same key.
+     *
+     * @return the requests that could not be written
+     */
+    public List<WriteRequest> batchWriteTableItems(String tableName, List<WriteRequest> writes) {
+        List<WriteRequest> failed = new ArrayList<>();
+        for (int i = 0; i < writes.size(); i += BATCH_WRITE_MAX_ITEMS) {
+            List<WriteRequest> batch = writes.subList(i, Math.min(i + BATCH_WRITE_MAX_ITEMS, writes.size()));
+            failed.addAll(batchWrite(tableName, batch));
         }
+        return failed;
     }
 
-    public void insertTableItem(String tableName, List<MigrationKey> keys,
-                                       List<MigrationColumn> columns) {
-        Map<String, AttributeValue> itemValues = buildKeyItems(keys);
-
-        for (MigrationColumn c : columns) {
-            switch (c.getType()) {
-                case STRING:
-                    itemValues.put(c.getName(), AttributeValue.builder().s(c.getValue()).build());
-                    break;
+    private List<WriteRequest> batchWrite(String tableName, List<WriteRequest> batch) {
+        List<WriteRequest> pending = batch;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                pace(tableName, pending.size());
+                BatchWriteItemResponse response = ddb.batchWriteItem(buildBatchRequest(tableName, pending));
+                pending = unprocessedItems(tableName, pending, response);
+                if (pending.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            } catch (DynamoDbException e) {
+                if (!isRetryable(tableName, attempt, e)) {
+                    return pending;
+                }
+            }
 
-                case INTEGER:
-                    itemValues.put(c.getName(), AttributeValue.builder().n(c.getValue()).build());
-                    break;
+            if (attempt >= BATCH_WRITE_MAX_RETRIES || !backoff(attempt)) {
+                log.error("Gave up batch write to DynamoDB table {} with {} unprocessed items", tableName, pending.size());
+                return pending;
             }
         }
+    }
 
-        PutItemRequest request = PutItemRequest.builder()
-                .tableName(tableName)
-                .item(itemValues)
-                .build();
+    /**
+     * Async variant of {@link #batchWriteTableItems} for at most 25 requests, one BatchWriteItem call
+     * plus its retries. Falls back to the blocking client when async mode is disabled.
+     *
+     * @return a future of the requests that could not be written, it never completes exceptionally
+     */
+    public CompletableFuture<List<WriteRequest>> batchWriteTableItemsAsync(String tableName, List<WriteRequest> batch) {
+        if (!isAsync()) {
+            return CompletableFuture.completedFuture(batchWriteTableItems(tableName, batch));
+        }
+        return batchWriteAsync(tableName, batch, 0);
+    }
 
-        try {
-            ddb.putItem(request);
-            log.info(tableName +" was successfully inserted");
+    private CompletableFuture<List<WriteRequest>> batchWriteAsync(String tableName, List<WriteRequest> pending, int attempt) {
+        return paceAsync(tableName, pending.size())
+                .thenCompose(v -> ddbAsync.batchWriteItem(buildBatchRequest(tableName, pending))).handle((response, t) -> {
+            if (t == null) {
+                return unprocessedItems(tableName, pending, response);
+            }
+            Throwable cause = unwrap(t);
+            if (cause instanceof DynamoDbException && isRetryable(tableName, attempt, (DynamoDbException) cause)) {
+                return pending;
+            }
+            if (!(cause instanceof DynamoDbException)) {
+                log.error("Error batch write to DynamoDB: " + cause.getMessage());
+            }
+            return null;
+        }).thenCompose(unprocessed -> {
+            if (unprocessed == null) {
+                return CompletableFuture.completedFuture(pending);
+            }
+            if (unprocessed.isEmpty()) {
+                return CompletableFuture.completedFuture(Collections.<WriteRequest>emptyList());
+            }
+            if (attempt >= BATCH_WRITE_MAX_RETRIES) {
+                log.error("Gave up batch write to DynamoDB table {} with {} unprocessed items", tableName, unprocessed.size());
+                return CompletableFuture.completedFuture(unprocessed);
+            }
+            return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(backoffMillis(attempt), TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> batchWriteAsync(tableName, unprocessed, attempt + 1));
+        });
+    }
 
-        } catch (ResourceNotFoundException e) {
-            log.error("Error insert to DynamoDB: The Amazon DynamoDB table \"%s\" can't be found.\n", tableName);
-        } catch (DynamoDbException e) {
-            log.error("Error insert to DynamoDB: " + e.getMessage());
-        }
+    private BatchWriteItemRequest buildBatchRequest(String tableName, List<WriteRequest> batch) {
+        return BatchWriteItemRequest.builder()
+                .requestItems(Collections.singletonMap(tableName, batch))
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
     }
 
-    public void updateTableItem(String tableName, List<MigrationKey> keys,
-                                       List<MigrationColumn> columns){
+    private List<WriteRequest> unprocessedItems(String tableName, List<WriteRequest> sent, BatchWriteItemResponse response) {
+        List<WriteRequest> unprocessed = response.hasUnprocessedItems()
+                ? response.unprocessedItems().getOrDefault(tableName, Collections.emptyList())
+                : Collections.emptyList();
+        if (response.hasConsumedCapacity()) {
+            for (ConsumedCapacity capacity : response.consumedCapacity()) {
+                if (tableName.equals(capacity.tableName())) {
+                    consumed(tableName, sent.size(), capacity);
+                }
+            }
+        }
+        if (!unprocessed.isEmpty()) {
+            // DynamoDB returns unprocessed items when the table is over its capacity
+            throttled(tableName);
+        }
+        log.debug("{} batch of {} items was successfully written", tableName, sent.size() - unprocessed.size());
+        return unprocessed;
+    }
 
-        Map<String,AttributeValue> itemKey = buildKeyItems(keys);
+    // Throttling is retried, any other error fails the whole batch.
+    private boolean isRetryable(String tableName, int attempt, DynamoDbException e) {
+        if (isThrottling(e)) {
+            log.warn("Batch write to DynamoDB throttled for table {}, attempt {}", tableName, attempt + 1);
+            throttled(tableName);
+            return true;
+        }
+        if (e instanceof ResourceNotFoundException) {
+            log.error("Error batch write to DynamoDB: The Amazon DynamoDB table \"{}\" can't be found.", tableName);
+        } else {
+            log.error("Error batch write to DynamoDB: " + e.getMessage());
+        }
+        return false;
+    }
 
-        HashMap<String,AttributeValueUpdate> values = new HashMap<>();
-        // Update the column specified by name with updatedValue
-        for (MigrationColumn c : columns) {
-            switch (c.getType()) {
-                case STRING:
-                    values.put(c.getName(), AttributeValueUpdate.builder()
-                            .value(AttributeValue.builder().s(c.getValue()).build())
-                            .action(AttributeAction.PUT)
-                            .build());
-                    break;
+    private static boolean isThrottling(DynamoDbException e) {
+        return e instanceof ProvisionedThroughputExceededException || e instanceof RequestLimitExceededException;
+    }
 
-                case INTEGER:
-                    values.put(c.getName(), AttributeValueUpdate.builder()
-                            .value(AttributeValue.builder().n(c.getValue()).build())
-                            .action(AttributeAction.PUT)
-                            .build());
-                    break;
+    // Waits until the table's rate controller has capacity for the write units.
+    private void pace(String tableName, double units) {
+        WriteRateController controller = rateControllers.get(tableName);
+        long delay = controller == null ? 0 : controller.reserve(units);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+    }
 
-        UpdateItemRequest request = UpdateItemRequest.builder()
-                .tableName(tableName)
-                .key(itemKey)
-                .attributeUpdates(values)
-                .build();
+    private CompletableFuture<Void> paceAsync(String tableName, double units) {
+        WriteRateController controller = rateControllers.get(tableName);
+        long delay = controller == null ? 0 : controller.reserve(units);
+        if (delay <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS));
+    }
 
-        try {
-            ddb.updateItem(request);
-        } catch (ResourceNotFoundException e) {
-            log.error("Error update to DynamoDB: The Amazon DynamoDB table \"%s\" can't be found.\n", tableName);
-        } catch (DynamoDbException e) {
-            log.error("Error update to DynamoDB: " + e.getMessage());
+    private void consumed(String tableName, double reserved, ConsumedCapacity capacity) {
+        WriteRateController controller = rateControllers.get(tableName);
+        if (controller != null) {
+            controller.onConsumed(reserved, capacity == null || capacity.capacityUnits() == null ? 0 : capacity.capacityUnits());
         }
     }
 
-    private Map<String,AttributeValue> buildKeyItems(List<MigrationKey> keys) {
-        Map<String, AttributeValue> itemKeys = new HashMap<>();
+    private void throttled(String tableName) {
+        WriteRateController controller = rateControllers.get(tableName);
+        if (controller != null) {
+            controller.onThrottled();
+            log.warn("DynamoDB table {} throttled, write rate lowered to {} WCU/s", tableName, controller.getRate());
+        }
+    }
 
-        for (MigrationKey k : keys) {
-            switch (k.getType()) {
-                case STRING:
-                    itemKeys.put(k.getName(), AttributeValue.builder().s(k.getValue()).build());
-                    break;
+    private static Throwable unwrap(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
 
-                case INTEGER:
-                    itemKeys.put(k.getName(), AttributeValue.builder().n(k.getValue()).build());
-                    break;
-            }
+    private boolean backoff(int attempt) {
+        try {
+            Thread.sleep(backoffMillis(attempt));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+    }
+
+    // Full jitter: a random time between 0 and the capped exponential delay.
+    private static long backoffMillis(int attempt) {
+        long cap = Math.min(BATCH_WRITE_MAX_BACKOFF_MILLIS, BATCH_WRITE_BASE_BACKOFF_MILLIS << attempt);
+        return ThreadLocalRandom.current().nextLong(cap + 1);
+    }
 
-        return itemKeys;
+    public WriteRequest buildPutRequest(Map<String, AttributeValue> item) {
+        return WriteRequest.builder()
+                .putRequest(PutRequest.builder().item(item).build())
+                .build();
+    }
+
+    public WriteRequest buildDeleteRequest(Map<String, AttributeValue> key) {
+        return WriteRequest.builder()
+                .deleteRequest(DeleteRequest.builder().key(key).build())
+                .build();
     }
 
     private static ScalarAttributeType convertKeyType(PrimaryKeyType type) {
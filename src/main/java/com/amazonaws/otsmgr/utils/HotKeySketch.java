@@ -0,0 +1,122 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Count-min sketch of the keys written to a table, with the topK most frequent keys kept by name.
+ * Estimates never undercount and overcount by at most about total / width * e. Once window keys are counted,
+ * all counts are halved, so the sketch follows the recent writes. Memory stays at depth x width counters
+ * whatever the number of keys. Thread safe.
+ */
+public class HotKeySketch {
+
+    private static final int DEPTH = 4;
+
+    private final int mask;
+    private final long[] counts;
+    private final int topK;
+    private final long window;
+    private final Map<String, Long> top = new HashMap<>();
+    // a lower bound of the smallest top estimate, estimates only grow between decays
+    private long topMin;
+    private long total;
+
+    /**
+     * @param width counters per row, rounded up to a power of two
+     */
+    public HotKeySketch(int width, int topK, long window) {
+        int size = Integer.highestOneBit(Math.max(2, width) - 1) << 1;
+        this.mask = size - 1;
+        this.counts = new long[DEPTH * size];
+        this.topK = Math.max(1, topK);
+        this.window = window;
+    }
+
+    /**
+     * Counts the key n times.
+     *
+     * @return the estimated count of the key
+     */
+    public synchronized long add(String key, int n) {
+        long h = hash(key);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * (mask + 1) + ((h1 + i * h2) & mask);
+            counts[index] += n;
+            estimate = Math.min(estimate, counts[index]);
+        }
+        total += n;
+        offerTop(key, estimate);
+        if (total >= window) {
+            decay();
+        }
+        return estimate;
+    }
+
+    public synchronized long total() {
+        return total;
+    }
+
+    /**
+     * @return the most frequent keys with their estimated counts, most frequent first
+     */
+    public synchronized List<Map.Entry<String, Long>> top() {
+        List<Map.Entry<String, Long>> result = new ArrayList<>(top.size());
+        top.forEach((key, count) -> result.add(Map.entry(key, count)));
+        result.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return result;
+    }
+
+    private void offerTop(String key, long estimate) {
+        if (top.size() < topK || top.containsKey(key)) {
+            top.put(key, estimate);
+            topMin = Math.min(topMin, estimate);
+            return;
+        }
+        if (estimate <= topMin) {
+            return;
+        }
+        Map.Entry<String, Long> min = null;
+        for (Map.Entry<String, Long> entry : top.entrySet()) {
+            if (min == null || entry.getValue() < min.getValue()) {
+                min = entry;
+            }
+        }
+        if (estimate > min.getValue()) {
+            top.remove(min.getKey());
+            top.put(key, estimate);
+        } else {
+            topMin = min.getValue();
+        }
+    }
+
+    private void decay() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] >>>= 1;
+        }
+        top.replaceAll((key, count) -> count >>> 1);
+        top.values().removeIf(count -> count == 0);
+        topMin >>>= 1;
+        total >>>= 1;
+    }
+
+    // 64-bit FNV-1a with a final mix, the two halves index the rows
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,128 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
+import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Splits every tunnel batch into lanes by the hash of the records' partition key and hands the lanes to the
+ * wrapped processor concurrently. The records of a lane keep their order, and all changes of a row, or of a
+ * DynamoDB item keyed by the first two primary key columns, go to the same lane, so they never reorder.
+ * {@link #process} returns once every lane is done, the tunnel checkpoint stays behind all of them.
+ * <p>
+ * Each lane is processed as a batch of its own with the trace id suffixed by the lane number. The first lane runs
+ * on the calling thread, the others on the given executor, which the channels of the table share and which
+ * outlives the processor.
+ */
+public class LaneChannelProcessor implements IChannelProcessor {
+    private static final Logger log = LoggerFactory.getLogger(LaneChannelProcessor.class);
+
+    private final IChannelProcessor processor;
+    private final int lanes;
+    private final ExecutorService executor;
+
+    public LaneChannelProcessor(IChannelProcessor processor, int lanes, ExecutorService executor) {
+        this.processor = processor;
+        this.lanes = lanes;
+        this.executor = executor;
+    }
+
+    @Override
+    public void process(ProcessRecordsInput input) {
+        List<StreamRecord> records = input.getRecords();
+        if (records == null || records.size() < 2) {
+            processor.process(input);
+            return;
+        }
+
+        List<List<StreamRecord>> split = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            split.add(new ArrayList<>());
+        }
+        for (StreamRecord r : records) {
+            split.get(lane(r)).add(r);
+        }
+
+        List<CompletableFuture<Void>> running = new ArrayList<>(lanes);
+        ProcessRecordsInput own = null;
+        for (int i = 0; i < lanes; i++) {
+            if (split.get(i).isEmpty()) {
+                continue;
+            }
+            ProcessRecordsInput laneInput = new ProcessRecordsInput(split.get(i), input.getNextToken(), input.getTraceId() + "-" + i);
+            if (own == null) {
+                // the first lane runs on the tunnel's process thread
+                own = laneInput;
+            } else {
+                running.add(CompletableFuture.runAsync(() -> processor.process(laneInput), executor));
+            }
+        }
+
+        RuntimeException error = null;
+        try {
+            processor.process(own);
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        for (CompletableFuture<Void> lane : running) {
+            try {
+                lane.join();
+            } catch (CompletionException e) {
+                if (error == null) {
+                    error = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (error != null) {
+            // not acknowledged, the tunnel delivers the whole batch again
+            log.error("Error process lanes of batch " + input.getTraceId() + ": " + error.getMessage());
+            throw error;
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        processor.shutdown();
+    }
+
+    private int lane(StreamRecord r) {
+        return partition(r, lanes);
+    }
+
+    /**
+     * Partition of the record among n by the hash of its partition key, the changes of a key share the partition.
+     */
+    public static int partition(StreamRecord r, int n) {
+        PrimaryKeyColumn[] pks = r.getPrimaryKey().getPrimaryKeyColumns();
+        if (pks.length == 0) {
+            return 0;
+        }
+        int h = hash(pks[0].getValue());
+        h ^= h >>> 16;
+        return Math.floorMod(h, n);
+    }
+
+    private static int hash(PrimaryKeyValue value) {
+        switch (value.getType()) {
+            case INTEGER:
+                return Long.hashCode(value.asLong());
+            case BINARY:
+                return Arrays.hashCode(value.asBinary());
+            default:
+                return value.asString().hashCode();
+        }
+    }
+}
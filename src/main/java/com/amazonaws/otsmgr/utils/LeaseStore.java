@@ -0,0 +1,214 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Table leases and node heartbeats of a cluster in a directory shared by the nodes, as properties files:
+ * nodes/&lt;node&gt;.properties holds the last heartbeat and throughput of a node, leases/&lt;table&gt;.properties
+ * the owner, expiry and claim count of a table. Callers read and change them inside {@link #locked}, which holds
+ * an exclusive lock on the lock file, so nodes on one host or a shared file system see each other's changes whole.
+ */
+public class LeaseStore {
+
+    private static final String SUFFIX = ".properties";
+
+    private final Path nodes;
+    private final Path leases;
+    private final Path lockFile;
+
+    public LeaseStore(Path dir) throws IOException {
+        this.nodes = dir.resolve("nodes");
+        this.leases = dir.resolve("leases");
+        this.lockFile = dir.resolve("lock");
+        Files.createDirectories(nodes);
+        Files.createDirectories(leases);
+    }
+
+    /**
+     * Runs the action holding the store lock. The lock is also taken within this JVM, file locks only
+     * exclude other processes.
+     */
+    public synchronized <T> T locked(LockedAction<T> action) throws IOException {
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            return action.run();
+        }
+    }
+
+    public void putNode(Node node) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("heartbeat", Long.toString(node.heartbeat));
+        properties.setProperty("tables", Integer.toString(node.tables));
+        properties.setProperty("written", Long.toString(node.written));
+        properties.setProperty("rate", Double.toString(node.rate));
+        write(nodes.resolve(node.id + SUFFIX), properties);
+    }
+
+    /**
+     * @return the nodes by id
+     */
+    public Map<String, Node> nodes() throws IOException {
+        Map<String, Node> result = new TreeMap<>();
+        for (Map.Entry<String, Properties> entry : readAll(nodes).entrySet()) {
+            Properties p = entry.getValue();
+            result.put(entry.getKey(), new Node(entry.getKey(), Long.parseLong(p.getProperty("heartbeat", "0")),
+                    Integer.parseInt(p.getProperty("tables", "0")), Long.parseLong(p.getProperty("written", "0")),
+                    Double.parseDouble(p.getProperty("rate", "0"))));
+        }
+        return result;
+    }
+
+    public void putLease(String tableName, Lease lease) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("owner", lease.owner);
+        properties.setProperty("expires", Long.toString(lease.expires));
+        properties.setProperty("claims", Integer.toString(lease.claims));
+        write(leases.resolve(tableName + SUFFIX), properties);
+    }
+
+    /**
+     * Gives up the lease, the claim count is kept so the next owner doesn't take the table for a new one.
+     */
+    public void releaseLease(String tableName, Lease lease) throws IOException {
+        putLease(tableName, new Lease("", 0, lease.claims));
+    }
+
+    /**
+     * @return the leases by table
+     */
+    public Map<String, Lease> leases() throws IOException {
+        Map<String, Lease> result = new TreeMap<>();
+        for (Map.Entry<String, Properties> entry : readAll(leases).entrySet()) {
+            result.put(entry.getKey(), toLease(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * @return the lease of the table, null when no node claimed it yet
+     */
+    public Lease lease(String tableName) throws IOException {
+        Path file = leases.resolve(tableName + SUFFIX);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return toLease(properties);
+    }
+
+    private static Lease toLease(Properties p) {
+        return new Lease(p.getProperty("owner", ""), Long.parseLong(p.getProperty("expires", "0")),
+                Integer.parseInt(p.getProperty("claims", "0")));
+    }
+
+    private static Map<String, Properties> readAll(Path dir) throws IOException {
+        Map<String, Properties> result = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().endsWith(SUFFIX)).toList()) {
+                String name = file.getFileName().toString();
+                Properties properties = new Properties();
+                try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    properties.load(reader);
+                }
+                result.put(name.substring(0, name.length() - SUFFIX.length()), properties);
+            }
+        }
+        return result;
+    }
+
+    private static void write(Path file, Properties properties) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * Owner of a table until expires, an empty owner once released. claims counts the nodes that took the table.
+     */
+    public static class Lease {
+        private final String owner;
+        private final long expires;
+        private final int claims;
+
+        public Lease(String owner, long expires, int claims) {
+            this.owner = owner;
+            this.expires = expires;
+            this.claims = claims;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        public int getClaims() {
+            return claims;
+        }
+    }
+
+    /**
+     * Last heartbeat of a node with the number of tables it holds, its records written and their rate per second.
+     */
+    public static class Node {
+        private final String id;
+        private final long heartbeat;
+        private final int tables;
+        private final long written;
+        private final double rate;
+
+        public Node(String id, long heartbeat, int tables, long written, double rate) {
+            this.id = id;
+            this.heartbeat = heartbeat;
+            this.tables = tables;
+            this.written = written;
+            this.rate = rate;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public long getHeartbeat() {
+            return heartbeat;
+        }
+
+        public int getTables() {
+            return tables;
+        }
+
+        public long getWritten() {
+            return written;
+        }
+
+        public double getRate() {
+            return rate;
+        }
+    }
+}
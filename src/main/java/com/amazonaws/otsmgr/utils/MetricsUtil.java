@@ -0,0 +1,141 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meters of the migration pipeline, tagged with the source table and the migration target.
+ * They are scraped by Prometheus from http://host:metricsPort/metrics, without the endpoint the meters record nothing.
+ */
+@Component
+public class MetricsUtil {
+    private static final Logger log = LoggerFactory.getLogger(MetricsUtil.class);
+
+    public static final String RECORDS_READ = "otsmgr.records.read";
+    public static final String RECORDS_WRITTEN = "otsmgr.records.written";
+    public static final String RECORDS_FAILED = "otsmgr.records.failed";
+    public static final String RECORDS_COALESCED = "otsmgr.records.coalesced";
+    public static final String WRITES_PACED = "otsmgr.writes.paced";
+    public static final String BATCHES_FAILED = "otsmgr.batches.failed";
+    public static final String BATCH_PROCESS = "otsmgr.batch.process";
+    public static final String BATCH_CONVERSION = "otsmgr.batch.conversion";
+    public static final String SINK_LATENCY = "otsmgr.sink.latency";
+    public static final String BATCHES_IN_FLIGHT = "otsmgr.batches.inflight";
+    public static final String REQUESTS_IN_FLIGHT = "otsmgr.requests.inflight";
+    public static final String S3_BYTES_UPLOADED = "otsmgr.s3.bytes.uploaded";
+
+    private final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+    // gauges only hold weak references to their state
+    private final Map<Tags, AtomicInteger> gauges = new ConcurrentHashMap<>();
+    private HttpServer server;
+
+    @Resource
+    private MigrationConfig config;
+
+    @PostConstruct
+    public void init() {
+        if (StringUtils.hasText(config.getClusterLeaseDir())) {
+            // cluster nodes report their throughput from the counters
+            registry.add(new SimpleMeterRegistry());
+        }
+        if (config.getMetricsPort() > 0) {
+            PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+            registry.add(prometheus);
+            try {
+                server = HttpServer.create(new InetSocketAddress(config.getMetricsBindAddress(), config.getMetricsPort()), 0);
+                server.createContext("/metrics", exchange -> {
+                    byte[] body = prometheus.scrape().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "otsmgr-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+                server.start();
+                log.info("Serving metrics on " + config.getMetricsBindAddress() + ":" + config.getMetricsPort());
+            } catch (IOException e) {
+                log.error("Error start metrics endpoint: " + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+        }
+        registry.close();
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    public Counter counter(String name, String table, String target) {
+        return registry.counter(name, tags(table, target));
+    }
+
+    /**
+     * Timer with a percentile histogram, so latency quantiles can be aggregated across instances.
+     */
+    public Timer timer(String name, String table, String target) {
+        return Timer.builder(name)
+                .tags(tags(table, target))
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(1))
+                .register(registry);
+    }
+
+    public AtomicInteger gauge(String name, String table, String target) {
+        Tags tags = tags(table, target).and("name", name);
+        return gauges.computeIfAbsent(tags, t -> registry.gauge(name, tags(table, target), new AtomicInteger()));
+    }
+
+    /**
+     * Sum of the counter over all tables and targets.
+     */
+    public double total(String name) {
+        return registry.find(name).counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    public void bytesUploaded(String table, long bytes) {
+        registry.counter(S3_BYTES_UPLOADED, "table", table).increment(bytes);
+    }
+
+    private static Tags tags(String table, String target) {
+        return Tags.of("table", table, "target", target);
+    }
+}
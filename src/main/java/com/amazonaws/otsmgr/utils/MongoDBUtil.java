@@ -1,74 +1,303 @@
 package com.amazonaws.otsmgr.utils;
 
-import java.io.IOException;
-
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 
 import org.bson.Document;
+import org.bson.types.Decimal128;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.ClassPathResource;
-import org.springframework.core.io.support.PropertiesLoaderUtils;
 import org.springframework.stereotype.Component;
 
-import com.amazonaws.otsmgr.beans.MigrationColumn;
-import com.amazonaws.otsmgr.beans.MigrationKey;
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
 @Component
 public class MongoDBUtil {
 
     private final Logger log = LoggerFactory.getLogger(MongoDBUtil.class);
+    @Resource
+    private MigrationConfig config;
     MongoClient mongoClient;
     MongoDatabase database;
+    WriteConcern writeConcern;
+    boolean bulkWrite;
+    boolean versionedWrites;
+    String versionAttribute;
+    String tombstoneAttribute;
+    int tombstoneTtlSeconds;
+
+    private final Map<String, MongoCollection<Document>> collections = new ConcurrentHashMap<>();
 
     @PostConstruct
-    private void init() throws IOException {
-        org.springframework.core.io.Resource resource =  new ClassPathResource("config/application.properties");
-        Properties properties = PropertiesLoaderUtils.loadProperties(resource);
-        mongoClient = MongoClients.create(properties.getProperty("ots.migration.config.mongoDB.url"));
+    private void init() {
+        Map<String, String> mongoDB = config.getMongoDB();
+        mongoClient = MongoClients.create(mongoDB.get("url"));
         // Connect to database
-        database = mongoClient.getDatabase(properties.getProperty("ots.migration.config.mongoDB.database"));
+        database = mongoClient.getDatabase(mongoDB.get("database"));
+        writeConcern = parseWriteConcern(mongoDB.get("writeConcern"));
+        bulkWrite = Boolean.parseBoolean(mongoDB.getOrDefault("bulkWrite", "false"));
+        versionedWrites = config.isVersionedWrites();
+        versionAttribute = config.getVersionAttribute();
+        tombstoneAttribute = config.getTombstoneAttribute();
+        tombstoneTtlSeconds = config.getTombstoneTtlSeconds();
         log.info("Connected to MongoDB successfully!");
         //TODO 需要加一个用户名密码认证
 
     }
 
-    public void insertTableItem(String tableName, MigrationKey key, List<MigrationColumn> columns){
-        Document document = new Document();
-        //设置主键维一值
-        document.put("_id", key.getValue());
-        columns.forEach(k->{
-            document.put(k.getName(), k.getValue());
-        });
-        database.getCollection(tableName).insertOne(document);
+    public boolean isBulkWrite() {
+        return bulkWrite;
     }
 
-    public void updateTableItem(String tableName,MigrationKey key,List<MigrationColumn> columns){
-        MongoCollection<Document> collection = database.getCollection(tableName);
-        Document filter = new Document("_id", key.getValue());
-        Document updateDoc = new Document();
-        columns.forEach(k->{
-            updateDoc.put(k.getName(), k.getValue());
-        });
-        collection.updateOne(filter, new Document("$set", updateDoc));
+    public void insertTableItem(String tableName, Object id, Document fields){
+        getCollection(tableName).insertOne(buildDocument(id, fields));
+    }
+
+    /**
+     * Replaces the document when it has no version or an older one, a newer document is left as is.
+     */
+    public void insertTableItem(String tableName, Object id, Document fields, BigDecimal version){
+        if (version == null) {
+            insertTableItem(tableName, id, fields);
+            return;
+        }
+        try {
+            getCollection(tableName).replaceOne(buildFilter(id, version), buildDocument(id, fields, version), new ReplaceOptions().upsert(true));
+        } catch (MongoWriteException e) {
+            // the upsert hit the existing newer document
+            if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+        }
+    }
+
+    public void updateTableItem(String tableName, Object id, Document set, Document unset){
+        updateTableItem(tableName, id, set, unset, null);
+    }
+
+    public void updateTableItem(String tableName, Object id, Document set, Document unset, BigDecimal version){
+        Document update = buildUpdate(set, unset);
+        if (update.isEmpty()) {
+            return;
+        }
+        MongoCollection<Document> collection = getCollection(tableName);
+        collection.updateOne(buildFilter(id, version), withVersion(update, version));
+    }
+
+    public void deleteTableItem(String tableName, Object id){
+        deleteTableItem(tableName, id, null);
+    }
+
+    public void deleteTableItem(String tableName, Object id, BigDecimal version){
+        MongoCollection<Document> collection = getCollection(tableName);
+        collection.deleteOne(buildFilter(id, version));
+    }
+
+    public WriteModel<Document> buildReplaceModel(Object id, Document fields) {
+        return buildReplaceModel(id, fields, null);
+    }
+
+    public WriteModel<Document> buildReplaceModel(Object id, Document fields, BigDecimal version) {
+        // PUT replaces the whole row, upsert keeps redelivered records idempotent.
+        return new ReplaceOneModel<>(buildFilter(id, version), buildDocument(id, fields, version), new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * @return the update, or null when the record neither sets nor removes a field
+     */
+    public WriteModel<Document> buildUpdateModel(Object id, Document set, Document unset) {
+        return buildUpdateModel(id, set, unset, null);
+    }
+
+    public WriteModel<Document> buildUpdateModel(Object id, Document set, Document unset, BigDecimal version) {
+        Document update = buildUpdate(set, unset);
+        return update.isEmpty() ? null : new UpdateOneModel<>(buildFilter(id, version), withVersion(update, version));
     }
 
-    public void deleteTableItem(String tableName, MigrationKey key){
-        MongoCollection<Document> collection = database.getCollection(tableName);
-        Document filter = new Document("_id", key.getValue());
-        collection.deleteOne(filter);
+    public WriteModel<Document> buildDeleteModel(Object id) {
+        return buildDeleteModel(id, null);
+    }
+
+    /**
+     * With a version the document is replaced by a tombstone keeping the version, tombstoneAttribute holds the date
+     * it expires. Removing the document would drop its version, an older upsert landing after would bring it back.
+     */
+    public WriteModel<Document> buildDeleteModel(Object id, BigDecimal version) {
+        if (version == null) {
+            return new DeleteOneModel<>(buildFilter(id));
+        }
+        Document tombstone = new Document(tombstoneAttribute,
+                new Date(System.currentTimeMillis() + tombstoneTtlSeconds * 1000L));
+        return new ReplaceOneModel<>(buildFilter(id, version), buildDocument(id, tombstone, version), new ReplaceOptions().upsert(true));
+    }
+
+    /**
+     * Sends the models in one bulkWrite round trip.
+     * Unordered writes may be applied in any order, so the caller has to make sure no key appears twice.
+     *
+     * @return the indexes of the models that failed
+     */
+    public List<Integer> bulkWriteTableItems(String tableName, List<WriteModel<Document>> models, boolean ordered) {
+        List<Integer> failed = new ArrayList<>();
+        if (models.isEmpty()) {
+            return failed;
+        }
+        try {
+            getCollection(tableName).bulkWrite(models, new BulkWriteOptions().ordered(ordered));
+            log.info(tableName + " bulk of " + models.size() + " documents was successfully written");
+        } catch (MongoBulkWriteException e) {
+            int lastError = -1;
+            for (BulkWriteError error : e.getWriteErrors()) {
+                lastError = Math.max(lastError, error.getIndex());
+                // a versioned upsert of an older row collides with the newer document, it was skipped on purpose
+                if (versionedWrites && error.getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                    continue;
+                }
+                failed.add(error.getIndex());
+            }
+            // An ordered bulk stops at its first error, even a skipped one, the rest of the models were not applied.
+            if (ordered) {
+                for (int i = lastError + 1; i < models.size(); i++) {
+                    failed.add(i);
+                }
+            }
+            log.error("Error bulk write to MongoDB: " + e.getMessage());
+        } catch (MongoException e) {
+            for (int i = 0; i < models.size(); i++) {
+                failed.add(i);
+            }
+            log.error("Error bulk write to MongoDB: " + e.getMessage());
+        }
+        return failed;
     }
 
     public void cleanTable(String tableName){
-        MongoCollection<Document> collection = database.getCollection(tableName);
+        MongoCollection<Document> collection = getCollection(tableName);
         collection.drop();
+        collections.remove(tableName);
+    }
+
+    private MongoCollection<Document> getCollection(String tableName) {
+        return collections.computeIfAbsent(tableName, name -> {
+            MongoCollection<Document> collection = database.getCollection(name);
+            if (versionedWrites) {
+                expireTombstones(collection);
+            }
+            return writeConcern == null ? collection : collection.withWriteConcern(writeConcern);
+        });
+    }
+
+    // a TTL index removes the tombstones once the date they hold is past
+    private void expireTombstones(MongoCollection<Document> collection) {
+        try {
+            collection.createIndex(Indexes.ascending(tombstoneAttribute), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+        } catch (MongoException e) {
+            log.error("Error create TTL index on " + tombstoneAttribute + " of " + collection.getNamespace()
+                    + ", its tombstones don't expire: " + e.getMessage());
+        }
+    }
+
+    private Document buildDocument(Object id, Document fields) {
+        //设置主键维一值
+        Document document = new Document("_id", id);
+        document.putAll(fields);
+        return document;
+    }
+
+    private Document buildDocument(Object id, Document fields, BigDecimal version) {
+        Document document = buildDocument(id, fields);
+        if (version != null) {
+            document.put(versionAttribute, new Decimal128(version));
+        }
+        return document;
+    }
+
+    private Document buildFilter(Object id) {
+        return new Document("_id", id);
+    }
+
+    // matches the document only while it has no version or an older one
+    private Document buildFilter(Object id, BigDecimal version) {
+        Document filter = buildFilter(id);
+        if (version != null) {
+            filter.put("$or", List.of(
+                    new Document(versionAttribute, new Document("$exists", false)),
+                    new Document(versionAttribute, new Document("$lt", new Decimal128(version)))));
+        }
+        return filter;
+    }
+
+    private Document withVersion(Document update, BigDecimal version) {
+        if (version != null) {
+            Document set = update.get("$set", Document.class);
+            if (set == null) {
+                set = new Document();
+                update.put("$set", set);
+            }
+            set.put(versionAttribute, new Decimal128(version));
+            // an update after a versioned delete creates the row again
+            Document unset = update.get("$unset", Document.class);
+            if (unset == null) {
+                unset = new Document();
+                update.put("$unset", unset);
+            }
+            unset.put(tombstoneAttribute, "");
+        }
+        return update;
+    }
+
+    private Document buildUpdate(Document set, Document unset) {
+        Document update = new Document();
+        if (!set.isEmpty()) {
+            update.put("$set", set);
+        }
+        if (!unset.isEmpty()) {
+            update.put("$unset", unset);
+        }
+        return update;
+    }
+
+    // Accepts the WriteConcern constant names (majority, w1, acknowledged...), a number of nodes or a tag set name.
+    private static WriteConcern parseWriteConcern(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        WriteConcern concern = WriteConcern.valueOf(value.trim());
+        if (concern != null) {
+            return concern;
+        }
+        try {
+            return new WriteConcern(Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return new WriteConcern(value.trim());
+        }
     }
 
 
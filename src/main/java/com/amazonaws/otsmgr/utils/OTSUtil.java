@@ -12,13 +12,35 @@ import com.alicloud.openservices.tablestore.tunnel.worker.TunnelWorkerConfig;
 import com.amazonaws.otsmgr.conf.MigrationConfig;
 import com.amazonaws.otsmgr.beans.MigrationTable;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 @Component
 public class OTSUtil {
@@ -31,59 +53,164 @@ public class OTSUtil {
 
     private TunnelClient tunnelClient;
 
+    private ThreadPoolExecutor readExecutor;
+
+    private ThreadPoolExecutor processExecutor;
+
+    private ScheduledExecutorService statusReporter;
+
+    private volatile ExecutorService exportExecutor;
+
+    private SplitExporter exporter;
+
+    private final Map<String, TunnelState> tableStates = new ConcurrentHashMap<>();
+
+    private final Map<String, TunnelWorker> workers = new ConcurrentHashMap<>();
+
+    // tables queued, starting or exporting, until their tunnel worker runs
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+
+    private volatile Predicate<String> startCheck = tableName -> true;
+
+    // lane threads of every table, shared by its channels
+    private final Map<String, ThreadPoolExecutor> laneExecutors = new ConcurrentHashMap<>();
+
+    private ReplayFile recordFile;
+
     @PostConstruct
     private void init() {
         client = new SyncClient(migrationConfig.getSourceEndPoint(), migrationConfig.getAccessKeyId(), migrationConfig.getAccessKeySecret(), migrationConfig.getInstanceName());
         tunnelClient = new TunnelClient(migrationConfig.getSourceEndPoint(), migrationConfig.getAccessKeyId(), migrationConfig.getAccessKeySecret(), migrationConfig.getInstanceName());
+        readExecutor = newTunnelExecutor("read", migrationConfig.getTunnelReadThreads(), migrationConfig.getTunnelQueueCapacity());
+        processExecutor = newTunnelExecutor("process", migrationConfig.getTunnelProcessThreads(), migrationConfig.getTunnelQueueCapacity());
+        if (StringUtils.hasText(migrationConfig.getReplayRecordFile())) {
+            try {
+                recordFile = ReplayFile.append(Paths.get(migrationConfig.getReplayRecordFile()));
+            } catch (IOException e) {
+                log.error("Error open replay record file: " + e.getMessage());
+            }
+        }
     }
 
-    public List<MigrationTable> getAllTableSchema() {
+    /**
+     * Schemas of the given tables, described concurrently by schemaDiscoveryThreads threads. With schemaCacheDir
+     * set, tables come from the schema cache of the instance while their entry is younger than
+     * schemaCacheMaxAgeMinutes, the others are described and added to it. Tables that can't be described are logged and left out.
+     */
+    public List<MigrationTable> getTableSchemas(List<String> tableNames) {
+        if (CollectionUtils.isEmpty(tableNames)) {
+            return new ArrayList<>();
+        }
+        Path cacheFile = StringUtils.hasText(migrationConfig.getSchemaCacheDir())
+                ? Paths.get(migrationConfig.getSchemaCacheDir(), migrationConfig.getInstanceName() + ".schema.properties")
+                : null;
+        long maxAgeMillis = TimeUnit.MINUTES.toMillis(migrationConfig.getSchemaCacheMaxAgeMinutes());
+        Map<String, MigrationTable> cached = new LinkedHashMap<>();
+        if (cacheFile != null) {
+            try {
+                cached = SchemaCache.load(cacheFile, maxAgeMillis);
+            } catch (IOException | RuntimeException e) {
+                log.error("Error load schema cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+        List<String> missing = new ArrayList<>();
+        for (String tableName : tableNames) {
+            if (!cached.containsKey(tableName)) {
+                missing.add(tableName);
+            }
+        }
+        Map<String, MigrationTable> described = describeTables(missing);
+        if (cacheFile != null && !described.isEmpty()) {
+            try {
+                SchemaCache.store(cacheFile, described, maxAgeMillis);
+            } catch (IOException e) {
+                log.error("Error store schema cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+
         List<MigrationTable> tableSchemas = new ArrayList<>();
-        ListTableResponse listTableResponse = client.listTable();
-        for (String tableName : listTableResponse.getTableNames()) {
-            MigrationTable migrationTable = new MigrationTable();
-            tableSchemas.add(migrationTable);
-
-            DescribeTableRequest request = new DescribeTableRequest(tableName);
-            DescribeTableResponse response = client.describeTable(request);
-            TableMeta tableMeta = response.getTableMeta();
-            migrationTable.setTableMeta(tableMeta);
-            log.info("Table name：{}", tableMeta.getTableName());
-            log.info("Table primary key：");
-            for (PrimaryKeySchema primaryKeySchema : tableMeta.getPrimaryKeyList()) {
-                log.info("\t{}", primaryKeySchema);
-            }
-
-            List<IndexMeta> indexMetas = response.getIndexMeta();
-            migrationTable.setIndexMetas(indexMetas);
-            log.info("Table indexes：");
-            for (IndexMeta indexMeta : indexMetas) {
-                log.info("\t{}", indexMeta);
-            }
-
-            TableOptions tableOptions = response.getTableOptions();
-            migrationTable.setTableOptions(tableOptions);
-            log.info("Table TTL: {}", tableOptions.getTimeToLive());
-            log.info("Table MaxVersions: {}", tableOptions.getMaxVersions());
-            //只能查看加密表的加密配置信息。非加密表无此配置项。
-            //System.out.println("表的加密配置：" + response.getSseDetails());
-            ReservedThroughputDetails reservedThroughputDetails = response.getReservedThroughputDetails();
-            migrationTable.setReservedThroughput(reservedThroughputDetails);
-            log.info("Table reserved read throughput：{}", reservedThroughputDetails.getCapacityUnit().getReadCapacityUnit());
-            log.info("Table reserved write throughput：{}", reservedThroughputDetails.getCapacityUnit().getWriteCapacityUnit());
+        for (String tableName : tableNames) {
+            MigrationTable table = cached.containsKey(tableName) ? cached.get(tableName) : described.get(tableName);
+            if (table != null) {
+                tableSchemas.add(table);
+            }
         }
+        log.info("Table schemas: {} from cache, {} described", tableNames.size() - missing.size(), described.size());
         return tableSchemas;
     }
 
+    private Map<String, MigrationTable> describeTables(List<String> tableNames) {
+        Map<String, MigrationTable> tables = new LinkedHashMap<>();
+        if (tableNames.isEmpty()) {
+            return tables;
+        }
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(migrationConfig.getSchemaDiscoveryThreads(), tableNames.size())), r -> {
+                    Thread thread = new Thread(r, "otsmgr-describe-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        try {
+            Map<String, Future<MigrationTable>> futures = new LinkedHashMap<>();
+            for (String tableName : tableNames) {
+                futures.put(tableName, executor.submit(() -> describeTable(tableName)));
+            }
+            for (Map.Entry<String, Future<MigrationTable>> future : futures.entrySet()) {
+                try {
+                    tables.put(future.getKey(), future.getValue().get());
+                } catch (ExecutionException e) {
+                    log.error("Error describe table " + future.getKey() + ": " + e.getCause().getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted describing tables");
+        } finally {
+            executor.shutdownNow();
+        }
+        return tables;
+    }
+
+    private MigrationTable describeTable(String tableName) {
+        MigrationTable migrationTable = new MigrationTable();
+        DescribeTableResponse response = client.describeTable(new DescribeTableRequest(tableName));
+        TableMeta tableMeta = response.getTableMeta();
+        migrationTable.setTableMeta(tableMeta);
+        migrationTable.setIndexMetas(response.getIndexMeta());
+        TableOptions tableOptions = response.getTableOptions();
+        migrationTable.setTableOptions(tableOptions);
+        //只能查看加密表的加密配置信息。非加密表无此配置项。
+        //System.out.println("表的加密配置：" + response.getSseDetails());
+        ReservedThroughputDetails reservedThroughputDetails = response.getReservedThroughputDetails();
+        migrationTable.setReservedThroughput(reservedThroughputDetails);
+        // one line per table, the tables are described concurrently
+        log.info("Table name: {}, primary key: {}, indexes: {}, TTL: {}, MaxVersions: {}, reserved read/write throughput: {}/{}",
+                tableMeta.getTableName(), tableMeta.getPrimaryKeyList(), response.getIndexMeta(),
+                tableOptions.getTimeToLive(), tableOptions.getMaxVersions(),
+                reservedThroughputDetails.getCapacityUnit().getReadCapacityUnit(),
+                reservedThroughputDetails.getCapacityUnit().getWriteCapacityUnit());
+        return migrationTable;
+    }
+
     public String getTunel(String tableName) {
+        return getTunel(tableName, tunnelName(tableName), TunnelType.valueOf(migrationConfig.getMigrationType()), 0);
+    }
+
+    // a Stream tunnel created with streamStartMillis reads the changes from then on
+    private String getTunel(String tableName, String tunnelName, TunnelType tunnelType, long streamStartMillis) {
         String tunnelId = null;
-        String tunnelName = tableName + "_migration2aws_tunnel4" + migrationConfig.getMigrationTarget();
         try {
             DescribeTunnelRequest drequest = new DescribeTunnelRequest(tableName, tunnelName);
             DescribeTunnelResponse dresp = tunnelClient.describeTunnel(drequest);
             tunnelId = dresp.getTunnelInfo().getTunnelId();
         } catch (Exception be) {
-            CreateTunnelRequest crequest = new CreateTunnelRequest(tableName, tunnelName, TunnelType.valueOf(migrationConfig.getMigrationType()));
+            CreateTunnelRequest crequest = new CreateTunnelRequest(tableName, tunnelName, tunnelType);
+            if (streamStartMillis > 0) {
+                StreamTunnelConfig streamConfig = new StreamTunnelConfig();
+                streamConfig.setStartOffset(streamStartMillis);
+                crequest.setStreamTunnelConfig(streamConfig);
+            }
             CreateTunnelResponse cresp = tunnelClient.createTunnel(crequest);
             //tunnelId用于后续TunnelWorker的初始化，该值也可以通过ListTunnel或者DescribeTunnel获取。
             tunnelId = cresp.getTunnelId();
@@ -92,32 +219,380 @@ public class OTSUtil {
         return tunnelId;
     }
 
+    // a tunnel created now would miss the changes made since the export
+    private String existingTunnel(String tableName, String tunnelName) {
+        try {
+            return tunnelClient.describeTunnel(new DescribeTunnelRequest(tableName, tunnelName)).getTunnelInfo().getTunnelId();
+        } catch (Exception e) {
+            throw new IllegalStateException("Tunnel " + tunnelName + " of the export of table " + tableName
+                    + " is missing, restart the table to migrate it again", e);
+        }
+    }
+
     public void deleteTunel(String tableName) {
-        String tunnelName = tableName + "_migration2aws_tunnel4" + migrationConfig.getMigrationTarget();
+        deleteTunel(tableName, tunnelName(tableName), false);
+        deleteTunel(tableName, streamTunnelName(tableName), true);
+    }
+
+    // the stream tunnel only exists after a split export, it is missing quietly
+    private void deleteTunel(String tableName, String tunnelName, boolean quiet) {
         try {
             DeleteTunnelRequest drequest = new DeleteTunnelRequest(tableName, tunnelName);
             DeleteTunnelResponse dresp = tunnelClient.deleteTunnel(drequest);
             log.info("Tunnel has been deleted: " + dresp.toString());
         } catch (Exception be) {
-            log.warn("Tunnel deletion failed due to not found: " + tunnelName);
+            if (quiet) {
+                log.debug("Tunnel deletion failed due to not found: " + tunnelName);
+            } else {
+                log.warn("Tunnel deletion failed due to not found: " + tunnelName);
+            }
         }
     }
 
+    private String tunnelName(String tableName) {
+        return tableName + "_migration2aws_tunnel4" + migrationConfig.getMigrationTarget();
+    }
+
+    // tunnel following a split export, its type differs from the migrationType tunnel so it gets its own name
+    private String streamTunnelName(String tableName) {
+        return tunnelName(tableName) + "_stream";
+    }
+
     public Runnable getRunner(IChannelProcessor processor, String migrationTable) {
+        return getRunner(processor, migrationTable, null, null);
+    }
+
+    /**
+     * Runner of a table whose base data is split exported to baseProcessor instead of the target processor, whatever
+     * splitExport says. baseProcessor is shut down after the export, the stream tunnel of BaseAndStream only starts
+     * once afterExport returns true.
+     */
+    public Runnable getRunner(IChannelProcessor processor, String migrationTable,
+                              IChannelProcessor baseProcessor, Callable<Boolean> afterExport) {
+        return getRunner(processor, migrationTable, baseProcessor, afterExport, false);
+    }
+
+    /**
+     * Runner of a table whose split export an earlier run already loaded into the target. Only the stream tunnel
+     * created before that export is started, from its checkpoints, the table is done once exported otherwise.
+     */
+    public Runnable getStreamRunner(IChannelProcessor processor, String migrationTable) {
+        return getRunner(processor, migrationTable, null, null, true);
+    }
+
+    private Runnable getRunner(IChannelProcessor processor, String migrationTable,
+                               IChannelProcessor baseProcessor, Callable<Boolean> afterExport, boolean exported) {
+        Run run = new Run(migrationTable);
+        runs.put(migrationTable, run);
+        tableStates.put(migrationTable, TunnelState.QUEUED);
+        startStatusReport();
         Runnable runnable = () -> {
-            //TunnelWorkerConfig默认会启动读数据和处理数据的线程池。
-            String tunnelId = getTunel(migrationTable);
-            //如果使用的是单台机器，当需要启动多个TunnelWorker时，建议共用一个TunnelWorkerConfig。TunnelWorkerConfig中包括更多的高级参数。
-            TunnelWorkerConfig workerConfig = new TunnelWorkerConfig(processor);
-            //配置TunnelWorker，并启动自动化的数据处理任务。
-            TunnelWorker worker = new TunnelWorker(tunnelId, tunnelClient, workerConfig);
+            if (!run.start()) {
+                run.finish();
+                return;
+            }
+            TunnelWorker worker = null;
             try {
+                if (!checkStart(migrationTable)) {
+                    return;
+                }
+                IChannelProcessor channelProcessor = withLanes(processor, migrationTable);
+                if (recordFile != null) {
+                    channelProcessor = new RecordingChannelProcessor(channelProcessor, migrationTable, recordFile);
+                }
+                TunnelType tunnelType = TunnelType.valueOf(migrationConfig.getMigrationType());
+                String tunnelId;
+                if (exported) {
+                    if (tunnelType != TunnelType.BaseAndStream) {
+                        channelProcessor.shutdown();
+                        run.state(TunnelState.EXPORTED);
+                        return;
+                    }
+                    tunnelId = existingTunnel(migrationTable, streamTunnelName(migrationTable));
+                } else if ((baseProcessor != null || migrationConfig.isSplitExport()) && tunnelType != TunnelType.Stream) {
+                    // the stream tunnel is created first, the changes made during the export are read after it
+                    tunnelId = tunnelType == TunnelType.BaseAndStream
+                            ? getTunel(migrationTable, streamTunnelName(migrationTable), TunnelType.Stream, System.currentTimeMillis())
+                            : null;
+                    if (!run.state(TunnelState.EXPORTING)) {
+                        return;
+                    }
+                    if (baseProcessor != null) {
+                        exporter().export(migrationTable, baseProcessor);
+                        baseProcessor.shutdown();
+                    } else {
+                        exporter().export(migrationTable, channelProcessor);
+                    }
+                    if (afterExport != null && !afterExport.call()) {
+                        if (run.state(TunnelState.FAILED)) {
+                            log.error("Stopped migrating table " + migrationTable + " after the export, no tunnel is started");
+                        }
+                        return;
+                    }
+                    if (tunnelId == null) {
+                        channelProcessor.shutdown();
+                        run.state(TunnelState.EXPORTED);
+                        return;
+                    }
+                } else {
+                    //TunnelWorkerConfig默认会启动读数据和处理数据的线程池。
+                    tunnelId = getTunel(migrationTable);
+                }
+                if (!checkStart(migrationTable) || !run.state(TunnelState.STARTING)) {
+                    return;
+                }
+                //配置TunnelWorker，并启动自动化的数据处理任务。
+                worker = new TunnelWorker(tunnelId, tunnelClient, buildWorkerConfig(channelProcessor));
                 worker.connectAndWorking();
+                if (!run.running(worker)) {
+                    worker.shutdown();
+                }
+            } catch (InterruptedException e) {
+                if (run.state(TunnelState.FAILED)) {
+                    Thread.currentThread().interrupt();
+                    log.error("Interrupted exporting table " + migrationTable);
+                } else {
+                    log.info("Cancelled exporting table " + migrationTable);
+                }
             } catch (Exception e) {
-                log.error("Start OTS tunnel failed.", e);
-                worker.shutdown();
+                if (run.state(TunnelState.FAILED)) {
+                    log.error("Start OTS tunnel failed.", e);
+                } else {
+                    log.info("Cancelled starting table " + migrationTable);
+                }
+                if (worker != null) {
+                    worker.shutdown();
+                }
+            } finally {
+                run.finish();
             }
         };
         return runnable;
     }
+
+    /**
+     * Checked before the export and the tunnel of every table start, a table failing it is stopped.
+     * Cluster nodes check that they still hold the lease of the table.
+     */
+    public void setStartCheck(Predicate<String> startCheck) {
+        this.startCheck = startCheck;
+    }
+
+    private boolean checkStart(String tableName) {
+        if (startCheck.test(tableName)) {
+            return true;
+        }
+        log.warn("Table {} may not start here anymore, stopped it", tableName);
+        stop(tableName);
+        return false;
+    }
+
+    private synchronized SplitExporter exporter() {
+        if (exporter == null) {
+            AtomicInteger count = new AtomicInteger();
+            exportExecutor = Executors.newFixedThreadPool(Math.max(1, migrationConfig.getSplitExportThreads()), r -> {
+                Thread thread = new Thread(r, "otsmgr-export-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            exporter = new SplitExporter(client, exportExecutor, migrationConfig.getSplitExportSizeIn100MB(), migrationConfig.getSplitExportPageSize());
+        }
+        return exporter;
+    }
+
+    /**
+     * Spreads the batches over lanes when processLanes is above 1, as the tunnel workers and replays process them.
+     * The lanes of all channels of the table run on at most processLaneThreads threads besides the channel threads.
+     */
+    public IChannelProcessor withLanes(IChannelProcessor processor, String tableName) {
+        if (migrationConfig.getProcessLanes() <= 1) {
+            return processor;
+        }
+        ThreadPoolExecutor executor = laneExecutors.computeIfAbsent(tableName, t -> {
+            AtomicInteger count = new AtomicInteger();
+            int threads = Math.max(1, migrationConfig.getProcessLaneThreads());
+            ThreadPoolExecutor lanes = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, "otsmgr-lane-" + t + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            lanes.allowCoreThreadTimeOut(true);
+            return lanes;
+        });
+        return new LaneChannelProcessor(processor, migrationConfig.getProcessLanes(), executor);
+    }
+
+    /**
+     * Stops the tunnel worker of the table, the tunnel and its checkpoints stay for the next worker of the table.
+     * A table still queued, starting or exporting is cancelled, its export is interrupted. An import already
+     * requested from the target completes, the table just doesn't start its tunnel after it.
+     *
+     * @return false when the table could not be stopped yet
+     */
+    public boolean stop(String tableName) {
+        Run run = runs.get(tableName);
+        if (run != null && run.cancel()) {
+            log.info("Cancelled start of table " + tableName);
+            return true;
+        }
+        TunnelState state = tableStates.get(tableName);
+        if (state == TunnelState.QUEUED || state == TunnelState.STARTING || state == TunnelState.EXPORTING) {
+            return false;
+        }
+        TunnelWorker worker = workers.remove(tableName);
+        if (worker != null) {
+            worker.shutdown();
+        }
+        tableStates.remove(tableName);
+        log.info("Stopped tunnel worker of table " + tableName);
+        return true;
+    }
+
+    /**
+     * State of the tunnel of every table handed to {@link #getRunner}.
+     */
+    public Map<String, TunnelState> getTableStates() {
+        return new TreeMap<>(tableStates);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        workers.values().forEach(TunnelWorker::shutdown);
+        readExecutor.shutdown();
+        processExecutor.shutdown();
+        laneExecutors.values().forEach(ThreadPoolExecutor::shutdown);
+        if (exportExecutor != null) {
+            exportExecutor.shutdownNow();
+        }
+        if (statusReporter != null) {
+            statusReporter.shutdown();
+        }
+        if (recordFile != null) {
+            try {
+                recordFile.close();
+            } catch (IOException e) {
+                log.error("Error close replay record file: " + e.getMessage());
+            }
+        }
+    }
+
+    //如果使用的是单台机器，当需要启动多个TunnelWorker时，建议共用一个TunnelWorkerConfig。
+    //The config also carries the processor of the table, so each table gets its own config around the shared thread pools.
+    private TunnelWorkerConfig buildWorkerConfig(IChannelProcessor processor) {
+        TunnelWorkerConfig workerConfig = new TunnelWorkerConfig(readExecutor, processExecutor, processor);
+        workerConfig.setHeartbeatIntervalInSec(migrationConfig.getTunnelHeartbeatIntervalSeconds());
+        workerConfig.setHeartbeatTimeoutInSec(migrationConfig.getTunnelHeartbeatTimeoutSeconds());
+        if (migrationConfig.getTunnelMaxChannelParallel() > 0) {
+            workerConfig.setMaxChannelParallel(migrationConfig.getTunnelMaxChannelParallel());
+        }
+        return workerConfig;
+    }
+
+    private synchronized void startStatusReport() {
+        if (statusReporter != null || migrationConfig.getTunnelStatusIntervalSeconds() <= 0) {
+            return;
+        }
+        statusReporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "otsmgr-tunnel-status");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = migrationConfig.getTunnelStatusIntervalSeconds();
+        statusReporter.scheduleAtFixedRate(this::reportStatus, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private void reportStatus() {
+        Map<TunnelState, List<String>> tables = new EnumMap<>(TunnelState.class);
+        getTableStates().forEach((table, state) -> tables.computeIfAbsent(state, k -> new ArrayList<>()).add(table));
+        log.info("Tunnel tables {}, read threads {}/{} queued {}, process threads {}/{} queued {}",
+                tables, readExecutor.getActiveCount(), readExecutor.getMaximumPoolSize(), readExecutor.getQueue().size(),
+                processExecutor.getActiveCount(), processExecutor.getMaximumPoolSize(), processExecutor.getQueue().size());
+    }
+
+    private static ThreadPoolExecutor newTunnelExecutor(String name, int threads, int queueCapacity) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, "otsmgr-tunnel-" + name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // One start of a table. The state only changes until the run is cancelled, which interrupts its thread.
+    private class Run {
+        private final String tableName;
+        private Thread thread;
+        private boolean cancelled;
+
+        Run(String tableName) {
+            this.tableName = tableName;
+        }
+
+        synchronized boolean start() {
+            thread = Thread.currentThread();
+            return state(TunnelState.STARTING);
+        }
+
+        /**
+         * @return false once the run was cancelled, the state is left alone then
+         */
+        synchronized boolean state(TunnelState state) {
+            if (!cancelled) {
+                tableStates.put(tableName, state);
+            }
+            return !cancelled;
+        }
+
+        synchronized boolean running(TunnelWorker worker) {
+            if (cancelled) {
+                return false;
+            }
+            workers.put(tableName, worker);
+            tableStates.put(tableName, TunnelState.RUNNING);
+            return true;
+        }
+
+        synchronized boolean cancel() {
+            TunnelState state = tableStates.get(tableName);
+            if (cancelled || runs.get(tableName) != this || (state != TunnelState.QUEUED
+                    && state != TunnelState.STARTING && state != TunnelState.EXPORTING)) {
+                return false;
+            }
+            cancelled = true;
+            tableStates.remove(tableName);
+            if (thread != null) {
+                thread.interrupt();
+            }
+            return true;
+        }
+
+        void finish() {
+            boolean interrupted;
+            synchronized (this) {
+                thread = null;
+                interrupted = cancelled;
+            }
+            // the interrupt of a cancel must not reach the next task of the pool thread
+            if (interrupted) {
+                Thread.interrupted();
+            }
+            runs.remove(tableName, this);
+        }
+    }
+
+    public enum TunnelState {
+        // waiting for a thread of the task executor
+        QUEUED,
+        STARTING,
+        // base data copied by the split exporter
+        EXPORTING,
+        // split export of a BaseData table done, no tunnel follows
+        EXPORTED,
+        RUNNING,
+        FAILED
+    }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import io.micrometer.core.instrument.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Orders the writes of a DynamoDB table whose partition keys are skewed, the first TableStore primary key column
+ * being the HASH key. The partition keys of the recent writes are counted in a {@link HotKeySketch}. The writes of a
+ * batch are grouped by partition key and interleaved round-robin, so every BatchWriteItem spreads over many
+ * partitions, while the writes of one key keep their order. Keys holding hotPercent of the recent writes are hot:
+ * they go after the others, and {@link DynamoDBBatchWriter} delays the requests holding them so every hot key is sent
+ * at writesPerSecond, below the throughput of a DynamoDB partition, without blocking the tunnel thread.
+ * The top keys are logged every report interval. Thread safe, the channels of a table share one scheduler.
+ */
+public class PartitionScheduler {
+    private static final Logger log = LoggerFactory.getLogger(PartitionScheduler.class);
+
+    private static final int SKETCH_WIDTH = 2048;
+    // the counts are halved every this many writes
+    private static final long SKETCH_WINDOW = 1_000_000;
+    // no key is hot below this count, the first writes of a table would all be
+    private static final long MIN_HOT_COUNT = 1000;
+    private static final int REPORT_KEY_LENGTH = 64;
+
+    private final String tableName;
+    private final HotKeySketch sketch;
+    private final double hotShare;
+    private final long intervalNanos;
+    private final long reportNanos;
+    private final Counter paced;
+    // the earliest time of the next write of every hot key, the keys not in it are cold
+    private final Map<String, AtomicLong> nextWrite = new ConcurrentHashMap<>();
+    private final AtomicLong reportedAt = new AtomicLong(System.nanoTime());
+
+    public PartitionScheduler(String tableName, int topK, int hotPercent, int writesPerSecond, int reportSeconds, Counter paced) {
+        this.tableName = tableName;
+        this.sketch = new HotKeySketch(SKETCH_WIDTH, topK, SKETCH_WINDOW);
+        this.hotShare = hotPercent / 100.0;
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, writesPerSecond);
+        this.reportNanos = TimeUnit.SECONDS.toNanos(Math.max(1, reportSeconds));
+        this.paced = paced;
+    }
+
+    /**
+     * Counts the partition keys of the writes and passes the writes to write, the cold keys interleaved first,
+     * then the hot keys. Doesn't wait, the hot keys are paced when they are sent, see {@link #delayNanos}.
+     */
+    public <T> void run(List<T> writes, Function<T, String> partitionKey, Consumer<T> write) {
+        Map<String, ArrayDeque<T>> groups = new LinkedHashMap<>();
+        for (T w : writes) {
+            groups.computeIfAbsent(partitionKey.apply(w), k -> new ArrayDeque<>()).add(w);
+        }
+        List<ArrayDeque<T>> cold = new ArrayList<>(groups.size());
+        Map<String, ArrayDeque<T>> hot = new LinkedHashMap<>();
+        for (Map.Entry<String, ArrayDeque<T>> group : groups.entrySet()) {
+            long estimate = sketch.add(group.getKey(), group.getValue().size());
+            if (estimate >= MIN_HOT_COUNT && estimate >= hotShare * sketch.total()) {
+                hot.put(group.getKey(), group.getValue());
+                nextWrite.computeIfAbsent(group.getKey(), k -> new AtomicLong());
+            } else {
+                cold.add(group.getValue());
+                nextWrite.remove(group.getKey());
+            }
+        }
+
+        while (!cold.isEmpty()) {
+            cold.removeIf(group -> {
+                write.accept(group.poll());
+                return group.isEmpty();
+            });
+        }
+        while (!hot.isEmpty()) {
+            hot.values().removeIf(group -> {
+                write.accept(group.poll());
+                return group.isEmpty();
+            });
+        }
+        report();
+    }
+
+    /**
+     * @return the partition key of the record as text, the value of its first primary key column
+     */
+    public static String partitionKey(StreamRecord r) {
+        PrimaryKeyColumn[] pks = r.getPrimaryKey().getPrimaryKeyColumns();
+        if (pks.length == 0) {
+            return "";
+        }
+        PrimaryKeyValue value = pks[0].getValue();
+        switch (value.getType()) {
+            case INTEGER:
+                return Long.toString(value.asLong());
+            case BINARY:
+                return Base64.getEncoder().encodeToString(value.asBinary());
+            default:
+                return value.asString();
+        }
+    }
+
+    /**
+     * Reserves the next write slot of a hot key, a key that was idle gets no credit for it.
+     *
+     * @return how long to delay the write of the key, 0 for a cold key
+     */
+    public long delayNanos(String key) {
+        AtomicLong next = nextWrite.get(key);
+        if (next == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long slot = Math.max(now, next.getAndAccumulate(now, (n, t) -> Math.max(n, t) + intervalNanos));
+        if (slot <= now) {
+            return 0;
+        }
+        paced.increment();
+        return slot - now;
+    }
+
+    private void report() {
+        long last = reportedAt.get();
+        long now = System.nanoTime();
+        if (now - last < reportNanos || !reportedAt.compareAndSet(last, now)) {
+            return;
+        }
+        long total = sketch.total();
+        List<Map.Entry<String, Long>> top = sketch.top();
+        Set<String> keys = new HashSet<>();
+        List<String> lines = new ArrayList<>(top.size());
+        for (Map.Entry<String, Long> entry : top) {
+            keys.add(entry.getKey());
+            String key = entry.getKey().length() > REPORT_KEY_LENGTH
+                    ? entry.getKey().substring(0, REPORT_KEY_LENGTH) + "..." : entry.getKey();
+            lines.add(String.format("%s ~%d (%.1f%%)", key, entry.getValue(), total > 0 ? entry.getValue() * 100.0 / total : 0));
+        }
+        // keys that left the top are not hot anymore
+        nextWrite.keySet().retainAll(keys);
+        log.info("Top partition keys of DynamoDB table {} over {} recent writes: {}", tableName, total, lines);
+    }
+}
@@ -0,0 +1,113 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Output stream backed by fixed size chunks taken from a shared pool, it never copies the written bytes to grow.
+ * The chunks are handed to the SDK as they are through {@link #toByteBuffers()} or {@link #toInputStream()}
+ * and go back to the pool on {@link #release()}, which must only be called once the upload has completed.
+ */
+public class PooledBufferOutputStream extends OutputStream {
+
+    private static final int CHUNK_SIZE = 128 * 1024;
+    // keep at most 64 MB of idle chunks
+    private static final int MAX_POOLED_CHUNKS = 512;
+
+    private static final Queue<byte[]> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final List<byte[]> chunks = new ArrayList<>();
+    private byte[] current;
+    private int position;
+    private long size;
+
+    @Override
+    public void write(int b) {
+        if (current == null || position == current.length) {
+            nextChunk();
+        }
+        current[position++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (current == null || position == current.length) {
+                nextChunk();
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(b, off, current, position, n);
+            position += n;
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Wraps the written chunks without copying them.
+     */
+    public ByteBuffer[] toByteBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[chunks.size()];
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            buffers[i] = ByteBuffer.wrap(chunk, 0, i == chunks.size() - 1 ? position : chunk.length).asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    public InputStream toInputStream() {
+        List<InputStream> streams = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            byte[] chunk = chunks.get(i);
+            streams.add(new ByteArrayInputStream(chunk, 0, i == chunks.size() - 1 ? position : chunk.length));
+        }
+        return new SequenceInputStream(Collections.enumeration(streams));
+    }
+
+    /**
+     * Returns the chunks to the pool, the stream is empty afterwards.
+     */
+    public void release() {
+        for (byte[] chunk : chunks) {
+            if (pooled.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+                pool.offer(chunk);
+            } else {
+                pooled.decrementAndGet();
+            }
+        }
+        chunks.clear();
+        current = null;
+        position = 0;
+        size = 0;
+    }
+
+    private void nextChunk() {
+        byte[] chunk = pool.poll();
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        } else {
+            pooled.decrementAndGet();
+        }
+        chunks.add(chunk);
+        current = chunk;
+        position = 0;
+    }
+}
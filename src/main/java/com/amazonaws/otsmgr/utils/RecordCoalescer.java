@@ -0,0 +1,115 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds the records of a batch that share a primary key into the one record giving the same final row,
+ * so the sinks write every key once per batch:
+ * <ul>
+ *   <li>a PUT or DELETE replaces whatever came before it,</li>
+ *   <li>an UPDATE after a PUT stays a PUT with the columns set or removed,</li>
+ *   <li>an UPDATE after an UPDATE merges the column changes, the later change of a column wins,</li>
+ *   <li>an UPDATE after a DELETE becomes a PUT of the columns it sets, as TableStore creates the row again.</li>
+ * </ul>
+ * A folded record takes the position of the key's first record and the sequence info of its last one.
+ */
+public final class RecordCoalescer {
+
+    private RecordCoalescer() {
+    }
+
+    /**
+     * @return the records with one record per primary key, the same list when no key repeats
+     */
+    public static List<StreamRecord> coalesce(List<StreamRecord> records) {
+        Map<PrimaryKey, Folded> keys = new LinkedHashMap<>(records.size() * 2);
+        boolean repeated = false;
+        for (StreamRecord r : records) {
+            Folded folded = keys.get(r.getPrimaryKey());
+            if (folded == null) {
+                keys.put(r.getPrimaryKey(), new Folded(r));
+            } else {
+                folded.apply(r);
+                repeated = true;
+            }
+        }
+        if (!repeated) {
+            return records;
+        }
+        List<StreamRecord> coalesced = new ArrayList<>(keys.size());
+        for (Folded folded : keys.values()) {
+            coalesced.add(folded.toRecord());
+        }
+        return coalesced;
+    }
+
+    private static class Folded {
+        private final StreamRecord first;
+        private StreamRecord last;
+        private StreamRecord.RecordType type;
+        // columns by name, only built once a second record of the key shows up
+        private Map<String, RecordColumn> columns;
+
+        Folded(StreamRecord first) {
+            this.first = first;
+            this.last = first;
+        }
+
+        void apply(StreamRecord r) {
+            if (columns == null) {
+                type = first.getRecordType();
+                columns = new LinkedHashMap<>();
+                merge(first);
+            }
+            switch (r.getRecordType()) {
+                case PUT:
+                    type = StreamRecord.RecordType.PUT;
+                    columns.clear();
+                    merge(r);
+                    break;
+                case DELETE:
+                    type = StreamRecord.RecordType.DELETE;
+                    columns.clear();
+                    break;
+                default:
+                    if (type == StreamRecord.RecordType.DELETE) {
+                        type = StreamRecord.RecordType.PUT;
+                    }
+                    merge(r);
+            }
+            last = r;
+        }
+
+        // a PUT row only keeps the columns it has, deleted columns are left out
+        private void merge(StreamRecord r) {
+            for (RecordColumn c : r.getColumns()) {
+                if (type == StreamRecord.RecordType.PUT && c.getColumnType() != RecordColumn.ColumnType.PUT) {
+                    columns.remove(c.getColumn().getName());
+                } else {
+                    columns.put(c.getColumn().getName(), c);
+                }
+            }
+        }
+
+        StreamRecord toRecord() {
+            if (columns == null) {
+                return first;
+            }
+            StreamRecord r = new StreamRecord();
+            r.setRecordType(type);
+            r.setPrimaryKey(last.getPrimaryKey());
+            r.setColumns(new ArrayList<>(columns.values()));
+            r.setSequenceInfo(last.getSequenceInfo());
+            return r;
+        }
+    }
+}
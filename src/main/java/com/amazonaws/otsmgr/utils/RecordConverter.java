@@ -0,0 +1,165 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeySchema;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.RecordSequenceInfo;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.amazonaws.otsmgr.beans.MigrationTable;
+import org.bson.Document;
+import software.amazon.awssdk.services.dynamodb.model.AttributeAction;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValueUpdate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Conversion of TableStore stream records to the shapes the targets write: DynamoDB keys, items and updates,
+ * BSON documents and CSV rows. Values are converted with {@link ValueConverter}.
+ */
+public final class RecordConverter {
+
+    // 10 digits for the row index and 16 for the timestamp, below epoch 10000 a version fits DynamoDB numbers and Decimal128
+    private static final BigInteger TIMESTAMP_SHIFT = BigInteger.TEN.pow(10);
+    private static final BigInteger EPOCH_SHIFT = BigInteger.TEN.pow(26);
+
+    private RecordConverter() {
+    }
+
+    // Only the first two primary key columns are part of the DynamoDB key, the others are plain attributes.
+    public static Map<String, AttributeValue> toDynamoDBKey(StreamRecord r) {
+        PrimaryKeyColumn[] pks = r.getPrimaryKey().getPrimaryKeyColumns();
+        Map<String, AttributeValue> key = new HashMap<>();
+        for (int i = 0; i < pks.length && i < 2; i++) {
+            key.put(pks[i].getName(), ValueConverter.toAttributeValue(pks[i].getValue()));
+        }
+        return key;
+    }
+
+    /**
+     * @return the attribute names of the DynamoDB key of the table, the names {@link #toDynamoDBKey} fills
+     */
+    public static Set<String> toDynamoDBKeyNames(MigrationTable migrationTable) {
+        List<PrimaryKeySchema> pks = migrationTable.getTableMeta().getPrimaryKeyList();
+        Set<String> names = new HashSet<>();
+        for (int i = 0; i < pks.size() && i < 2; i++) {
+            names.add(pks.get(i).getName());
+        }
+        return names;
+    }
+
+    public static Map<String, AttributeValue> toDynamoDBItem(StreamRecord r) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        for (PrimaryKeyColumn k : r.getPrimaryKey().getPrimaryKeyColumns()) {
+            item.put(k.getName(), ValueConverter.toAttributeValue(k.getValue()));
+        }
+        for (RecordColumn c : r.getColumns()) {
+            if (c.getColumnType() == RecordColumn.ColumnType.PUT) {
+                item.put(c.getColumn().getName(), ValueConverter.toAttributeValue(c.getColumn().getValue()));
+            }
+        }
+        return item;
+    }
+
+    // Deleted columns, whether one version or all of them, remove the attribute since DynamoDB keeps no versions.
+    public static Map<String, AttributeValueUpdate> toDynamoDBUpdates(StreamRecord r) {
+        Map<String, AttributeValueUpdate> updates = new HashMap<>();
+        PrimaryKeyColumn[] pks = r.getPrimaryKey().getPrimaryKeyColumns();
+        for (int i = 2; i < pks.length; i++) {
+            updates.put(pks[i].getName(), AttributeValueUpdate.builder()
+                    .value(ValueConverter.toAttributeValue(pks[i].getValue()))
+                    .action(AttributeAction.PUT)
+                    .build());
+        }
+        for (RecordColumn c : r.getColumns()) {
+            if (c.getColumnType() == RecordColumn.ColumnType.PUT) {
+                updates.put(c.getColumn().getName(), AttributeValueUpdate.builder()
+                        .value(ValueConverter.toAttributeValue(c.getColumn().getValue()))
+                        .action(AttributeAction.PUT)
+                        .build());
+            } else {
+                updates.put(c.getColumn().getName(), AttributeValueUpdate.builder()
+                        .action(AttributeAction.DELETE)
+                        .build());
+            }
+        }
+        return updates;
+    }
+
+    /**
+     * Source version of the change: epoch, microsecond timestamp and row index of its sequence info side by side
+     * as one integer, so versions order like the stream. Records without sequence info, as in the base data,
+     * take their newest column timestamp at epoch 0.
+     *
+     * @return the version, or null when the record has neither
+     */
+    public static BigDecimal toVersion(StreamRecord r) {
+        RecordSequenceInfo seq = r.getSequenceInfo();
+        if (seq != null) {
+            return new BigDecimal(BigInteger.valueOf(seq.getEpoch()).multiply(EPOCH_SHIFT)
+                    .add(BigInteger.valueOf(seq.getTimestamp()).multiply(TIMESTAMP_SHIFT))
+                    .add(BigInteger.valueOf(seq.getRowIndex())));
+        }
+        long timestamp = -1;
+        for (RecordColumn c : r.getColumns()) {
+            if (c.getColumn().hasSetTimestamp()) {
+                timestamp = Math.max(timestamp, c.getColumn().getTimestamp());
+            }
+        }
+        if (timestamp < 0) {
+            return null;
+        }
+        // column timestamps are in milliseconds
+        return new BigDecimal(BigInteger.valueOf(timestamp * 1000).multiply(TIMESTAMP_SHIFT));
+    }
+
+    // Primary key columns and written columns with their native BSON types.
+    public static Document toBsonFields(StreamRecord r) {
+        Document fields = new Document();
+        for (PrimaryKeyColumn k : r.getPrimaryKey().getPrimaryKeyColumns()) {
+            fields.put(k.getName(), ValueConverter.toBson(k.getValue()));
+        }
+        for (RecordColumn c : r.getColumns()) {
+            if (c.getColumnType() == RecordColumn.ColumnType.PUT) {
+                fields.put(c.getColumn().getName(), ValueConverter.toBson(c.getColumn().getValue()));
+            }
+        }
+        return fields;
+    }
+
+    // Deleted columns are removed from the document with $unset.
+    public static Document toBsonUnset(StreamRecord r) {
+        Document unset = new Document();
+        for (RecordColumn c : r.getColumns()) {
+            if (c.getColumnType() != RecordColumn.ColumnType.PUT) {
+                unset.put(c.getColumn().getName(), "");
+            }
+        }
+        return unset;
+    }
+
+    /**
+     * Encodes the primary key fields followed by the projected columns as one CSV record.
+     *
+     * @param row reusable row of the projection
+     */
+    public static void writeCsv(StreamRecord r, ColumnProjection projection, String[] row, CsvRecordEncoder encoder) throws IOException {
+        for (PrimaryKeyColumn col : r.getPrimaryKey().getPrimaryKeyColumns()) {
+            encoder.writeField(col.getValue().toString());
+        }
+        projection.project(r, row);
+        for (String value : row) {
+            encoder.writeField(value);
+        }
+        encoder.endRecord();
+    }
+}
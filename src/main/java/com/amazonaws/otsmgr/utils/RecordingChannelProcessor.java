@@ -0,0 +1,44 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
+import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Appends every batch the wrapped processor has processed to a {@link ReplayFile}, so a live tunnel can be
+ * replayed offline later. Batches that fail are delivered again by the tunnel and recorded once they succeed.
+ */
+public class RecordingChannelProcessor implements IChannelProcessor {
+    private static final Logger log = LoggerFactory.getLogger(RecordingChannelProcessor.class);
+
+    private final IChannelProcessor processor;
+    private final String tableName;
+    private final ReplayFile file;
+
+    public RecordingChannelProcessor(IChannelProcessor processor, String tableName, ReplayFile file) {
+        this.processor = processor;
+        this.tableName = tableName;
+        this.file = file;
+    }
+
+    @Override
+    public void process(ProcessRecordsInput input) {
+        processor.process(input);
+        try {
+            file.write(tableName, input);
+        } catch (IOException e) {
+            // recording must not hold back the migration
+            log.error("Error record batch " + input.getTraceId() + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        processor.shutdown();
+    }
+}
@@ -0,0 +1,200 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.RecordSequenceInfo;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.Binary;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * File of tunnel batches for offline replays, one batch per line as extended JSON so every value keeps its type.
+ * A line holds the table, the trace id and the records with their primary key, columns and sequence info.
+ * Appends are thread safe and flushed per batch.
+ */
+public class ReplayFile implements Closeable {
+
+    // placeholder value of deleted columns, the converters ignore it
+    public static final ColumnValue NO_VALUE = ColumnValue.fromString("");
+
+    private static final JsonWriterSettings JSON = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+
+    private final BufferedWriter writer;
+
+    private ReplayFile(BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    public static ReplayFile append(Path path) throws IOException {
+        return new ReplayFile(Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+
+    public synchronized void write(String tableName, ProcessRecordsInput input) throws IOException {
+        writer.write(encode(tableName, input));
+        writer.newLine();
+        writer.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * Hands the batches of the file to the consumer one by one, in file order.
+     */
+    public static void read(Path path, Consumer<Batch> consumer) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    consumer.accept(decode(line));
+                }
+            }
+        }
+    }
+
+    public static String encode(String tableName, ProcessRecordsInput input) {
+        List<Document> records = new ArrayList<>(input.getRecords().size());
+        for (StreamRecord r : input.getRecords()) {
+            records.add(toDocument(r));
+        }
+        return new Document("table", tableName)
+                .append("traceId", input.getTraceId())
+                .append("records", records)
+                .toJson(JSON);
+    }
+
+    public static Batch decode(String line) {
+        Document batch = Document.parse(line);
+        List<StreamRecord> records = new ArrayList<>();
+        for (Document record : batch.getList("records", Document.class)) {
+            records.add(fromDocument(record));
+        }
+        String traceId = batch.getString("traceId");
+        return new Batch(batch.getString("table"), new ProcessRecordsInput(records, null, traceId));
+    }
+
+    /**
+     * Document of one record with its type, primary key, columns and sequence info, values keep their BSON types.
+     */
+    public static Document toDocument(StreamRecord r) {
+        List<Document> pk = new ArrayList<>();
+        for (PrimaryKeyColumn k : r.getPrimaryKey().getPrimaryKeyColumns()) {
+            pk.add(new Document("name", k.getName()).append("value", ValueConverter.toBson(k.getValue())));
+        }
+        List<Document> columns = new ArrayList<>(r.getColumns().size());
+        for (RecordColumn c : r.getColumns()) {
+            Document column = new Document("name", c.getColumn().getName()).append("op", c.getColumnType().name());
+            // deleted columns carry no value
+            if (c.getColumnType() == RecordColumn.ColumnType.PUT) {
+                column.append("value", ValueConverter.toBson(c.getColumn().getValue()));
+            }
+            if (c.getColumn().hasSetTimestamp()) {
+                column.append("ts", c.getColumn().getTimestamp());
+            }
+            columns.add(column);
+        }
+        Document record = new Document("type", r.getRecordType().name()).append("pk", pk).append("columns", columns);
+        RecordSequenceInfo seq = r.getSequenceInfo();
+        if (seq != null) {
+            record.append("seq", new Document("epoch", seq.getEpoch())
+                    .append("timestamp", seq.getTimestamp())
+                    .append("rowIndex", seq.getRowIndex()));
+        }
+        return record;
+    }
+
+    public static StreamRecord fromDocument(Document record) {
+        List<PrimaryKeyColumn> pk = new ArrayList<>();
+        for (Document k : record.getList("pk", Document.class)) {
+            pk.add(new PrimaryKeyColumn(k.getString("name"), toPrimaryKeyValue(k.get("value"))));
+        }
+        List<RecordColumn> columns = new ArrayList<>();
+        for (Document c : record.getList("columns", Document.class)) {
+            ColumnValue value = c.containsKey("value") ? toColumnValue(c.get("value")) : NO_VALUE;
+            Column column = c.containsKey("ts")
+                    ? new Column(c.getString("name"), value, c.getLong("ts"))
+                    : new Column(c.getString("name"), value);
+            columns.add(new RecordColumn(column, RecordColumn.ColumnType.valueOf(c.getString("op"))));
+        }
+        StreamRecord r = new StreamRecord();
+        r.setRecordType(StreamRecord.RecordType.valueOf(record.getString("type")));
+        r.setPrimaryKey(new PrimaryKey(pk));
+        r.setColumns(columns);
+        Document seq = record.get("seq", Document.class);
+        if (seq != null) {
+            r.setSequenceInfo(new RecordSequenceInfo(seq.getInteger("epoch"), seq.getLong("timestamp"), seq.getInteger("rowIndex")));
+        }
+        return r;
+    }
+
+    private static PrimaryKeyValue toPrimaryKeyValue(Object value) {
+        if (value instanceof Long) {
+            return PrimaryKeyValue.fromLong((Long) value);
+        }
+        if (value instanceof Binary) {
+            return PrimaryKeyValue.fromBinary(((Binary) value).getData());
+        }
+        return PrimaryKeyValue.fromString((String) value);
+    }
+
+    private static ColumnValue toColumnValue(Object value) {
+        if (value instanceof Long) {
+            return ColumnValue.fromLong((Long) value);
+        }
+        if (value instanceof Double) {
+            return ColumnValue.fromDouble((Double) value);
+        }
+        if (value instanceof Boolean) {
+            return ColumnValue.fromBoolean((Boolean) value);
+        }
+        if (value instanceof Binary) {
+            return ColumnValue.fromBinary(((Binary) value).getData());
+        }
+        return ColumnValue.fromString((String) value);
+    }
+
+    /**
+     * Batch of records of one table.
+     */
+    public static class Batch {
+        private final String tableName;
+        private final ProcessRecordsInput input;
+
+        public Batch(String tableName, ProcessRecordsInput input) {
+            this.tableName = tableName;
+            this.input = input;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+
+        public ProcessRecordsInput getInput() {
+            return input;
+        }
+    }
+}
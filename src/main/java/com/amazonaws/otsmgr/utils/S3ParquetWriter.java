@@ -0,0 +1,340 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.*;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.conf.PlainParquetConfiguration;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Type;
+import org.apache.parquet.schema.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes the records of one table as Parquet files with dictionary encoding and Snappy or ZSTD compression.
+ * Primary key columns are typed from the TableStore TableMeta, the configured attribute columns from the table's
+ * defined columns, attribute columns without a definition are written as strings.
+ * <p>
+ * A file holds one row group. A Parquet file can only be read once its footer is written, so {@link #write} waits
+ * until the file holding the records is uploaded. The file is closed once the row group reaches its target size, or
+ * as soon as no other file of the table is uploading: the records arriving during an upload share the next file.
+ * A table written by one channel thus gets a file per batch, several channels share files, and only a table
+ * writing faster than its files upload fills row groups. Thread safe, all channels of the table share one writer.
+ */
+public class S3ParquetWriter {
+    private static final Logger log = LoggerFactory.getLogger(S3ParquetWriter.class);
+
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final S3Util s3Util;
+    private final String tableName;
+    private final MessageType schema;
+    private final List<Field> fields;
+    private final CompressionCodecName codec;
+    private final long rowGroupSize;
+
+    // current file, null until the next write
+    private ParquetWriter<StreamRecord> writer;
+    private PooledBufferOutputStream out;
+    private CompletableFuture<Void> fileDurable = new CompletableFuture<>();
+    // files being uploaded
+    private int uploading;
+
+    public S3ParquetWriter(S3Util s3Util, TableMeta tableMeta, String[] columns, String compression,
+                           long rowGroupSize) {
+        this.s3Util = s3Util;
+        this.tableName = tableMeta.getTableName();
+        this.codec = CompressionCodecName.fromConf(compression);
+        this.rowGroupSize = rowGroupSize;
+
+        fields = new ArrayList<>();
+        Types.MessageTypeBuilder builder = Types.buildMessage();
+        for (PrimaryKeySchema pk : tableMeta.getPrimaryKeyList()) {
+            ColumnType type = ColumnType.valueOf(pk.getType().name());
+            fields.add(new Field(pk.getName(), true, type));
+            builder.addField(buildType(Type.Repetition.REQUIRED, pk.getName(), type));
+        }
+        Map<String, DefinedColumnType> definedColumns = tableMeta.getDefinedColumnsMap();
+        for (String column : columns == null ? new String[0] : columns) {
+            DefinedColumnType defined = definedColumns == null ? null : definedColumns.get(column);
+            ColumnType type = defined == null ? ColumnType.STRING : ColumnType.valueOf(defined.name());
+            fields.add(new Field(column, false, type));
+            builder.addField(buildType(Type.Repetition.OPTIONAL, column, type));
+        }
+        schema = builder.named(tableName);
+    }
+
+    /**
+     * Appends the records to the current file and waits until the file is uploaded. The file is closed right away
+     * when no other file is uploading, otherwise once the upload before it completes.
+     */
+    public void write(List<StreamRecord> records) {
+        CompletableFuture<Void> durable;
+        synchronized (this) {
+            try {
+                if (writer == null) {
+                    open();
+                }
+                for (StreamRecord r : records) {
+                    writer.write(r);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            durable = fileDurable;
+            if (writer.getDataSize() >= rowGroupSize || uploading == 0) {
+                roll();
+            }
+        }
+        durable.join();
+    }
+
+    /**
+     * Uploads the current file, the next write starts a new one.
+     */
+    public void close() {
+        CompletableFuture<Void> durable;
+        synchronized (this) {
+            durable = fileDurable;
+            roll();
+        }
+        durable.join();
+    }
+
+    private void open() throws IOException {
+        out = new PooledBufferOutputStream();
+        writer = new Builder(new BufferOutputFile(out), new RecordWriteSupport(schema, fields))
+                .withConf(new PlainParquetConfiguration())
+                .withCompressionCodec(codec)
+                .withDictionaryEncoding(true)
+                .withRowGroupSize(rowGroupSize)
+                .build();
+    }
+
+    private void roll() {
+        CompletableFuture<Void> durable = fileDurable;
+        fileDurable = new CompletableFuture<>();
+        if (writer == null) {
+            durable.complete(null);
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            out.release();
+            out = null;
+            durable.completeExceptionally(e);
+            return;
+        } finally {
+            writer = null;
+        }
+
+        String key = s3Util.objectKey(tableName, LocalDateTime.now().format(formatter) + "-"
+                + UUID.randomUUID().toString().substring(0, 8) + ".parquet");
+        PooledBufferOutputStream file = out;
+        out = null;
+        uploading++;
+        // off the S3 client's threads, closing the next file encodes its row group
+        s3Util.uploadObject(key, file, "application/vnd.apache.parquet").whenCompleteAsync((v, t) -> {
+            file.release();
+            if (t == null) {
+                durable.complete(null);
+            } else {
+                log.error("Error upload {} to S3: {}", key, t.getMessage());
+                durable.completeExceptionally(t);
+            }
+            synchronized (this) {
+                // the records written during the upload go out now
+                if (--uploading == 0 && writer != null) {
+                    roll();
+                }
+            }
+        });
+    }
+
+    private static Type buildType(Type.Repetition repetition, String name, ColumnType type) {
+        switch (type) {
+            case INTEGER:
+                return Types.primitive(PrimitiveTypeName.INT64, repetition).named(name);
+            case DOUBLE:
+                return Types.primitive(PrimitiveTypeName.DOUBLE, repetition).named(name);
+            case BOOLEAN:
+                return Types.primitive(PrimitiveTypeName.BOOLEAN, repetition).named(name);
+            case BINARY:
+                return Types.primitive(PrimitiveTypeName.BINARY, repetition).named(name);
+            default:
+                return Types.primitive(PrimitiveTypeName.BINARY, repetition).as(LogicalTypeAnnotation.stringType()).named(name);
+        }
+    }
+
+    private static class Field {
+        private final String name;
+        private final boolean primaryKey;
+        private final ColumnType type;
+
+        private Field(String name, boolean primaryKey, ColumnType type) {
+            this.name = name;
+            this.primaryKey = primaryKey;
+            this.type = type;
+        }
+    }
+
+    private static class RecordWriteSupport extends WriteSupport<StreamRecord> {
+        private final MessageType schema;
+        private final List<Field> fields;
+        private RecordConsumer consumer;
+
+        private RecordWriteSupport(MessageType schema, List<Field> fields) {
+            this.schema = schema;
+            this.fields = fields;
+        }
+
+        @Override
+        public WriteContext init(Configuration configuration) {
+            return new WriteContext(schema, Collections.emptyMap());
+        }
+
+        @Override
+        public void prepareForWrite(RecordConsumer recordConsumer) {
+            this.consumer = recordConsumer;
+        }
+
+        @Override
+        public void write(StreamRecord r) {
+            Map<String, ColumnValue> values = new HashMap<>();
+            for (RecordColumn col : r.getColumns()) {
+                if (col.getColumnType() == RecordColumn.ColumnType.PUT) {
+                    values.put(col.getColumn().getName(), col.getColumn().getValue());
+                }
+            }
+
+            consumer.startMessage();
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                if (field.primaryKey) {
+                    PrimaryKeyValue value = r.getPrimaryKey().getPrimaryKeyColumn(field.name).getValue();
+                    consumer.startField(field.name, i);
+                    if (value.getType() == PrimaryKeyType.INTEGER) {
+                        consumer.addLong(value.asLong());
+                    } else if (value.getType() == PrimaryKeyType.BINARY) {
+                        consumer.addBinary(Binary.fromConstantByteArray(value.asBinary()));
+                    } else {
+                        consumer.addBinary(Binary.fromString(value.asString()));
+                    }
+                    consumer.endField(field.name, i);
+                } else {
+                    ColumnValue value = values.get(field.name);
+                    if (value != null && (value.getType() == field.type || field.type == ColumnType.STRING)) {
+                        consumer.startField(field.name, i);
+                        addValue(field.type, value);
+                        consumer.endField(field.name, i);
+                    }
+                }
+            }
+            consumer.endMessage();
+        }
+
+        private void addValue(ColumnType type, ColumnValue value) {
+            switch (type) {
+                case INTEGER:
+                    consumer.addLong(value.asLong());
+                    break;
+                case DOUBLE:
+                    consumer.addDouble(value.asDouble());
+                    break;
+                case BOOLEAN:
+                    consumer.addBoolean(value.asBoolean());
+                    break;
+                case BINARY:
+                    consumer.addBinary(Binary.fromConstantByteArray(value.asBinary()));
+                    break;
+                default:
+                    consumer.addBinary(Binary.fromString(value.getType() == ColumnType.STRING ? value.asString() : value.toString()));
+            }
+        }
+    }
+
+    private static class Builder extends ParquetWriter.Builder<StreamRecord, Builder> {
+        private final RecordWriteSupport writeSupport;
+
+        private Builder(OutputFile file, RecordWriteSupport writeSupport) {
+            super(file);
+            this.writeSupport = writeSupport;
+        }
+
+        @Override
+        protected Builder self() {
+            return this;
+        }
+
+        @Override
+        protected WriteSupport<StreamRecord> getWriteSupport(Configuration conf) {
+            return writeSupport;
+        }
+    }
+
+    // Keeps the file in memory until it is uploaded.
+    private static class BufferOutputFile implements OutputFile {
+        private final PooledBufferOutputStream out;
+
+        private BufferOutputFile(PooledBufferOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public PositionOutputStream create(long blockSizeHint) {
+            return new PositionOutputStream() {
+                private long pos;
+
+                @Override
+                public long getPos() {
+                    return pos;
+                }
+
+                @Override
+                public void write(int b) {
+                    out.write(b);
+                    pos++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    out.write(b, off, len);
+                    pos += len;
+                }
+            };
+        }
+
+        @Override
+        public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+            return create(blockSizeHint);
+        }
+
+        @Override
+        public boolean supportsBlockSize() {
+            return false;
+        }
+
+        @Override
+        public long defaultBlockSize() {
+            return 0;
+        }
+    }
+}
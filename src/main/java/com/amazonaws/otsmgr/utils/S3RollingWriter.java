@@ -0,0 +1,270 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Appends the records of one table across tunnel batches into rolling S3 objects written with multipart upload.
+ * A new object is started once the current one reaches the size or age threshold.
+ * <p>
+ * {@link #write} only returns when the written bytes are part of an uploaded part, so the tunnel checkpoint never
+ * gets ahead of S3, but it never waits for a part to fill. The part being filled is uploaded as the last part of the
+ * object as soon as no upload of it is in flight, the writes arriving meanwhile go with its next upload, and every
+ * upload replaces the one before under the same part number until the part reaches its size. A single channel thus
+ * appends to one object too, at the cost of uploading the part being filled again with every batch.
+ * A write is only acknowledged once the parts before its own are uploaded. When an upload fails, its writes are
+ * redelivered and the object is completed with what was acknowledged, the earlier upload of the failed part being
+ * the last part. Uploads left open by a crash are completed by {@link S3Util#completeUnfinishedUploads} on the
+ * next start. The written buffers are uploaded as they are and released once their part is uploaded.
+ * Thread safe, all channels of the table share one writer.
+ */
+public class S3RollingWriter {
+    private static final Logger log = LoggerFactory.getLogger(S3RollingWriter.class);
+
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private final S3Util s3Util;
+    private final String tableName;
+    private final byte[] header;
+    private final String extension;
+    private final long partSize;
+    private final long objectSize;
+    private final long maxObjectAgeMillis;
+
+    // current object, null until the next write
+    private Upload upload;
+    // the streams of the part being filled, kept until the part is full
+    private List<PooledBufferOutputStream> buffer = new ArrayList<>();
+    private long bufferSize;
+    // the writes appended since the last upload of the buffer, completed once they are uploaded
+    private boolean appended;
+    private CompletableFuture<Void> bufferDurable = new CompletableFuture<>();
+
+    public S3RollingWriter(S3Util s3Util, String tableName, byte[] header, String extension, long partSize,
+                           long objectSize, long maxObjectAgeMillis) {
+        this.s3Util = s3Util;
+        this.tableName = tableName;
+        this.header = header;
+        this.extension = extension;
+        this.partSize = partSize;
+        this.objectSize = objectSize;
+        this.maxObjectAgeMillis = maxObjectAgeMillis;
+    }
+
+    /**
+     * Appends the bytes to the current object and waits until they are uploaded. The writer takes over the
+     * stream and releases it.
+     */
+    public void write(PooledBufferOutputStream data) {
+        CompletableFuture<Void> durable;
+        synchronized (this) {
+            if (upload != null && upload.failed) {
+                roll();
+            }
+            if (upload == null) {
+                startUpload();
+            }
+            append(data);
+            durable = bufferDurable;
+
+            if (upload.bytes >= objectSize || System.currentTimeMillis() - upload.startedAt >= maxObjectAgeMillis) {
+                roll();
+            } else if (bufferSize >= partSize) {
+                uploadBuffer(true);
+            } else if (!upload.tailUploading) {
+                uploadBuffer(false);
+            }
+        }
+        durable.join();
+    }
+
+    /**
+     * Completes the current object, the next write starts a new one.
+     */
+    public void close() {
+        CompletableFuture<Void> completed;
+        synchronized (this) {
+            completed = roll();
+        }
+        completed.join();
+    }
+
+    private void startUpload() {
+        String name = LocalDateTime.now().format(formatter) + "-" + UUID.randomUUID().toString().substring(0, 8) + extension;
+        String key = s3Util.objectKey(tableName, name);
+        upload = new Upload(key, s3Util.createMultipartUpload(key));
+        PooledBufferOutputStream headerStream = new PooledBufferOutputStream();
+        headerStream.write(header, 0, header.length);
+        append(headerStream);
+        log.info("Started S3 object: " + key);
+    }
+
+    private void append(PooledBufferOutputStream data) {
+        buffer.add(data);
+        bufferSize += data.size();
+        upload.bytes += data.size();
+        appended = true;
+    }
+
+    // Uploads the buffer as the next part, after the earlier upload of the same part. A full part is final, the
+    // buffer starts over, otherwise the part is uploaded again once more writes come in.
+    private void uploadBuffer(boolean full) {
+        Upload current = upload;
+        List<PooledBufferOutputStream> streams = new ArrayList<>(buffer);
+        long length = bufferSize;
+        CompletableFuture<Void> durable = bufferDurable;
+        CompletableFuture<Void> earlier = current.uploaded;
+        appended = false;
+        bufferDurable = new CompletableFuture<>();
+
+        String key = current.key;
+        int partNumber = current.partCount + 1;
+        CompletableFuture<CompletedPart> previous = current.tail;
+        CompletableFuture<CompletedPart> uploaded = (previous == null ? CompletableFuture.completedFuture(null) : previous)
+                .handle((p, t) -> null)
+                .thenCompose(v -> {
+                    if (current.failed) {
+                        return CompletableFuture.failedFuture(new IllegalStateException("Earlier upload of " + key + " failed"));
+                    }
+                    List<ByteBuffer> buffers = new ArrayList<>();
+                    for (PooledBufferOutputStream stream : streams) {
+                        buffers.addAll(Arrays.asList(stream.toByteBuffers()));
+                    }
+                    return s3Util.uploadPart(key, current.uploadId, partNumber, buffers.toArray(new ByteBuffer[0]), length);
+                });
+        uploaded.whenComplete((part, t) -> {
+            if (t != null) {
+                current.failed = true;
+                log.error("Error upload part {} of {} to S3: {}", partNumber, key, t.getMessage());
+            }
+        });
+        // S3 keeps the earlier upload of the part when this one fails
+        CompletableFuture<CompletedPart> part = previous == null ? uploaded : uploaded.exceptionallyCompose(t -> previous);
+        CompletableFuture.allOf(earlier, uploaded).whenComplete((v, t) -> {
+            if (t == null) {
+                durable.complete(null);
+            } else {
+                durable.completeExceptionally(t);
+            }
+        });
+
+        if (full) {
+            current.parts.add(new Part(uploaded, part));
+            current.partCount++;
+            current.uploaded = CompletableFuture.allOf(earlier, uploaded);
+            current.tail = null;
+            current.tailUploading = false;
+            buffer = new ArrayList<>();
+            bufferSize = 0;
+            part.whenComplete((p, t) -> streams.forEach(PooledBufferOutputStream::release));
+        } else {
+            current.tail = part;
+            current.tailUploading = true;
+            part.whenComplete((p, t) -> {
+                synchronized (this) {
+                    if (current.tail == part) {
+                        current.tailUploading = false;
+                        if (upload == current && appended) {
+                            uploadBuffer(false);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    // Completes the object with the buffer as its last part. After a failed upload the buffer is dropped, its
+    // writes are redelivered, and the object ends with the last upload of the part being filled.
+    private CompletableFuture<Void> roll() {
+        if (upload == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Upload current = upload;
+        if (appended && !current.failed) {
+            uploadBuffer(true);
+        } else {
+            if (appended) {
+                bufferDurable.completeExceptionally(new IllegalStateException("Upload of " + current.key + " failed"));
+                bufferDurable = new CompletableFuture<>();
+                appended = false;
+            }
+            List<PooledBufferOutputStream> streams = buffer;
+            CompletableFuture<CompletedPart> tail = current.tail;
+            if (tail != null) {
+                current.parts.add(new Part(tail, tail));
+                tail.whenComplete((p, t) -> streams.forEach(PooledBufferOutputStream::release));
+            } else {
+                streams.forEach(PooledBufferOutputStream::release);
+            }
+            buffer = new ArrayList<>();
+            bufferSize = 0;
+        }
+        upload = null;
+
+        List<Part> parts = current.parts;
+        return CompletableFuture.allOf(parts.stream().map(p -> p.version).toArray(CompletableFuture[]::new))
+                .handle((v, t) -> {
+                    // the parts after a failed one were not acknowledged, their batches are redelivered
+                    List<CompletedPart> completed = new ArrayList<>();
+                    for (Part part : parts) {
+                        if (!part.version.isCompletedExceptionally()) {
+                            completed.add(part.version.join());
+                        }
+                        if (part.uploaded.isCompletedExceptionally()) {
+                            break;
+                        }
+                    }
+                    return completed;
+                })
+                .thenCompose(completed -> s3Util.completeMultipartUpload(current.key, current.uploadId, completed))
+                .whenComplete((v, t) -> {
+                    if (t != null) {
+                        log.error("Error complete S3 object {}: {}", current.key, t.getMessage());
+                    }
+                });
+    }
+
+    private static class Upload {
+        private final String key;
+        private final String uploadId;
+        private final long startedAt = System.currentTimeMillis();
+        private final List<Part> parts = new ArrayList<>();
+        private int partCount;
+        private long bytes;
+        // completed once the full parts are uploaded
+        private CompletableFuture<Void> uploaded = CompletableFuture.completedFuture(null);
+        // the last upload of the part being filled
+        private CompletableFuture<CompletedPart> tail;
+        private boolean tailUploading;
+        private volatile boolean failed;
+
+        private Upload(String key, String uploadId) {
+            this.key = key;
+            this.uploadId = uploadId;
+        }
+    }
+
+    private static class Part {
+        // this upload of the part
+        private final CompletableFuture<CompletedPart> uploaded;
+        // the upload of the part S3 keeps
+        private final CompletableFuture<CompletedPart> version;
+
+        private Part(CompletableFuture<CompletedPart> uploaded, CompletableFuture<CompletedPart> version) {
+            this.uploaded = uploaded;
+            this.version = version;
+        }
+    }
+}
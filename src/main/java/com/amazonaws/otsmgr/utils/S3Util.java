@@ -8,23 +8,40 @@ import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Component
 public class S3Util {
 
     private static final Logger log = LoggerFactory.getLogger(S3Util.class);
 
+    // DeleteObjects takes at most 1000 keys, the size of a ListObjectsV2 page
+    private static final int DELETE_OBJECTS_MAX_KEYS = 1000;
+    private static final int CLEANUP_PROGRESS_PAGES = 10;
+    // smallest part S3 accepts before the last one
+    private static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+
     private S3Client s3;
+    private S3AsyncClient s3Async;
     private String BUCKET_NAME;
     private String REGION;
     private Map<String, String> METADATA = new HashMap<>();
@@ -32,6 +49,9 @@ public class S3Util {
     @Resource
     private MigrationConfig config;
 
+    @Resource
+    private MetricsUtil metricsUtil;
+
     @PostConstruct
     public void initClient() {
         BUCKET_NAME =  config.getS3BuckeName();
@@ -39,53 +59,239 @@ public class S3Util {
         s3 = S3Client.builder()
                 .region(Region.of(REGION))
                 .build();
-//        S3 = S3AsyncClient.crtBuilder()
-//                .region(Region.of(REGION))
-//                .targetThroughputInGbps(20.0)
-//                .minimumPartSizeInBytes(8 * 1025 * 1024L)
-//                .build();
+        if (config.isS3RollingWrite() || config.isS3Parquet() || config.isDynamodbImport()) {
+            s3Async = S3AsyncClient.crtBuilder()
+                    .region(Region.of(REGION))
+                    .targetThroughputInGbps(20.0)
+                    .minimumPartSizeInBytes(config.getS3PartSizeMB() * 1024 * 1024L)
+                    .build();
+        }
         METADATA.put("Content-Type", "test/csv");
     }
 
+    private void deleteObjects(String prefix) {
+        int threads = Math.max(1, config.getS3CleanupThreads());
+        AtomicInteger count = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "otsmgr-s3-cleanup-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // listing runs at most a page ahead of every delete thread
+        Semaphore pages = new Semaphore(threads * 2);
+        AtomicLong deleted = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicInteger done = new AtomicInteger();
+        long started = System.nanoTime();
+        try {
+            ListObjectsV2Request listObjectsRequest = ListObjectsV2Request.builder()
+                    .bucket(BUCKET_NAME)
+                    .prefix(tablePrefix(prefix))
+                    .maxKeys(DELETE_OBJECTS_MAX_KEYS)
+                    .build();
+            for (ListObjectsV2Response page : s3.listObjectsV2Paginator(listObjectsRequest)) {
+                if (page.contents().isEmpty()) {
+                    continue;
+                }
+                List<ObjectIdentifier> keys = new ArrayList<>(page.contents().size());
+                for (S3Object object : page.contents()) {
+                    keys.add(ObjectIdentifier.builder().key(object.key()).build());
+                }
+                pages.acquireUninterruptibly();
+                executor.execute(() -> {
+                    try {
+                        deleteObjects(keys, deleted, failed);
+                    } finally {
+                        pages.release();
+                        if (done.incrementAndGet() % CLEANUP_PROGRESS_PAGES == 0) {
+                            log.info("Deleted {} objects of table files in S3: {}, {} failed", deleted.get(), prefix, failed.get());
+                        }
+                    }
+                });
+            }
+        } catch (S3Exception e) {
+            log.error("Error list from S3: " + e.getMessage());
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info(String.format("Deleted %d objects of table files in S3: %s in %.1fs, %d failed",
+                deleted.get(), prefix, (System.nanoTime() - started) / 1e9, failed.get()));
+    }
+
+    private void deleteObjects(List<ObjectIdentifier> keys, AtomicLong deleted, AtomicLong failed) {
+        try {
+            DeleteObjectsRequest request = DeleteObjectsRequest.builder()
+                    .bucket(BUCKET_NAME)
+                    // quiet responses only list the keys that failed
+                    .delete(Delete.builder().objects(keys).quiet(true).build())
+                    .build();
+            List<S3Error> errors = s3.deleteObjects(request).errors();
+            deleted.addAndGet(keys.size() - errors.size());
+            if (!errors.isEmpty()) {
+                failed.addAndGet(errors.size());
+                log.error("Error delete {} objects from S3, first {}: {}", errors.size(), errors.get(0).key(), errors.get(0).message());
+            }
+        } catch (S3Exception e) {
+            failed.addAndGet(keys.size());
+            log.error("Error delete from S3: " + e.getMessage());
+        }
+    }
+
     public String getBucketName() {
         return BUCKET_NAME;
     }
 
-    public void uploadItem(String prefix, String key, ByteArrayOutputStream stream) {
+    /**
+     * @return whether the object was uploaded, errors are logged
+     */
+    public boolean uploadItem(String prefix, String fileName, PooledBufferOutputStream stream) {
         try {
             log.debug("Start to upload to S3.");
             PutObjectRequest putObjectRequest = PutObjectRequest.builder()
                     .bucket(BUCKET_NAME)
-                    .key("otsmigration/" + prefix + "/" + key + ".csv")
+                    .key(objectKey(prefix, fileName))
                     .metadata(METADATA)
                     .build();
-//            S3.putObject(putObjectRequest, RequestBody.fromInputStream(new ByteArrayInputStream(stream.toByteArray()), stream.toByteArray().length));
-            s3.putObject(putObjectRequest, RequestBody.fromByteBuffer(ByteBuffer.wrap(stream.toByteArray())));
+            // streams the pooled chunks, the payload is not copied into one array
+            s3.putObject(putObjectRequest, RequestBody.fromContentProvider(stream::toInputStream, stream.size(), "application/octet-stream"));
             log.debug("Finished to upload to S3.");
+            metricsUtil.bytesUploaded(prefix, stream.size());
 
-            log.info(key +" was successfully inserted");
+            log.info(fileName +" was successfully inserted");
+            return true;
         } catch (S3Exception e) {
               log.error("Error upload to S3: " + e.getMessage());
+              return false;
         }
     }
 
-    public void deleteTable(String prefix) {
+    public String objectKey(String prefix, String fileName) {
+        return tablePrefix(prefix) + fileName;
+    }
+
+    // the objects of the table, the trailing slash keeps tables named alike apart
+    private String tablePrefix(String prefix) {
+        return "otsmigration/" + prefix + "/";
+    }
+
+    // inverse of objectKey
+    private String prefixOf(String key) {
+        int start = "otsmigration/".length();
+        int end = key.indexOf('/', start);
+        return end < 0 ? key.substring(start) : key.substring(start, end);
+    }
+
+    public CompletableFuture<Void> uploadObject(String key, PooledBufferOutputStream stream, String contentType) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(BUCKET_NAME)
+                .key(key)
+                .contentType(contentType)
+                .build();
+        long size = stream.size();
+        return s3Async.putObject(putObjectRequest, AsyncRequestBody.fromRemainingByteBuffersUnsafe(stream.toByteBuffers())).thenApply(r -> {
+            metricsUtil.bytesUploaded(prefixOf(key), size);
+            log.info(key + " was successfully inserted");
+            return null;
+        });
+    }
+
+    public String createMultipartUpload(String key) {
+        CreateMultipartUploadRequest request = CreateMultipartUploadRequest.builder()
+                .bucket(BUCKET_NAME)
+                .key(key)
+                .metadata(METADATA)
+                .build();
+        return s3Async.createMultipartUpload(request).join().uploadId();
+    }
+
+    public CompletableFuture<CompletedPart> uploadPart(String key, String uploadId, int partNumber, ByteBuffer[] buffers, long length) {
+        UploadPartRequest request = UploadPartRequest.builder()
+                .bucket(BUCKET_NAME)
+                .key(key)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(length)
+                .build();
+        return s3Async.uploadPart(request, AsyncRequestBody.fromRemainingByteBuffersUnsafe(buffers))
+                .thenApply(response -> {
+                    metricsUtil.bytesUploaded(prefixOf(key), length);
+                    return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+                });
+    }
+
+    public CompletableFuture<Void> completeMultipartUpload(String key, String uploadId, List<CompletedPart> parts) {
+        if (parts.isEmpty()) {
+            return s3Async.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                    .bucket(BUCKET_NAME).key(key).uploadId(uploadId).build()).thenApply(r -> null);
+        }
+        List<CompletedPart> sorted = new ArrayList<>(parts);
+        sorted.sort(Comparator.comparing(CompletedPart::partNumber));
+        CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest.builder()
+                .bucket(BUCKET_NAME)
+                .key(key)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(sorted).build())
+                .build();
+        return s3Async.completeMultipartUpload(request).thenApply(r -> {
+            log.info(key + " was successfully completed with " + sorted.size() + " parts");
+            return null;
+        });
+    }
+
+    /**
+     * Completes the multipart uploads left behind by a previous run. Their parts hold records
+     * the tunnel has already checkpointed, so they must become visible objects.
+     */
+    public void completeUnfinishedUploads(String prefix) {
         try {
-            log.info("Start to delete table files in S3: " + prefix);
-            ListObjectsV2Request listObjectsRequest = ListObjectsV2Request.builder()
+            ListMultipartUploadsRequest request = ListMultipartUploadsRequest.builder()
                     .bucket(BUCKET_NAME)
-                    .prefix("otsmigration/" + prefix)
+                    .prefix(tablePrefix(prefix))
                     .build();
-            ListObjectsV2Response listObjectsResponse = s3.listObjectsV2(listObjectsRequest);
-            List<S3Object> objects = listObjectsResponse.contents();
-
-            for (S3Object object : objects) {
-                DeleteObjectRequest deleteRequest = DeleteObjectRequest.builder()
+            for (MultipartUpload upload : s3.listMultipartUploadsPaginator(request).uploads()) {
+                List<CompletedPart> parts = new ArrayList<>();
+                ListPartsRequest partsRequest = ListPartsRequest.builder()
                         .bucket(BUCKET_NAME)
-                        .key(object.key())
+                        .key(upload.key())
+                        .uploadId(upload.uploadId())
                         .build();
-                s3.deleteObject(deleteRequest);
-                log.info("Deleted object: " + object.key());
+                for (Part part : s3.listPartsPaginator(partsRequest).parts()) {
+                    parts.add(CompletedPart.builder().partNumber(part.partNumber()).eTag(part.eTag()).build());
+                    // only the last part may be short, the parts after it were never acknowledged
+                    if (part.size() < MIN_PART_SIZE) {
+                        break;
+                    }
+                }
+                log.info("Complete unfinished upload: " + upload.key());
+                completeMultipartUpload(upload.key(), upload.uploadId(), parts).join();
+            }
+        } catch (S3Exception e) {
+            log.error("Error complete unfinished uploads in S3: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the objects and unfinished uploads of the table. The prefix is listed page by page, each page of up to
+     * 1000 keys is deleted with one DeleteObjects request, s3CleanupThreads pages at a time.
+     */
+    public void deleteTable(String prefix) {
+        try {
+            log.info("Start to delete table files in S3: " + prefix);
+            deleteObjects(prefix);
+            // uploads of the previous run must not be completed after the restart
+            ListMultipartUploadsRequest uploadsRequest = ListMultipartUploadsRequest.builder()
+                    .bucket(BUCKET_NAME)
+                    .prefix(tablePrefix(prefix))
+                    .build();
+            for (MultipartUpload upload : s3.listMultipartUploadsPaginator(uploadsRequest).uploads()) {
+                s3.abortMultipartUpload(AbortMultipartUploadRequest.builder()
+                        .bucket(BUCKET_NAME).key(upload.key()).uploadId(upload.uploadId()).build());
+                log.info("Aborted upload: " + upload.key());
             }
             log.info("Finished to delete table files from S3: " + prefix);
         } catch (S3Exception e) {
@@ -0,0 +1,185 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.CapacityUnit;
+import com.alicloud.openservices.tablestore.model.DefinedColumnType;
+import com.alicloud.openservices.tablestore.model.IndexMeta;
+import com.alicloud.openservices.tablestore.model.IndexType;
+import com.alicloud.openservices.tablestore.model.PrimaryKeySchema;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyType;
+import com.alicloud.openservices.tablestore.model.ReservedThroughputDetails;
+import com.alicloud.openservices.tablestore.model.TableMeta;
+import com.alicloud.openservices.tablestore.model.TableOptions;
+import com.amazonaws.otsmgr.beans.MigrationTable;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Properties file of the source table schemas of one TableStore instance, so restarts skip describing the tables.
+ * Every table keeps its primary key, defined columns, options, reserved throughput and indexes as
+ * table.&lt;name&gt;.* keys, table.&lt;name&gt;.discovered holds the time the table was described.
+ * Files written before the per-table times fall back to their top-level discovered key.
+ */
+public final class SchemaCache {
+
+    private static final String DISCOVERED = "discovered";
+
+    private SchemaCache() {
+    }
+
+    /**
+     * Loads the cached tables described at most maxAgeMillis ago, none when the file is missing.
+     */
+    public static Map<String, MigrationTable> load(Path file, long maxAgeMillis) throws IOException {
+        Map<String, MigrationTable> tables = new LinkedHashMap<>();
+        Properties properties = loadProperties(file);
+        long now = System.currentTimeMillis();
+        for (String tableName : list(properties.getProperty("tables"))) {
+            if (now - discovered(properties, tableName) <= maxAgeMillis) {
+                tables.put(tableName, read(properties, "table." + tableName + ".", tableName));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Adds the described tables stamped with the current time. Cached tables keep their own time and are dropped
+     * once older than maxAgeMillis, so adding tables never extends the life of the others.
+     */
+    public static void store(Path file, Map<String, MigrationTable> described, long maxAgeMillis) throws IOException {
+        Properties cached = loadProperties(file);
+        Properties properties = new Properties();
+        List<String> tableNames = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (String tableName : list(cached.getProperty("tables"))) {
+            long discovered = discovered(cached, tableName);
+            if (described.containsKey(tableName) || now - discovered > maxAgeMillis) {
+                continue;
+            }
+            String prefix = "table." + tableName + ".";
+            for (String key : cached.stringPropertyNames()) {
+                if (key.startsWith(prefix)) {
+                    properties.setProperty(key, cached.getProperty(key));
+                }
+            }
+            properties.setProperty(prefix + DISCOVERED, Long.toString(discovered));
+            tableNames.add(tableName);
+        }
+        for (Map.Entry<String, MigrationTable> table : described.entrySet()) {
+            String prefix = "table." + table.getKey() + ".";
+            write(properties, prefix, table.getValue());
+            properties.setProperty(prefix + DISCOVERED, Long.toString(now));
+            tableNames.add(table.getKey());
+        }
+        properties.setProperty("tables", String.join(",", tableNames));
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        // readers never see a partly written cache
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "TableStore schema cache");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Properties loadProperties(Path file) throws IOException {
+        Properties properties = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+        return properties;
+    }
+
+    private static long discovered(Properties properties, String tableName) {
+        return Long.parseLong(properties.getProperty("table." + tableName + "." + DISCOVERED,
+                properties.getProperty(DISCOVERED, "0")));
+    }
+
+    private static void write(Properties properties, String prefix, MigrationTable table) {
+        List<String> pks = new ArrayList<>();
+        for (PrimaryKeySchema pk : table.getTableMeta().getPrimaryKeyList()) {
+            pks.add(pk.getName() + ":" + pk.getType().name());
+        }
+        properties.setProperty(prefix + "pk", String.join(",", pks));
+        List<String> columns = new ArrayList<>();
+        if (table.getTableMeta().getDefinedColumnsMap() != null) {
+            table.getTableMeta().getDefinedColumnsMap().forEach((name, type) -> columns.add(name + ":" + type.name()));
+        }
+        properties.setProperty(prefix + "columns", String.join(",", columns));
+        properties.setProperty(prefix + "ttl", Integer.toString(table.getTableOptions().getTimeToLive()));
+        properties.setProperty(prefix + "maxVersions", Integer.toString(table.getTableOptions().getMaxVersions()));
+        CapacityUnit capacity = table.getReservedThroughput().getCapacityUnit();
+        properties.setProperty(prefix + "readCU", Integer.toString(capacity.getReadCapacityUnit()));
+        properties.setProperty(prefix + "writeCU", Integer.toString(capacity.getWriteCapacityUnit()));
+        List<String> indexes = new ArrayList<>();
+        if (table.getIndexMetas() != null) {
+            for (IndexMeta index : table.getIndexMetas()) {
+                String indexPrefix = prefix + "index." + index.getIndexName() + ".";
+                indexes.add(index.getIndexName());
+                properties.setProperty(indexPrefix + "type", index.getIndexType().name());
+                properties.setProperty(indexPrefix + "pk", String.join(",", index.getPrimaryKeyList()));
+                if (index.getDefinedColumnsList() != null) {
+                    properties.setProperty(indexPrefix + "columns", String.join(",", index.getDefinedColumnsList()));
+                }
+            }
+        }
+        properties.setProperty(prefix + "indexes", String.join(",", indexes));
+    }
+
+    private static MigrationTable read(Properties properties, String prefix, String tableName) {
+        TableMeta tableMeta = new TableMeta(tableName);
+        for (String pk : list(properties.getProperty(prefix + "pk"))) {
+            String[] parts = pk.split(":");
+            tableMeta.addPrimaryKeyColumn(parts[0], PrimaryKeyType.valueOf(parts[1]));
+        }
+        for (String column : list(properties.getProperty(prefix + "columns"))) {
+            String[] parts = column.split(":");
+            tableMeta.addDefinedColumn(parts[0], DefinedColumnType.valueOf(parts[1]));
+        }
+        List<IndexMeta> indexMetas = new ArrayList<>();
+        for (String indexName : list(properties.getProperty(prefix + "indexes"))) {
+            String indexPrefix = prefix + "index." + indexName + ".";
+            IndexMeta index = new IndexMeta(indexName);
+            index.setIndexType(IndexType.valueOf(properties.getProperty(indexPrefix + "type")));
+            list(properties.getProperty(indexPrefix + "pk")).forEach(index::addPrimaryKeyColumn);
+            list(properties.getProperty(indexPrefix + "columns")).forEach(index::addDefinedColumn);
+            indexMetas.add(index);
+        }
+
+        MigrationTable table = new MigrationTable();
+        table.setTableMeta(tableMeta);
+        table.setIndexMetas(indexMetas);
+        table.setTableOptions(new TableOptions(Integer.parseInt(properties.getProperty(prefix + "ttl")),
+                Integer.parseInt(properties.getProperty(prefix + "maxVersions"))));
+        table.setReservedThroughput(new ReservedThroughputDetails(new CapacityUnit(
+                Integer.parseInt(properties.getProperty(prefix + "readCU")),
+                Integer.parseInt(properties.getProperty(prefix + "writeCU"))), 0, 0));
+        return table;
+    }
+
+    private static List<String> list(String value) {
+        List<String> values = new ArrayList<>();
+        if (StringUtils.hasText(value)) {
+            for (String v : value.split(",")) {
+                values.add(v.trim());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,125 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.SyncClient;
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ComputeSplitsBySizeRequest;
+import com.alicloud.openservices.tablestore.model.GetRangeRequest;
+import com.alicloud.openservices.tablestore.model.GetRangeResponse;
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.RangeRowQueryCriteria;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.Row;
+import com.alicloud.openservices.tablestore.model.Split;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.alicloud.openservices.tablestore.tunnel.worker.IChannelProcessor;
+import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk copy of the rows of a table for the base data phase, in place of the tunnel's full-data channels.
+ * The table is cut with ComputeSplitsBySize, every split is scanned with GetRange on the shared executor and
+ * each page goes to the processor as one batch of PUT records, so the copy scales with the number of splits.
+ * Rows carry no sequence info, their column timestamps version them like tunnel base data.
+ */
+public class SplitExporter {
+    private static final Logger log = LoggerFactory.getLogger(SplitExporter.class);
+
+    private final SyncClient client;
+    private final ExecutorService executor;
+    private final long splitSizeIn100MB;
+    private final int pageSize;
+
+    public SplitExporter(SyncClient client, ExecutorService executor, long splitSizeIn100MB, int pageSize) {
+        this.client = client;
+        this.executor = executor;
+        this.splitSizeIn100MB = splitSizeIn100MB;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Copies every row of the table to the processor and waits for all splits. The first failing split
+     * cancels the others and is thrown.
+     *
+     * @return the number of rows exported
+     */
+    public long export(String tableName, IChannelProcessor processor) throws InterruptedException, ExecutionException {
+        ComputeSplitsBySizeRequest request = new ComputeSplitsBySizeRequest();
+        request.setTableName(tableName);
+        request.setSplitSizeIn100MB(splitSizeIn100MB);
+        List<Split> splits = client.computeSplitsBySize(request).getSplits();
+        log.info("Exporting table {} in {} splits", tableName, splits.size());
+
+        AtomicLong rows = new AtomicLong();
+        AtomicInteger done = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>(splits.size());
+        for (int i = 0; i < splits.size(); i++) {
+            Split split = splits.get(i);
+            String traceId = "export-" + tableName + "-" + i;
+            futures.add(executor.submit(() -> {
+                long exported = exportSplit(tableName, split, processor, traceId);
+                rows.addAndGet(exported);
+                log.info("Exported split {}/{} of table {}, {} rows", done.incrementAndGet(), splits.size(), tableName, exported);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+        log.info("Exported table {}: {} rows", tableName, rows.get());
+        return rows.get();
+    }
+
+    private long exportSplit(String tableName, Split split, IChannelProcessor processor, String traceId) {
+        RangeRowQueryCriteria criteria = new RangeRowQueryCriteria(tableName);
+        criteria.setExclusiveEndPrimaryKey(split.getUpperBound());
+        criteria.setMaxVersions(1);
+        criteria.setLimit(pageSize);
+        PrimaryKey start = split.getLowerBound();
+        long exported = 0;
+        int page = 0;
+        while (start != null) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new IllegalStateException("export of table " + tableName + " was cancelled");
+            }
+            criteria.setInclusiveStartPrimaryKey(start);
+            GetRangeResponse response = client.getRange(new GetRangeRequest(criteria));
+            List<StreamRecord> records = new ArrayList<>(response.getRows().size());
+            for (Row row : response.getRows()) {
+                records.add(toRecord(row));
+            }
+            if (!records.isEmpty()) {
+                processor.process(new ProcessRecordsInput(records, null, traceId + "-" + page++));
+                exported += records.size();
+            }
+            start = response.getNextStartPrimaryKey();
+        }
+        return exported;
+    }
+
+    private static StreamRecord toRecord(Row row) {
+        List<RecordColumn> columns = new ArrayList<>(row.getColumns().length);
+        for (Column column : row.getColumns()) {
+            columns.add(new RecordColumn(column, RecordColumn.ColumnType.PUT));
+        }
+        StreamRecord r = new StreamRecord();
+        r.setRecordType(StreamRecord.RecordType.PUT);
+        r.setPrimaryKey(row.getPrimaryKey());
+        r.setColumns(columns);
+        return r;
+    }
+}
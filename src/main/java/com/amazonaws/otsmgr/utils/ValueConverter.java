@@ -0,0 +1,89 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.ColumnType;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyType;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import org.bson.types.Binary;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Converters from TableStore primary key and column values to DynamoDB attribute values and BSON values,
+ * registered per TableStore type. Values keep their type: integers and doubles become numbers, booleans stay
+ * booleans and binaries wrap the original byte array without copying it, so it must not be modified afterwards.
+ */
+public final class ValueConverter {
+
+    private static final Map<PrimaryKeyType, Function<PrimaryKeyValue, AttributeValue>> keyToAttribute = new EnumMap<>(PrimaryKeyType.class);
+    private static final Map<ColumnType, Function<ColumnValue, AttributeValue>> columnToAttribute = new EnumMap<>(ColumnType.class);
+    private static final Map<PrimaryKeyType, Function<PrimaryKeyValue, Object>> keyToBson = new EnumMap<>(PrimaryKeyType.class);
+    private static final Map<ColumnType, Function<ColumnValue, Object>> columnToBson = new EnumMap<>(ColumnType.class);
+
+    static {
+        keyToAttribute.put(PrimaryKeyType.STRING, v -> AttributeValue.fromS(v.asString()));
+        keyToAttribute.put(PrimaryKeyType.INTEGER, v -> AttributeValue.fromN(Long.toString(v.asLong())));
+        keyToAttribute.put(PrimaryKeyType.BINARY, v -> AttributeValue.fromB(SdkBytes.fromByteArrayUnsafe(v.asBinary())));
+
+        columnToAttribute.put(ColumnType.STRING, v -> AttributeValue.fromS(v.asString()));
+        columnToAttribute.put(ColumnType.INTEGER, v -> AttributeValue.fromN(Long.toString(v.asLong())));
+        columnToAttribute.put(ColumnType.DOUBLE, v -> {
+            double d = v.asDouble();
+            // DynamoDB numbers have no NaN or infinity
+            return Double.isFinite(d) ? AttributeValue.fromN(Double.toString(d)) : AttributeValue.fromS(Double.toString(d));
+        });
+        columnToAttribute.put(ColumnType.BOOLEAN, v -> AttributeValue.fromBool(v.asBoolean()));
+        columnToAttribute.put(ColumnType.BINARY, v -> AttributeValue.fromB(SdkBytes.fromByteArrayUnsafe(v.asBinary())));
+
+        keyToBson.put(PrimaryKeyType.STRING, PrimaryKeyValue::asString);
+        keyToBson.put(PrimaryKeyType.INTEGER, PrimaryKeyValue::asLong);
+        keyToBson.put(PrimaryKeyType.BINARY, v -> new Binary(v.asBinary()));
+
+        columnToBson.put(ColumnType.STRING, ColumnValue::asString);
+        columnToBson.put(ColumnType.INTEGER, ColumnValue::asLong);
+        columnToBson.put(ColumnType.DOUBLE, ColumnValue::asDouble);
+        columnToBson.put(ColumnType.BOOLEAN, ColumnValue::asBoolean);
+        columnToBson.put(ColumnType.BINARY, v -> new Binary(v.asBinary()));
+    }
+
+    private ValueConverter() {
+    }
+
+    public static AttributeValue toAttributeValue(PrimaryKeyValue value) {
+        Function<PrimaryKeyValue, AttributeValue> converter = keyToAttribute.get(value.getType());
+        if (converter == null) {
+            throw new IllegalArgumentException("Unsupported primary key type: " + value.getType());
+        }
+        return converter.apply(value);
+    }
+
+    public static AttributeValue toAttributeValue(ColumnValue value) {
+        Function<ColumnValue, AttributeValue> converter = columnToAttribute.get(value.getType());
+        if (converter == null) {
+            throw new IllegalArgumentException("Unsupported column type: " + value.getType());
+        }
+        return converter.apply(value);
+    }
+
+    public static Object toBson(PrimaryKeyValue value) {
+        Function<PrimaryKeyValue, Object> converter = keyToBson.get(value.getType());
+        if (converter == null) {
+            throw new IllegalArgumentException("Unsupported primary key type: " + value.getType());
+        }
+        return converter.apply(value);
+    }
+
+    public static Object toBson(ColumnValue value) {
+        Function<ColumnValue, Object> converter = columnToBson.get(value.getType());
+        if (converter == null) {
+            throw new IllegalArgumentException("Unsupported column type: " + value.getType());
+        }
+        return converter.apply(value);
+    }
+}
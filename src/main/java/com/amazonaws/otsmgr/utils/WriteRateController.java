@@ -0,0 +1,128 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+/**
+ * Token bucket pacing the writes of one DynamoDB table, with an AIMD controlled rate in write capacity units
+ * per second. Requests reserve their estimated units up front and are charged the consumed capacity DynamoDB
+ * reports. The rate grows additively every second without throttling and is halved on throttling, it never
+ * exceeds the table's capacity. A table without a capacity limit is not paced until it is throttled the first
+ * time, the rate then starts at half the units sent during the last second. Thread safe.
+ */
+public class WriteRateController {
+
+    private static final double MIN_RATE = 1.0;
+    private static final double DECREASE_FACTOR = 0.5;
+    // additive increase per adjustment, as a share of the maximum rate
+    private static final double INCREASE_SHARE = 0.05;
+    private static final long ADJUST_INTERVAL_NANOS = 1_000_000_000L;
+
+    private final String tableName;
+    private final double maxRate;
+    // additive increase per adjustment
+    private double increase;
+    // infinite until an unlimited table is throttled
+    private double rate;
+    // may go negative, the debt is paid by waiting
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private long adjustedAt = refilledAt;
+    private boolean throttled;
+    // units sent in the current and the last second
+    private double sent;
+    private long sentSince = refilledAt;
+    private double lastSecondRate;
+
+    /**
+     * @param maxRate capacity of the table in write units per second, the controller starts at this rate,
+     *                infinite for a table without limit
+     */
+    public WriteRateController(String tableName, double maxRate) {
+        this.tableName = tableName;
+        this.maxRate = Math.max(MIN_RATE, maxRate);
+        this.increase = Math.max(MIN_RATE, this.maxRate * INCREASE_SHARE);
+        this.rate = this.maxRate;
+        this.tokens = Double.isInfinite(rate) ? 0 : rate;
+    }
+
+    /**
+     * Takes the units from the bucket.
+     *
+     * @return the milliseconds to wait before sending the request
+     */
+    public synchronized long reserve(double units) {
+        long now = System.nanoTime();
+        if (now - sentSince >= ADJUST_INTERVAL_NANOS) {
+            lastSecondRate = sent * 1e9 / (now - sentSince);
+            sent = 0;
+            sentSince = now;
+        }
+        sent += units;
+        if (Double.isInfinite(rate)) {
+            return 0;
+        }
+        refill();
+        tokens -= units;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / rate * 1000);
+    }
+
+    /**
+     * Charges the difference between the consumed and the reserved units, and raises the rate when
+     * there was no throttling during the last interval.
+     */
+    public synchronized void onConsumed(double reserved, double consumed) {
+        refill();
+        if (consumed > 0) {
+            tokens -= consumed - reserved;
+        }
+        long now = System.nanoTime();
+        if (now - adjustedAt >= ADJUST_INTERVAL_NANOS) {
+            if (!throttled) {
+                rate = Math.min(maxRate, rate + increase);
+            }
+            throttled = false;
+            adjustedAt = now;
+        }
+    }
+
+    /**
+     * Halves the rate, at most once per interval since a burst of throttled requests reports the same overload.
+     */
+    public synchronized void onThrottled() {
+        refill();
+        long now = System.nanoTime();
+        if (Double.isInfinite(rate)) {
+            // the first throttling of an unlimited table, its limit is about what was sent
+            double sending = Math.max(lastSecondRate, sent * 1e9 / Math.max(1, now - sentSince));
+            rate = Math.max(MIN_RATE, sending * DECREASE_FACTOR);
+            increase = Math.max(MIN_RATE, sending * INCREASE_SHARE);
+            tokens = 0;
+            refilledAt = now;
+            adjustedAt = now;
+        } else if (!throttled || now - adjustedAt >= ADJUST_INTERVAL_NANOS) {
+            rate = Math.max(MIN_RATE, rate * DECREASE_FACTOR);
+            tokens = Math.min(tokens, 0);
+            adjustedAt = now;
+        }
+        throttled = true;
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    // at most one second of unused capacity is kept
+    private void refill() {
+        long now = System.nanoTime();
+        if (Double.isInfinite(rate)) {
+            refilledAt = now;
+            return;
+        }
+        tokens = Math.min(rate, tokens + (now - refilledAt) / 1e9 * rate);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,126 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.benchmark;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.amazonaws.otsmgr.utils.ColumnProjection;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Per-row cost of projecting the configured columns of a stream record for the S3 CSV row, with the former
+ * column list indexOf lookup and with the compiled {@link ColumnProjection}.
+ * Every record carries all configured columns in shuffled order, as an UPDATE of a wide row would.
+ * Run with mvn -Pbenchmark test-compile exec:exec -Dbenchmark=ColumnProjectionBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ColumnProjectionBenchmark {
+
+    private static final int ROWS = 100;
+
+    @Param({"10", "50", "200"})
+    private int columns;
+
+    private String[] configured;
+    private List<StreamRecord> records;
+    private ColumnProjection projection;
+    private String[] row;
+
+    @Setup
+    public void setup() {
+        configured = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            configured[i] = "column_" + i;
+        }
+        Random random = new Random(42);
+        records = new ArrayList<>(ROWS);
+        for (int n = 0; n < ROWS; n++) {
+            List<RecordColumn> cols = new ArrayList<>(columns);
+            for (String name : configured) {
+                cols.add(new RecordColumn(new Column(name, ColumnValue.fromString("value-" + random.nextInt())),
+                        RecordColumn.ColumnType.PUT));
+            }
+            Collections.shuffle(cols, random);
+            StreamRecord r = new StreamRecord();
+            r.setRecordType(StreamRecord.RecordType.UPDATE);
+            r.setColumns(cols);
+            records.add(r);
+        }
+        projection = new ColumnProjection(configured);
+        row = projection.newRow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void indexOf(Blackhole bh) {
+        for (StreamRecord r : records) {
+            List<LegacyColumn> mcols = r.getColumns().stream().map(col -> {
+                LegacyColumn mcol = new LegacyColumn();
+                mcol.setName(col.getColumn().getName().toString());
+                mcol.setValue(col.getColumn().getValue().toString());
+                return mcol;
+            }).collect(Collectors.toList());
+
+            String[] values = Arrays.stream(configured).map(col -> {
+                LegacyColumn _mcol = new LegacyColumn();
+                _mcol.setName(col);
+                int i = mcols.indexOf(_mcol);
+                return i < 0 ? "" : mcols.get(i).getValue();
+            }).toArray(String[]::new);
+            bh.consume(values);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void projection(Blackhole bh) {
+        for (StreamRecord r : records) {
+            projection.project(r, row);
+            bh.consume(row);
+        }
+    }
+
+    // the column bean the S3 target looked columns up with, equal by case-insensitive name
+    private static class LegacyColumn {
+        private String name;
+        private String value;
+
+        void setName(String name) {
+            this.name = name;
+        }
+
+        void setValue(String value) {
+            this.value = value;
+        }
+
+        String getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof LegacyColumn && name.equalsIgnoreCase(((LegacyColumn) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.toLowerCase().hashCode();
+        }
+    }
+}
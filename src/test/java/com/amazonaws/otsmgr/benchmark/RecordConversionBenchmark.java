@@ -0,0 +1,153 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.benchmark;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.alicloud.openservices.tablestore.tunnel.worker.ProcessRecordsInput;
+import com.amazonaws.otsmgr.utils.ColumnProjection;
+import com.amazonaws.otsmgr.utils.CsvRecordEncoder;
+import com.amazonaws.otsmgr.utils.DynamoDBUtil;
+import com.amazonaws.otsmgr.utils.MongoDBUtil;
+import com.amazonaws.otsmgr.utils.PooledBufferOutputStream;
+import com.amazonaws.otsmgr.utils.RecordConverter;
+import com.amazonaws.otsmgr.utils.ValueConverter;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of converting a tunnel batch for each target: DynamoDB put requests and updates, MongoDB replace
+ * models and S3 CSV rows. Batches are synthetic PUT records of the given width, primary key count and value type,
+ * MIXED cycles through all column types. The benchmark profile runs with the gc profiler, so the allocation
+ * rate per record is reported next to the throughput.
+ * Run with mvn -Pbenchmark test-compile exec:exec -Dbenchmark=RecordConversionBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RecordConversionBenchmark {
+
+    private static final int ROWS = 100;
+
+    public enum ValueType { STRING, INTEGER, DOUBLE, BOOLEAN, BINARY, MIXED }
+
+    @Param({"10", "50"})
+    private int columns;
+
+    @Param({"1", "4"})
+    private int keys;
+
+    @Param({"STRING", "INTEGER", "BINARY", "MIXED"})
+    private ValueType valueType;
+
+    private ProcessRecordsInput input;
+    private DynamoDBUtil dynamoDBUtil;
+    private MongoDBUtil mongoDBUtil;
+    private ColumnProjection projection;
+    private String[] row;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        String[] names = new String[columns];
+        for (int i = 0; i < columns; i++) {
+            names[i] = "column_" + i;
+        }
+        List<StreamRecord> records = new ArrayList<>(ROWS);
+        for (int n = 0; n < ROWS; n++) {
+            List<PrimaryKeyColumn> pks = new ArrayList<>(keys);
+            for (int k = 0; k < keys; k++) {
+                // the partition key is a string, the others are integers as in typical TableStore schemas
+                pks.add(new PrimaryKeyColumn("pk_" + k, k == 0
+                        ? PrimaryKeyValue.fromString("partition-" + random.nextInt(1000))
+                        : PrimaryKeyValue.fromLong(random.nextLong())));
+            }
+            List<RecordColumn> cols = new ArrayList<>(columns);
+            for (int i = 0; i < columns; i++) {
+                cols.add(new RecordColumn(new Column(names[i], value(random, i)), RecordColumn.ColumnType.PUT));
+            }
+            StreamRecord r = new StreamRecord();
+            r.setRecordType(StreamRecord.RecordType.PUT);
+            r.setPrimaryKey(new PrimaryKey(pks));
+            r.setColumns(cols);
+            records.add(r);
+        }
+        input = new ProcessRecordsInput(records, "token", "trace");
+        dynamoDBUtil = new DynamoDBUtil();
+        mongoDBUtil = new MongoDBUtil();
+        projection = new ColumnProjection(names);
+        row = projection.newRow();
+    }
+
+    private ColumnValue value(Random random, int i) {
+        ValueType type = valueType == ValueType.MIXED ? ValueType.values()[i % 5] : valueType;
+        switch (type) {
+            case INTEGER:
+                return ColumnValue.fromLong(random.nextLong());
+            case DOUBLE:
+                return ColumnValue.fromDouble(random.nextDouble() * 1e6);
+            case BOOLEAN:
+                return ColumnValue.fromBoolean(random.nextBoolean());
+            case BINARY:
+                byte[] bytes = new byte[32];
+                random.nextBytes(bytes);
+                return ColumnValue.fromBinary(bytes);
+            default:
+                return ColumnValue.fromString("value-" + Long.toHexString(random.nextLong()));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void dynamoDBPut(Blackhole bh) {
+        for (StreamRecord r : input.getRecords()) {
+            bh.consume(RecordConverter.toDynamoDBKey(r));
+            bh.consume(dynamoDBUtil.buildPutRequest(RecordConverter.toDynamoDBItem(r)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void dynamoDBUpdate(Blackhole bh) {
+        for (StreamRecord r : input.getRecords()) {
+            bh.consume(RecordConverter.toDynamoDBKey(r));
+            bh.consume(RecordConverter.toDynamoDBUpdates(r));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void mongoDBPut(Blackhole bh) {
+        for (StreamRecord r : input.getRecords()) {
+            Object id = ValueConverter.toBson(r.getPrimaryKey().getPrimaryKeyColumns()[0].getValue());
+            bh.consume(mongoDBUtil.buildReplaceModel(id, RecordConverter.toBsonFields(r)));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void s3Csv(Blackhole bh) throws IOException {
+        PooledBufferOutputStream stream = new PooledBufferOutputStream();
+        try (CsvRecordEncoder encoder = new CsvRecordEncoder(stream, CsvRecordEncoder.COMPRESSION_NONE)) {
+            for (StreamRecord r : input.getRecords()) {
+                RecordConverter.writeCsv(r, projection, row, encoder);
+            }
+        }
+        bh.consume(stream.size());
+        stream.release();
+    }
+}
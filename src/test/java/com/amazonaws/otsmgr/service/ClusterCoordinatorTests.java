@@ -0,0 +1,109 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.service;
+
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import com.amazonaws.otsmgr.utils.LeaseStore;
+import com.amazonaws.otsmgr.utils.MetricsUtil;
+import com.amazonaws.otsmgr.utils.OTSUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ClusterCoordinatorTests {
+
+    private static final long LEASE_MILLIS = 30_000;
+
+    @TempDir
+    Path dir;
+
+    private MigrationConfig config;
+    private OTSUtil otsUtil;
+    // owns checks the leases against the clock, the heartbeats are timed from now
+    private long start;
+
+    @BeforeEach
+    void setUp() {
+        config = new MigrationConfig();
+        config.setTableNames(List.of("a", "b", "c", "d"));
+        otsUtil = mock(OTSUtil.class);
+        when(otsUtil.stop(anyString())).thenReturn(true);
+        start = System.currentTimeMillis();
+    }
+
+    @Test
+    void singleNodeClaimsEveryTable() throws IOException {
+        ClusterCoordinator node = node("node-1");
+
+        assertThat(rebalance(node, 1000)).isEqualTo(Map.of("a", true, "b", true, "c", true, "d", true));
+        assertThat(owns(node, "a")).isTrue();
+        // renewing starts nothing again
+        assertThat(rebalance(node, 2000)).isEmpty();
+        assertThat(new LeaseStore(dir).lease("a").getExpires()).isEqualTo(start + 2000 + LEASE_MILLIS);
+    }
+
+    @Test
+    void joiningNodeTakesOverItsShare() throws IOException {
+        ClusterCoordinator first = node("node-1");
+        ClusterCoordinator second = node("node-2");
+        rebalance(first, 1000);
+
+        assertThat(rebalance(second, 2000)).isEmpty();
+        assertThat(rebalance(first, 3000)).isEmpty();
+        verify(otsUtil).stop("c");
+        verify(otsUtil).stop("d");
+        // the tables were claimed before, they resume instead of restarting
+        assertThat(rebalance(second, 4000)).isEqualTo(Map.of("c", false, "d", false));
+        assertThat(owns(first, "c")).isFalse();
+        assertThat(owns(second, "c")).isTrue();
+    }
+
+    @Test
+    void expiredLeasesAreTakenOver() throws IOException {
+        ClusterCoordinator first = node("node-1");
+        ClusterCoordinator second = node("node-2");
+        rebalance(first, 1000);
+
+        // the first node is still alive, its leases hold
+        assertThat(rebalance(second, 1000 + LEASE_MILLIS / 2)).isEmpty();
+        long expired = 1000 + LEASE_MILLIS + 1;
+        assertThat(rebalance(second, expired)).isEqualTo(Map.of("a", false, "b", false, "c", false, "d", false));
+        assertThat(new LeaseStore(dir).lease("a").getOwner()).isEqualTo("node-2");
+
+        // the first node comes back and stops the tables it lost
+        assertThat(rebalance(first, expired + 1000)).isEmpty();
+        verify(otsUtil).stop("a");
+        assertThat(owns(first, "a")).isFalse();
+    }
+
+    private ClusterCoordinator node(String nodeId) throws IOException {
+        ClusterCoordinator node = new ClusterCoordinator();
+        MetricsUtil metricsUtil = mock(MetricsUtil.class);
+        ReflectionTestUtils.setField(node, "config", config);
+        ReflectionTestUtils.setField(node, "otsUtil", otsUtil);
+        ReflectionTestUtils.setField(node, "metricsUtil", metricsUtil);
+        ReflectionTestUtils.setField(node, "nodeId", nodeId);
+        ReflectionTestUtils.setField(node, "store", new LeaseStore(dir));
+        return node;
+    }
+
+    private Map<String, Boolean> rebalance(ClusterCoordinator node, long millis) {
+        return ReflectionTestUtils.invokeMethod(node, "rebalance", start + millis, LEASE_MILLIS);
+    }
+
+    private static boolean owns(ClusterCoordinator node, String tableName) {
+        return Boolean.TRUE.equals(ReflectionTestUtils.invokeMethod(node, "owns", tableName));
+    }
+}
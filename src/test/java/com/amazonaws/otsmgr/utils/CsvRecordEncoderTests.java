@@ -0,0 +1,75 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.opencsv.CSVWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvRecordEncoderTests {
+
+    private static final List<String[]> ROWS = List.of(
+            new String[]{"id", "name", "price"},
+            new String[]{"1", "plain", "9.5"},
+            new String[]{"a,b", "say \"hi\"", "line\nbreak"},
+            new String[]{"carriage\rreturn", "", null},
+            new String[]{"café", "中文", "😀 emoji"},
+            new String[]{"unpaired \ud83d", "tab\there", "\u0000"},
+            new String[]{"x".repeat(20000)});
+
+    @Test
+    void matchesOpenCsvWriter() throws IOException {
+        assertThat(encode(CsvRecordEncoder.COMPRESSION_NONE)).isEqualTo(openCsv());
+    }
+
+    @Test
+    void gzipMembersConcatenate() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(encode(CsvRecordEncoder.COMPRESSION_GZIP));
+        out.write(encode(CsvRecordEncoder.COMPRESSION_GZIP));
+        byte[] plain;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            plain = in.readAllBytes();
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(openCsv());
+        expected.write(openCsv());
+        assertThat(plain).isEqualTo(expected.toByteArray());
+    }
+
+    @Test
+    void extensionFollowsCompression() {
+        assertThat(CsvRecordEncoder.extension("none")).isEqualTo(".csv");
+        assertThat(CsvRecordEncoder.extension("GZIP")).isEqualTo(".csv.gz");
+        assertThat(CsvRecordEncoder.extension("zstd")).isEqualTo(".csv.zst");
+    }
+
+    private static byte[] encode(String compression) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CsvRecordEncoder encoder = new CsvRecordEncoder(out, compression)) {
+            for (String[] row : ROWS) {
+                encoder.writeRecord(row);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // the writer configuration of the S3 target before the encoder
+    private static byte[] openCsv() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CSVWriter writer = new CSVWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                ',', Character.MIN_VALUE, '"', System.lineSeparator())) {
+            writer.writeAll(ROWS);
+        }
+        return out.toByteArray();
+    }
+}
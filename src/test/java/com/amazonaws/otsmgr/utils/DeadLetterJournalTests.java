@@ -0,0 +1,155 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.amazonaws.otsmgr.conf.MigrationConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DeadLetterJournalTests {
+
+    @TempDir
+    Path dir;
+
+    private DeadLetterJournal journal;
+
+    @BeforeEach
+    void setUp() {
+        MigrationConfig config = new MigrationConfig();
+        config.setDlqDir(dir.toString());
+        config.setDlqSegmentMB(1);
+        journal = new DeadLetterJournal();
+        ReflectionTestUtils.setField(journal, "config", config);
+    }
+
+    @AfterEach
+    void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    void readsBackAppendedRecords() throws IOException {
+        List<String> appended = new ArrayList<>();
+        appended.add(append("orders", put("o-1", "status", "new")));
+        appended.add(append("users", put("u-1", "name", "Ann")));
+        appended.add(append("orders", delete("o-2")));
+
+        List<Path> segments = DeadLetterJournal.segments(dir.toString());
+        assertThat(segments).hasSize(1);
+        assertThat(readAll(segments)).containsExactlyElementsOf(appended);
+        assertThat(DeadLetterJournal.read(segments.get(0), (tableName, r) -> { })).isTrue();
+    }
+
+    @Test
+    void skipsUnfinishedEntries() throws IOException {
+        List<String> appended = List.of(append("orders", put("o-1", "status", "new")),
+                append("orders", put("o-2", "status", "paid")),
+                append("orders", put("o-3", "status", "sent")));
+        Path segment = DeadLetterJournal.segments(dir.toString()).get(0);
+        byte[] bytes = Files.readAllBytes(segment);
+        List<Integer> offsets = entryOffsets(bytes);
+        assertThat(offsets).hasSize(3);
+
+        // the writer of the second entry died before its commit mark
+        byte[] uncommitted = Arrays.copyOf(bytes, bytes.length);
+        Arrays.fill(uncommitted, offsets.get(1) + 4, offsets.get(1) + 8, (byte) 0);
+        assertThat(read(uncommitted)).containsExactly(appended.get(0), appended.get(2));
+
+        // the writer of the second entry died before its length
+        byte[] reserved = Arrays.copyOf(bytes, bytes.length);
+        Arrays.fill(reserved, offsets.get(1), offsets.get(2), (byte) 0);
+        assertThat(read(reserved)).containsExactly(appended.get(0), appended.get(2));
+
+        // a file cut in the middle of its last entry
+        Path cut = dir.resolve("cut.dlq");
+        Files.write(cut, Arrays.copyOf(bytes, offsets.get(2) + 10));
+        assertThat(DeadLetterJournal.read(cut, (tableName, r) -> { })).isFalse();
+        assertThat(readAll(List.of(cut))).containsExactly(appended.get(0), appended.get(1));
+    }
+
+    @Test
+    void rollsToNewSegmentsWhenFull() throws IOException {
+        String wide = "x".repeat(100 * 1024);
+        List<String> appended = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            appended.add(append("orders", put("o-" + i, "payload", wide)));
+        }
+
+        List<Path> segments = DeadLetterJournal.segments(dir.toString());
+        assertThat(segments).hasSizeGreaterThan(1);
+        assertThat(readAll(segments)).containsExactlyElementsOf(appended);
+    }
+
+    private String append(String tableName, StreamRecord r) {
+        journal.append(tableName, r);
+        return tableName + " " + ReplayFile.toDocument(r).toJson();
+    }
+
+    private static List<String> readAll(List<Path> segments) throws IOException {
+        List<String> read = new ArrayList<>();
+        for (Path segment : segments) {
+            DeadLetterJournal.read(segment, (tableName, r) -> read.add(tableName + " " + ReplayFile.toDocument(r).toJson()));
+        }
+        return read;
+    }
+
+    // reads a modified copy of a segment, which must be reported as not completely read
+    private List<String> read(byte[] bytes) throws IOException {
+        Path copy = Files.write(dir.resolve("copy.dlq"), bytes);
+        assertThat(DeadLetterJournal.read(copy, (tableName, r) -> { })).isFalse();
+        return readAll(List.of(copy));
+    }
+
+    // entries start with their little endian length and commit mark, aligned to 8 bytes
+    private static List<Integer> entryOffsets(byte[] bytes) {
+        List<Integer> offsets = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int length = (bytes[position] & 0xFF) | (bytes[position + 1] & 0xFF) << 8
+                    | (bytes[position + 2] & 0xFF) << 16 | (bytes[position + 3] & 0xFF) << 24;
+            if (length <= 0) {
+                return offsets;
+            }
+            offsets.add(position);
+            position += (8 + length + 7) & -8;
+        }
+    }
+
+    private static StreamRecord put(String id, String column, String value) {
+        StreamRecord r = record(StreamRecord.RecordType.PUT, id);
+        r.setColumns(List.of(new RecordColumn(new Column(column, ColumnValue.fromString(value)), RecordColumn.ColumnType.PUT)));
+        return r;
+    }
+
+    private static StreamRecord delete(String id) {
+        StreamRecord r = record(StreamRecord.RecordType.DELETE, id);
+        r.setColumns(List.of());
+        return r;
+    }
+
+    private static StreamRecord record(StreamRecord.RecordType type, String id) {
+        StreamRecord r = new StreamRecord();
+        r.setRecordType(type);
+        r.setPrimaryKey(new PrimaryKey(List.of(new PrimaryKeyColumn("id", PrimaryKeyValue.fromString(id)))));
+        return r;
+    }
+}
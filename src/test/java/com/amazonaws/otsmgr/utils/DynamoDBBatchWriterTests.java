@@ -0,0 +1,124 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DynamoDBBatchWriterTests {
+
+    private final DynamoDBUtil dynamoDBUtil = mock(DynamoDBUtil.class);
+    private final Timer latency = new SimpleMeterRegistry().timer("latency");
+    private final AtomicInteger inFlightGauge = new AtomicInteger();
+    private final List<String> written = new ArrayList<>();
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger maxSent = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        // every put takes a little while, the writes sent together are counted
+        when(dynamoDBUtil.putItemVersionedAsync(anyString(), anyMap(), any())).thenAnswer(invocation -> {
+            Map<String, AttributeValue> item = invocation.getArgument(1);
+            maxSent.accumulateAndGet(sent.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                synchronized (written) {
+                    written.add(item.get("id").s());
+                }
+                sent.decrementAndGet();
+                return true;
+            }, CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS));
+        });
+    }
+
+    @Test
+    void coldWritesAreNotBlockedBehindPacedOnes() {
+        DynamoDBBatchWriter writer = writer(1);
+        writer.setScheduler(new FixedScheduler(TimeUnit.SECONDS.toNanos(1)));
+
+        long start = System.nanoTime();
+        put(writer, "hot");
+        for (int i = 0; i < 5; i++) {
+            put(writer, "cold-" + i);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // the hot write waits for its slot without holding the only one of maxInFlight
+        assertThat(elapsed).isLessThan(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(writer.finish()).isZero();
+        assertThat(written).hasSize(6).endsWith("hot");
+        assertThat(latency.count()).isEqualTo(6);
+        // the pacing delay is not part of the latency
+        assertThat(latency.max(TimeUnit.MILLISECONDS)).isLessThan(500);
+        assertThat(inFlightGauge.get()).isZero();
+    }
+
+    @Test
+    void pacedWritesStayWithinMaxInFlight() {
+        DynamoDBBatchWriter writer = writer(2);
+        writer.setScheduler(new FixedScheduler(TimeUnit.MILLISECONDS.toNanos(50)));
+
+        for (int i = 0; i < 10; i++) {
+            put(writer, "hot-" + i);
+            put(writer, "cold-" + i);
+        }
+
+        assertThat(writer.finish()).isZero();
+        assertThat(written).hasSize(20);
+        assertThat(maxSent.get()).isLessThanOrEqualTo(2);
+    }
+
+    private DynamoDBBatchWriter writer(int maxInFlight) {
+        return new DynamoDBBatchWriter(dynamoDBUtil, "t", Set.of("id"), maxInFlight, latency, inFlightGauge,
+                r -> { throw new AssertionError("dead letter"); });
+    }
+
+    private static void put(DynamoDBBatchWriter writer, String id) {
+        Map<String, AttributeValue> key = Map.of("id", AttributeValue.fromS(id));
+        writer.putVersioned(key, key, BigDecimal.ONE, record(id));
+    }
+
+    private static StreamRecord record(String id) {
+        StreamRecord r = new StreamRecord();
+        r.setRecordType(StreamRecord.RecordType.PUT);
+        r.setPrimaryKey(new PrimaryKey(List.of(new PrimaryKeyColumn("id", PrimaryKeyValue.fromString(id)))));
+        return r;
+    }
+
+    // delays the keys starting with hot
+    private static class FixedScheduler extends PartitionScheduler {
+        private final long delayNanos;
+
+        FixedScheduler(long delayNanos) {
+            super("t", 1, 100, 1, 60, null);
+            this.delayNanos = delayNanos;
+        }
+
+        @Override
+        public long delayNanos(String key) {
+            return key.startsWith("hot") ? delayNanos : 0;
+        }
+    }
+}
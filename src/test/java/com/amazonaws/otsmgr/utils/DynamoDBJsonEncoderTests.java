@@ -0,0 +1,150 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DynamoDBJsonEncoderTests {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void roundTripsEveryAttributeType() throws IOException {
+        Map<String, AttributeValue> item = new LinkedHashMap<>();
+        item.put("id", AttributeValue.fromS("say \"hi\" \\ back\nslash\r\ttab \u0001 café 中文 😀"));
+        item.put("price", AttributeValue.fromN("-12.5E3"));
+        item.put("blob", AttributeValue.fromB(SdkBytes.fromByteArray(new byte[]{0, -1, 42})));
+        item.put("active", AttributeValue.fromBool(false));
+        item.put("missing", AttributeValue.fromNul(true));
+        item.put("tags", AttributeValue.fromSs(List.of("a", "b\"c")));
+        item.put("scores", AttributeValue.fromNs(List.of("1", "2.5")));
+        item.put("blobs", AttributeValue.fromBs(List.of(SdkBytes.fromUtf8String("x"), SdkBytes.fromByteArray(new byte[0]))));
+        item.put("list", AttributeValue.fromL(List.of(AttributeValue.fromS("s"), AttributeValue.fromN("1"),
+                AttributeValue.fromL(List.of()), AttributeValue.fromM(Map.of("k", AttributeValue.fromBool(true))))));
+        item.put("nested \"key\"", AttributeValue.fromM(Map.of("inner", AttributeValue.fromM(Map.of()))));
+
+        List<String> lines = lines(encode(List.of(item)));
+
+        assertThat(lines).hasSize(1);
+        JsonNode line = MAPPER.readTree(lines.get(0));
+        assertThat(line.fieldNames()).toIterable().containsExactly("Item");
+        assertThat(decodeMap(line.get("Item"))).isEqualTo(item);
+    }
+
+    @Test
+    void writesOneItemPerLine() throws IOException {
+        List<Map<String, AttributeValue>> items = List.of(
+                Map.of("id", AttributeValue.fromS("a\nb")),
+                Map.of("id", AttributeValue.fromS("c")),
+                Map.of("id", AttributeValue.fromN("3")));
+
+        List<String> lines = lines(encode(items));
+
+        assertThat(lines).hasSize(3);
+        for (int i = 0; i < items.size(); i++) {
+            assertThat(decodeMap(MAPPER.readTree(lines.get(i)).get("Item"))).isEqualTo(items.get(i));
+        }
+    }
+
+    @Test
+    void gzipMembersConcatenate() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(encode(List.of(Map.of("id", AttributeValue.fromS("a")))));
+        out.write(encode(List.of(Map.of("id", AttributeValue.fromS("b")))));
+
+        List<String> lines = lines(out.toByteArray());
+
+        assertThat(lines).containsExactly("{\"Item\":{\"id\":{\"S\":\"a\"}}}", "{\"Item\":{\"id\":{\"S\":\"b\"}}}");
+    }
+
+    private static byte[] encode(List<Map<String, AttributeValue>> items) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (DynamoDBJsonEncoder encoder = new DynamoDBJsonEncoder(out)) {
+            for (Map<String, AttributeValue> item : items) {
+                encoder.write(item);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static List<String> lines(byte[] gzip) throws IOException {
+        String text;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertThat(text).endsWith("\n");
+        return List.of(text.substring(0, text.length() - 1).split("\n", -1));
+    }
+
+    // the DynamoDB JSON format as ImportTable reads it
+    private static Map<String, AttributeValue> decodeMap(JsonNode node) {
+        Map<String, AttributeValue> map = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            map.put(field.getKey(), decode(field.getValue()));
+        }
+        return map;
+    }
+
+    private static AttributeValue decode(JsonNode node) {
+        assertThat(node.size()).isEqualTo(1);
+        Map.Entry<String, JsonNode> typed = node.fields().next();
+        JsonNode value = typed.getValue();
+        switch (typed.getKey()) {
+            case "S":
+                return AttributeValue.fromS(value.textValue());
+            case "N":
+                return AttributeValue.fromN(value.textValue());
+            case "B":
+                return AttributeValue.fromB(bytes(value));
+            case "BOOL":
+                return AttributeValue.fromBool(value.booleanValue());
+            case "NULL":
+                return AttributeValue.fromNul(value.booleanValue());
+            case "SS":
+                return AttributeValue.fromSs(strings(value));
+            case "NS":
+                return AttributeValue.fromNs(strings(value));
+            case "BS":
+                List<SdkBytes> bs = new ArrayList<>();
+                value.forEach(b -> bs.add(bytes(b)));
+                return AttributeValue.fromBs(bs);
+            case "L":
+                List<AttributeValue> l = new ArrayList<>();
+                value.forEach(v -> l.add(decode(v)));
+                return AttributeValue.fromL(l);
+            case "M":
+                return AttributeValue.fromM(decodeMap(value));
+            default:
+                throw new AssertionError("Unknown DynamoDB JSON type " + typed.getKey());
+        }
+    }
+
+    private static List<String> strings(JsonNode array) {
+        List<String> strings = new ArrayList<>();
+        array.forEach(s -> strings.add(s.textValue()));
+        return strings;
+    }
+
+    private static SdkBytes bytes(JsonNode value) {
+        return SdkBytes.fromByteArray(Base64.getDecoder().decode(value.textValue()));
+    }
+}
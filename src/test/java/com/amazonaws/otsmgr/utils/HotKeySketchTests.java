@@ -0,0 +1,79 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HotKeySketchTests {
+
+    private static final int WIDTH = 1024;
+
+    @Test
+    void findsTopKeysOfSkewedStream() {
+        HotKeySketch sketch = new HotKeySketch(WIDTH, 3, Long.MAX_VALUE);
+        Map<String, Long> counts = new HashMap<>();
+        // three hot keys among 20000 cold ones, the hot writes spread over the stream
+        for (int i = 0; i < 20000; i++) {
+            add(sketch, counts, "cold-" + i);
+            if (i % 4 == 0) {
+                add(sketch, counts, "hot-0");
+            }
+            if (i % 8 == 0) {
+                add(sketch, counts, "hot-1");
+            }
+            if (i % 16 == 0) {
+                add(sketch, counts, "hot-2");
+            }
+        }
+
+        List<Map.Entry<String, Long>> top = sketch.top();
+        assertThat(top).extracting(Map.Entry::getKey).containsExactly("hot-0", "hot-1", "hot-2");
+        long error = (long) Math.ceil(sketch.total() * Math.E / WIDTH);
+        for (Map.Entry<String, Long> entry : top) {
+            assertThat(entry.getValue()).isBetween(counts.get(entry.getKey()), counts.get(entry.getKey()) + error);
+        }
+    }
+
+    @Test
+    void neverUndercounts() {
+        HotKeySketch sketch = new HotKeySketch(WIDTH, 10, Long.MAX_VALUE);
+        Map<String, Long> counts = new HashMap<>();
+        Random random = new Random(42);
+        // a zipf-like stream, key k is written about 1 / (k + 1) of the time
+        for (int i = 0; i < 50000; i++) {
+            int key = (int) Math.floor(Math.pow(5000, random.nextDouble())) - 1;
+            add(sketch, counts, "key-" + key);
+        }
+
+        counts.forEach((key, count) -> assertThat(sketch.add(key, 0)).isGreaterThanOrEqualTo(count));
+        assertThat(sketch.total()).isEqualTo(50000);
+        assertThat(sketch.top()).extracting(Map.Entry::getKey).contains("key-0", "key-1", "key-2");
+    }
+
+    @Test
+    void decayHalvesCounts() {
+        HotKeySketch sketch = new HotKeySketch(WIDTH, 3, 100);
+        sketch.add("a", 60);
+        sketch.add("b", 39);
+        assertThat(sketch.total()).isEqualTo(99);
+
+        // the window is full, every count is halved and the single write of c drops out of the top
+        sketch.add("c", 1);
+
+        assertThat(sketch.total()).isEqualTo(50);
+        assertThat(sketch.top()).containsExactly(Map.entry("a", 30L), Map.entry("b", 19L));
+        assertThat(sketch.add("a", 0)).isEqualTo(30);
+    }
+
+    private static void add(HotKeySketch sketch, Map<String, Long> counts, String key) {
+        counts.merge(key, 1L, Long::sum);
+        assertThat(sketch.add(key, 1)).isGreaterThanOrEqualTo(counts.get(key));
+    }
+}
@@ -0,0 +1,54 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LeaseStoreTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void readsBackLeasesAndNodes() throws IOException {
+        LeaseStore store = new LeaseStore(dir);
+        store.locked(() -> {
+            store.putLease("orders", new LeaseStore.Lease("node-a", 1000, 1));
+            store.putLease("users", new LeaseStore.Lease("node-b", 2000, 3));
+            store.putNode(new LeaseStore.Node("node-a", 500, 1, 42, 1.5));
+            return null;
+        });
+
+        LeaseStore other = new LeaseStore(dir);
+        assertThat(other.leases()).containsOnlyKeys("orders", "users");
+        LeaseStore.Lease users = other.lease("users");
+        assertThat(users.getOwner()).isEqualTo("node-b");
+        assertThat(users.getExpires()).isEqualTo(2000);
+        assertThat(users.getClaims()).isEqualTo(3);
+        assertThat(other.lease("missing")).isNull();
+        LeaseStore.Node node = other.nodes().get("node-a");
+        assertThat(node.getHeartbeat()).isEqualTo(500);
+        assertThat(node.getTables()).isEqualTo(1);
+        assertThat(node.getWritten()).isEqualTo(42);
+        assertThat(node.getRate()).isEqualTo(1.5);
+    }
+
+    @Test
+    void releaseKeepsClaimCount() throws IOException {
+        LeaseStore store = new LeaseStore(dir);
+        LeaseStore.Lease lease = new LeaseStore.Lease("node-a", 1000, 2);
+        store.putLease("orders", lease);
+        store.releaseLease("orders", lease);
+
+        LeaseStore.Lease released = store.lease("orders");
+        assertThat(released.getOwner()).isEmpty();
+        assertThat(released.getExpires()).isZero();
+        assertThat(released.getClaims()).isEqualTo(2);
+    }
+}
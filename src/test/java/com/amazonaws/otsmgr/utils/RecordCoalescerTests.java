@@ -0,0 +1,132 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.RecordSequenceInfo;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecordCoalescerTests {
+
+    private int rowIndex;
+
+    @Test
+    void keepsBatchWithoutRepeatedKeys() {
+        List<StreamRecord> records = List.of(put("a", "x", "1"), update("b", "x", "2"), delete("c"));
+        assertThat(RecordCoalescer.coalesce(records)).isSameAs(records);
+    }
+
+    @Test
+    void laterPutOrDeleteReplacesEarlierRecords() {
+        List<StreamRecord> coalesced = RecordCoalescer.coalesce(List.of(
+                put("a", "x", "1"), update("a", "y", "2"), put("a", "z", "3"),
+                put("b", "x", "1"), update("b", "y", "2"), delete("b")));
+
+        assertThat(coalesced).hasSize(2);
+        assertThat(coalesced.get(0).getRecordType()).isEqualTo(StreamRecord.RecordType.PUT);
+        assertThat(columns(coalesced.get(0))).containsExactly(Map.entry("z", "PUT 3"));
+        assertThat(coalesced.get(1).getRecordType()).isEqualTo(StreamRecord.RecordType.DELETE);
+        assertThat(coalesced.get(1).getColumns()).isEmpty();
+    }
+
+    @Test
+    void updateAfterPutStaysPut() {
+        StreamRecord removeX = update("a", "y", "2");
+        removeX.setColumns(List.of(removeX.getColumns().get(0), deleteColumn("x")));
+        List<StreamRecord> coalesced = RecordCoalescer.coalesce(List.of(
+                put("a", "x", "1"), removeX, update("a", "y", "3")));
+
+        assertThat(coalesced).hasSize(1);
+        assertThat(coalesced.get(0).getRecordType()).isEqualTo(StreamRecord.RecordType.PUT);
+        assertThat(columns(coalesced.get(0))).containsExactly(Map.entry("y", "PUT 3"));
+    }
+
+    @Test
+    void updatesMergeColumnChanges() {
+        StreamRecord removeX = update("a", "y", "2");
+        removeX.setColumns(List.of(removeX.getColumns().get(0), deleteColumn("x")));
+        List<StreamRecord> coalesced = RecordCoalescer.coalesce(List.of(
+                update("a", "x", "1"), removeX, update("a", "z", "3")));
+
+        assertThat(coalesced).hasSize(1);
+        assertThat(coalesced.get(0).getRecordType()).isEqualTo(StreamRecord.RecordType.UPDATE);
+        assertThat(columns(coalesced.get(0))).containsExactly(
+                Map.entry("x", "DELETE_ALL_VERSION"), Map.entry("y", "PUT 2"), Map.entry("z", "PUT 3"));
+    }
+
+    @Test
+    void updateAfterDeleteBecomesPut() {
+        List<StreamRecord> coalesced = RecordCoalescer.coalesce(List.of(
+                put("a", "x", "1"), delete("a"), update("a", "y", "2")));
+
+        assertThat(coalesced).hasSize(1);
+        assertThat(coalesced.get(0).getRecordType()).isEqualTo(StreamRecord.RecordType.PUT);
+        assertThat(columns(coalesced.get(0))).containsExactly(Map.entry("y", "PUT 2"));
+    }
+
+    @Test
+    void foldedRecordTakesFirstPositionAndLastSequence() {
+        StreamRecord last = update("a", "x", "3");
+        List<StreamRecord> coalesced = RecordCoalescer.coalesce(List.of(
+                put("a", "x", "1"), put("b", "x", "2"), last));
+
+        assertThat(coalesced).extracting(RecordCoalescerTests::id).containsExactly("a", "b");
+        assertThat(coalesced.get(0).getSequenceInfo()).isSameAs(last.getSequenceInfo());
+    }
+
+    private StreamRecord put(String id, String column, String value) {
+        return record(StreamRecord.RecordType.PUT, id, column, value);
+    }
+
+    private StreamRecord update(String id, String column, String value) {
+        return record(StreamRecord.RecordType.UPDATE, id, column, value);
+    }
+
+    private StreamRecord delete(String id) {
+        StreamRecord r = record(StreamRecord.RecordType.DELETE, id, null, null);
+        r.setColumns(List.of());
+        return r;
+    }
+
+    private StreamRecord record(StreamRecord.RecordType type, String id, String column, String value) {
+        StreamRecord r = new StreamRecord();
+        r.setRecordType(type);
+        r.setPrimaryKey(new PrimaryKey(List.of(new PrimaryKeyColumn("id", PrimaryKeyValue.fromString(id)))));
+        if (column != null) {
+            r.setColumns(new ArrayList<>(List.of(
+                    new RecordColumn(new Column(column, ColumnValue.fromString(value)), RecordColumn.ColumnType.PUT))));
+        }
+        r.setSequenceInfo(new RecordSequenceInfo(1, System.currentTimeMillis(), rowIndex++));
+        return r;
+    }
+
+    private static RecordColumn deleteColumn(String column) {
+        return new RecordColumn(new Column(column, ColumnValue.fromString("")), RecordColumn.ColumnType.DELETE_ALL_VERSION);
+    }
+
+    private static String id(StreamRecord r) {
+        return r.getPrimaryKey().getPrimaryKeyColumns()[0].getValue().asString();
+    }
+
+    private static Map<String, String> columns(StreamRecord r) {
+        Map<String, String> columns = new LinkedHashMap<>();
+        for (RecordColumn c : r.getColumns()) {
+            columns.put(c.getColumn().getName(), c.getColumnType() == RecordColumn.ColumnType.PUT
+                    ? "PUT " + c.getColumn().getValue().asString() : c.getColumnType().name());
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,72 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.RecordSequenceInfo;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RecordConverterTests {
+
+    private static final long NOW_MICROS = 1_760_000_000_000_000L;
+
+    @Test
+    void versionsOrderLikeTheStream() {
+        assertThat(List.of(
+                version(1, NOW_MICROS, 0),
+                version(1, NOW_MICROS, 1),
+                version(1, NOW_MICROS, 999_999),
+                version(1, NOW_MICROS + 1, 0),
+                version(1, NOW_MICROS + 1_000_000, 5),
+                version(2, 0, 0),
+                version(2, NOW_MICROS, 0))).isSorted().doesNotHaveDuplicates();
+    }
+
+    @Test
+    void baseDataTakesNewestColumnTimestamp() {
+        long millis = NOW_MICROS / 1000;
+        StreamRecord base = columns(new Column("a", ColumnValue.fromLong(1), millis - 5),
+                new Column("b", ColumnValue.fromLong(2), millis));
+
+        assertThat(RecordConverter.toVersion(base))
+                .isEqualTo(RecordConverter.toVersion(columns(new Column("b", ColumnValue.fromLong(2), millis))))
+                .isGreaterThan(RecordConverter.toVersion(columns(new Column("a", ColumnValue.fromLong(1), millis - 5))));
+    }
+
+    @Test
+    void streamChangeAfterBaseDataIsNewer() {
+        long millis = NOW_MICROS / 1000;
+        BigDecimal base = RecordConverter.toVersion(columns(new Column("a", ColumnValue.fromLong(1), millis)));
+
+        assertThat(version(0, NOW_MICROS + 1, 0)).isGreaterThan(base);
+        assertThat(version(1, 0, 0)).isGreaterThan(base);
+    }
+
+    @Test
+    void noVersionWithoutSequenceOrTimestamp() {
+        assertThat(RecordConverter.toVersion(columns(new Column("a", ColumnValue.fromLong(1))))).isNull();
+        assertThat(RecordConverter.toVersion(columns())).isNull();
+    }
+
+    private static BigDecimal version(int epoch, long timestamp, int rowIndex) {
+        StreamRecord r = columns();
+        r.setSequenceInfo(new RecordSequenceInfo(epoch, timestamp, rowIndex));
+        return RecordConverter.toVersion(r);
+    }
+
+    private static StreamRecord columns(Column... columns) {
+        StreamRecord r = new StreamRecord();
+        r.setRecordType(StreamRecord.RecordType.PUT);
+        r.setColumns(Arrays.stream(columns).map(c -> new RecordColumn(c, RecordColumn.ColumnType.PUT)).toList());
+        return r;
+    }
+}
@@ -0,0 +1,118 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import com.alicloud.openservices.tablestore.model.Column;
+import com.alicloud.openservices.tablestore.model.ColumnValue;
+import com.alicloud.openservices.tablestore.model.PrimaryKey;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyColumn;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyType;
+import com.alicloud.openservices.tablestore.model.PrimaryKeyValue;
+import com.alicloud.openservices.tablestore.model.RecordColumn;
+import com.alicloud.openservices.tablestore.model.StreamRecord;
+import com.alicloud.openservices.tablestore.model.TableMeta;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3ParquetWriterTests {
+
+    private static final byte[] MAGIC = {'P', 'A', 'R', '1'};
+
+    private final FakeS3 s3 = new FakeS3();
+
+    @Test
+    void singleWriterClosesFileWithoutWaiting() {
+        S3ParquetWriter writer = new S3ParquetWriter(s3, tableMeta(), new String[]{"name"}, "SNAPPY", 64 * 1024 * 1024L);
+
+        // the first file loads the Parquet and Hadoop classes
+        writer.write(List.of(record("first")));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            writer.write(List.of(record("a" + i), record("b" + i)));
+        }
+        long elapsed = System.nanoTime() - start;
+        writer.close();
+
+        // nothing else can fill the row group, every batch is its own file
+        assertThat(elapsed).isLessThan(TimeUnit.SECONDS.toNanos(2));
+        assertThat(s3.files).hasSize(11);
+        for (byte[] file : s3.files.values()) {
+            assertThat(Arrays.copyOfRange(file, 0, 4)).isEqualTo(MAGIC);
+            assertThat(Arrays.copyOfRange(file, file.length - 4, file.length)).isEqualTo(MAGIC);
+        }
+    }
+
+    @Test
+    void concurrentWritersShareFiles() throws Exception {
+        S3ParquetWriter writer = new S3ParquetWriter(s3, tableMeta(), new String[]{"name"}, "SNAPPY", 64 * 1024 * 1024L);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writes = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            String name = "w" + w;
+            writes.add(executor.submit(() -> {
+                for (int i = 0; i < 10; i++) {
+                    writer.write(List.of(record(name + "-" + i)));
+                }
+            }));
+        }
+        for (Future<?> write : writes) {
+            write.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        writer.close();
+
+        // the batches written during an upload go out together in the next file
+        assertThat(s3.files).isNotEmpty().hasSizeLessThan(40);
+    }
+
+    private static TableMeta tableMeta() {
+        TableMeta meta = new TableMeta("t");
+        meta.addPrimaryKeyColumn("id", PrimaryKeyType.STRING);
+        return meta;
+    }
+
+    private static StreamRecord record(String id) {
+        StreamRecord r = new StreamRecord();
+        r.setRecordType(StreamRecord.RecordType.PUT);
+        r.setPrimaryKey(new PrimaryKey(List.of(new PrimaryKeyColumn("id", PrimaryKeyValue.fromString(id)))));
+        r.setColumns(List.of(new RecordColumn(new Column("name", ColumnValue.fromString("n-" + id)), RecordColumn.ColumnType.PUT)));
+        return r;
+    }
+
+    // keeps the uploaded files in memory, every upload takes a little while
+    private static class FakeS3 extends S3Util {
+        private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+
+        @Override
+        public String objectKey(String prefix, String fileName) {
+            return prefix + "/" + fileName;
+        }
+
+        @Override
+        public CompletableFuture<Void> uploadObject(String key, PooledBufferOutputStream stream, String contentType) {
+            byte[] bytes;
+            try {
+                bytes = stream.toInputStream().readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return CompletableFuture.runAsync(() -> files.put(key, bytes),
+                    CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+// Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+// SPDX-License-Identifier: MIT-0
+package com.amazonaws.otsmgr.utils;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3RollingWriterTests {
+
+    private static final long MB = 1024 * 1024;
+
+    private final FakeS3 s3 = new FakeS3();
+
+    @Test
+    void singleWriterAppendsToOneObject() {
+        S3RollingWriter writer = new S3RollingWriter(s3, "t", bytes("h\n"), ".csv", 8 * MB, 512 * MB, 900_000);
+        StringBuilder expected = new StringBuilder("h\n");
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 20; i++) {
+            writer.write(stream("row " + i + "\n"));
+            expected.append("row ").append(i).append('\n');
+        }
+        long elapsed = System.nanoTime() - start;
+        writer.close();
+
+        // every batch is acknowledged once its upload lands, none waits for the part to fill
+        assertThat(elapsed).isLessThan(TimeUnit.SECONDS.toNanos(2));
+        assertThat(s3.objects).hasSize(1);
+        assertThat(s3.objects.values()).containsExactly(expected.toString());
+        assertThat(s3.uploads.get()).isEqualTo(20);
+    }
+
+    @Test
+    void concurrentWritersShareUploads() throws Exception {
+        S3RollingWriter writer = new S3RollingWriter(s3, "t", new byte[0], ".csv", 8 * MB, 512 * MB, 900_000);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writes = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            String name = "w" + w;
+            writes.add(executor.submit(() -> {
+                for (int i = 0; i < 25; i++) {
+                    writer.write(stream(name + "-" + i + "\n"));
+                }
+            }));
+        }
+        for (Future<?> write : writes) {
+            write.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        writer.close();
+
+        assertThat(s3.objects).hasSize(1);
+        List<String> lines = List.of(s3.objects.values().iterator().next().split("\n"));
+        assertThat(lines).hasSize(100).doesNotHaveDuplicates();
+        // the writes arriving during an upload go out together with the next one
+        assertThat(s3.uploads.get()).isLessThan(100);
+    }
+
+    @Test
+    void fullPartsStayAndObjectRollsAtSize() {
+        S3RollingWriter writer = new S3RollingWriter(s3, "t", new byte[0], ".csv", 5 * MB, 12 * MB, 900_000);
+        String chunk = "x".repeat((int) (3 * MB)) + "\n";
+        for (int i = 0; i < 5; i++) {
+            writer.write(stream(chunk));
+        }
+        writer.close();
+
+        assertThat(s3.objects).hasSize(2);
+        assertThat(s3.objects.values()).extracting(String::length)
+                .containsExactlyInAnyOrder((int) (12 * MB) + 4, (int) (3 * MB) + 1);
+    }
+
+    @Test
+    void failedUploadKeepsAcknowledgedBytes() {
+        S3RollingWriter writer = new S3RollingWriter(s3, "t", new byte[0], ".csv", 8 * MB, 512 * MB, 900_000);
+        writer.write(stream("a\n"));
+        s3.failNext = true;
+
+        assertThatThrownBy(() -> writer.write(stream("b\n"))).isInstanceOf(CompletionException.class);
+        // the next write starts a new object, the failed one ends with what was acknowledged
+        writer.write(stream("c\n"));
+        writer.close();
+
+        assertThat(s3.objects.values()).containsExactlyInAnyOrder("a\n", "c\n");
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static PooledBufferOutputStream stream(String text) {
+        PooledBufferOutputStream stream = new PooledBufferOutputStream();
+        byte[] bytes = bytes(text);
+        stream.write(bytes, 0, bytes.length);
+        return stream;
+    }
+
+    // keeps the uploaded parts in memory, an upload of a part number replaces the one before like S3 does
+    private static class FakeS3 extends S3Util {
+        private final Map<String, Map<Integer, byte[]>> parts = new ConcurrentHashMap<>();
+        private final Map<String, String> objects = new ConcurrentHashMap<>();
+        private final AtomicInteger uploads = new AtomicInteger();
+        private final AtomicInteger ids = new AtomicInteger();
+        private volatile boolean failNext;
+
+        @Override
+        public String objectKey(String prefix, String fileName) {
+            return prefix + "/" + fileName;
+        }
+
+        @Override
+        public String createMultipartUpload(String key) {
+            String uploadId = key + "#" + ids.incrementAndGet();
+            parts.put(uploadId, new ConcurrentHashMap<>());
+            return uploadId;
+        }
+
+        @Override
+        public CompletableFuture<CompletedPart> uploadPart(String key, String uploadId, int partNumber, ByteBuffer[] buffers, long length) {
+            uploads.incrementAndGet();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            for (ByteBuffer buffer : buffers) {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                body.write(bytes, 0, bytes.length);
+            }
+            boolean fail = failNext;
+            failNext = false;
+            return CompletableFuture.supplyAsync(() -> {
+                if (fail) {
+                    throw new IllegalStateException("upload failed");
+                }
+                byte[] bytes = body.toByteArray();
+                assertThat(bytes).hasSize((int) length);
+                parts.get(uploadId).put(partNumber, bytes);
+                return CompletedPart.builder().partNumber(partNumber).eTag(Integer.toString(bytes.length)).build();
+            }, CompletableFuture.delayedExecutor(10, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public CompletableFuture<Void> completeMultipartUpload(String key, String uploadId, List<CompletedPart> completed) {
+            Map<Integer, byte[]> uploaded = parts.remove(uploadId);
+            StringBuilder object = new StringBuilder();
+            Set<Integer> numbers = new TreeSet<>();
+            for (CompletedPart part : completed) {
+                numbers.add(part.partNumber());
+                assertThat(part.eTag()).isEqualTo(Integer.toString(uploaded.get(part.partNumber()).length));
+            }
+            int last = numbers.stream().mapToInt(Integer::intValue).max().orElse(0);
+            for (int number : numbers) {
+                byte[] bytes = uploaded.get(number);
+                assertThat(number == last || bytes.length >= 5 * MB).isTrue();
+                object.append(new String(bytes, StandardCharsets.UTF_8));
+            }
+            if (!completed.isEmpty()) {
+                objects.put(key, object.toString());
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}